@@ -0,0 +1,103 @@
+package com.hypnofaq.bot.bench;
+
+import com.hypnofaq.bot.config.BotConfig;
+import com.hypnofaq.bot.db.DbSettings;
+import com.hypnofaq.bot.db.SqliteStorage;
+import com.hypnofaq.bot.db.UserCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Shared fixtures: throwaway database files, bulk-loaded tables and a config that points
+ * the bot at a local Bot API stand-in with rate limits out of the way.
+ */
+final class Bench {
+    private Bench() {
+    }
+
+    static Path tempDir() throws IOException {
+        return Files.createTempDirectory("hypno-bench-");
+    }
+
+    static void delete(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    static SqliteStorage sqlite(Path dir, int userCacheSize) {
+        return new SqliteStorage(dir.resolve("bench.db").toString(), DbSettings.defaults(),
+                new UserCache(userCacheSize, 600_000));
+    }
+
+    /**
+     * Creates the schema and loads {@code rows} users with one job each: ~1% due now,
+     * ~1% pending in the future, the rest DONE, which is roughly what a long-running
+     * funnel looks like. One INSERT ... SELECT per table, so 10M rows take seconds, not hours.
+     */
+    /** Size of bench.db after checkpointing its WAL into it. */
+    static long dbSize(Path dir) throws Exception {
+        Path db = dir.resolve("bench.db");
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + db);
+             Statement st = c.createStatement()) {
+            st.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+        }
+        return Files.size(db);
+    }
+
+    static void loadJobs(Path dir, long rows) throws Exception {
+        sqlite(dir, 1).close();
+        long now = System.currentTimeMillis();
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + dir.resolve("bench.db"));
+             Statement st = c.createStatement()) {
+            st.execute("PRAGMA journal_mode=WAL");
+            st.execute("PRAGMA synchronous=OFF");
+            c.setAutoCommit(false);
+            st.execute("""
+                    WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < %d)
+                    INSERT INTO users (tg_id, created_at, updated_at, stage) SELECT n, %d, %d, 'READY' FROM seq
+                    """.formatted(rows, now, now));
+            st.execute("""
+                    WITH RECURSIVE seq(n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < %d)
+                    INSERT INTO jobs (tg_id, type, run_at, status, attempts, created_at, updated_at)
+                    SELECT n, 'SEND_CHECKUP_PROMPT',
+                           CASE WHEN n %% 100 = 0 THEN %d - n WHEN n %% 100 = 1 THEN %d + n ELSE %d - n END,
+                           CASE WHEN n %% 100 IN (0, 1) THEN 'PENDING' ELSE 'DONE' END,
+                           0, %d, %d
+                    FROM seq
+                    """.formatted(rows, now, now + 86_400_000L, now, now, now));
+            c.commit();
+            c.setAutoCommit(true);
+            st.execute("ANALYZE");
+        }
+    }
+
+    /** Config for an in-process bot talking to {@code apiUrl}; asset files don't exist, so media goes by file_id. */
+    static BotConfig config(String apiUrl, String storageBackend) {
+        Map<String, String> env = new HashMap<>();
+        env.put("BOT_TOKEN", "123:bench");
+        env.put("BOT_USERNAME", "bench_bot");
+        env.put("TELEGRAM_API_URL", apiUrl);
+        env.put("STORAGE_BACKEND", storageBackend);
+        env.put("PRACTICE_AUDIO_PATH", "/nonexistent/practice.m4a");
+        env.put("CHECKUP_PDF_PATH", "/nonexistent/checkup.pdf");
+        env.put("CHECKUP_IMAGE_PATH", "/nonexistent/2.jpg");
+        env.put("ANNA_IMAGE_PATH", "/nonexistent/5.jpg");
+        env.put("ASSET_WATCH", "false");
+        env.put("TG_GLOBAL_RATE", "1000000");
+        env.put("TG_GLOBAL_BURST", "1000000");
+        env.put("TG_CHAT_RATE", "1000000");
+        env.put("TG_CHAT_BURST", "1000000");
+        return BotConfig.fromEnv(env);
+    }
+}
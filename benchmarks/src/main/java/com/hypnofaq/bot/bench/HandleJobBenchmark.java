@@ -0,0 +1,80 @@
+package com.hypnofaq.bot.bench;
+
+import com.hypnofaq.bot.HypnoBot;
+import com.hypnofaq.bot.config.BotConfig;
+import com.hypnofaq.bot.media.AssetRegistry;
+import com.hypnofaq.bot.media.FileIdCache;
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.store.memory.MemoryStorage;
+import com.hypnofaq.bot.telegram.SendGateway;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HypnoBot.handleJob per {@link JobType} against {@link StubBotApi}: request building,
+ * JSON, the HTTP round trip over loopback and the send gateway, with storage in memory.
+ * Media goes by a cached file_id, as it does in production once assets are warmed up.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HandleJobBenchmark {
+    private static final long TG_ID = 1;
+
+    @Param({"SEND_CHECKUP_PROMPT", "SEND_VIDEO_PROMPT", "SEND_CALL_INVITE", "SEND_ANNA_STORY",
+            "SEND_MAXIM_STORY", "SEND_FINAL_PUSH", "SEND_REMINDER_BOOK_TIME"})
+    public String type;
+
+    private StubBotApi api;
+    private HypnoBot bot;
+    private Job job;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        api = new StubBotApi();
+        BotConfig config = Bench.config(api.url(), "memory");
+        MemoryStorage storage = new MemoryStorage();
+        storage.users().ensureUser(TG_ID);
+        storage.users().markPracticeSent(TG_ID);
+        storage.users().markCheckupSent(TG_ID);
+
+        FileIdCache fileIds = new FileIdCache(storage.fileIds());
+        AssetRegistry assets = AssetRegistry.fromConfig(config);
+        for (var a : assets.all()) fileIds.put(a.key, "stub-" + a.key);
+
+        SendGateway gateway = new SendGateway(config.tgGlobalRate, config.tgGlobalBurst,
+                config.tgChatRate, config.tgChatBurst, config.tgMaxRetries, config.tgMaxRetryWaitSeconds,
+                config.broadcastRate, config.tgMaxConnections);
+        bot = new HypnoBot(config, storage.users(), storage.broadcasts(), gateway, fileIds, assets);
+        job = new Job(1, TG_ID, JobType.valueOf(type), 0, null, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bot.dispatcher().stop(1);
+        api.close();
+    }
+
+    @Benchmark
+    public JobResult handleJob() throws Exception {
+        return bot.handleJob(job);
+    }
+}
@@ -0,0 +1,102 @@
+package com.hypnofaq.bot.bench;
+
+import com.hypnofaq.bot.db.JobDao;
+import com.hypnofaq.bot.db.SqliteStorage;
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The job queue against tables of growing size (see {@link Bench#loadJobs}): how insert,
+ * the due-jobs scan and the claim hold up as DONE rows pile up. Pick a size with
+ * {@code -p rows=1000000}; 10M takes a few minutes to load. With {@code archived=true} the
+ * DONE rows are moved to jobs_archive first, as the retention service would, and the freed
+ * pages vacuumed away; the database size is printed either way.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobDaoBenchmark {
+    private static final String OWNER = "bench";
+
+    @Param({"10000", "100000", "1000000", "10000000"})
+    public long rows;
+
+    @Param({"100"})
+    public int batch;
+
+    @Param({"false", "true"})
+    public boolean archived;
+
+    private Path dir;
+    private SqliteStorage storage;
+    private JobDao jobs;
+    private long nextTgId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Bench.tempDir();
+        Bench.loadJobs(dir, rows);
+        if (archived) {
+            try (SqliteStorage s = Bench.sqlite(dir, 1)) {
+                // loadJobs stamps every row with the load time, so everything finished is old enough
+                long olderThan = System.currentTimeMillis() + 1;
+                while (s.jobs().archiveFinished(olderThan, 10_000) > 0) {
+                    // next batch
+                }
+                s.reclaimSpace();
+            }
+        }
+        System.out.printf("%nbench.db: %.1f MiB%n", Bench.dbSize(dir) / 1048576.0);
+        storage = Bench.sqlite(dir, 1000);
+        jobs = (JobDao) storage.jobs();
+        nextTgId = rows + 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.close();
+        Bench.delete(dir);
+    }
+
+    /** One new job for a new user, as after /start. */
+    @Benchmark
+    public void scheduleOnce() {
+        long tgId = nextTgId++;
+        storage.users().ensureUser(tgId);
+        jobs.scheduleOnce(tgId, JobType.SEND_CHECKUP_PROMPT, System.currentTimeMillis() + 86_400_000L, null);
+    }
+
+    @Benchmark
+    public List<Job> fetchDueJobs() {
+        return jobs.fetchDueJobs(System.currentTimeMillis(), batch);
+    }
+
+    /** Claim a batch of due jobs and hand them back, so every invocation sees the same queue. */
+    @Benchmark
+    public int claimAndRelease() {
+        long now = System.currentTimeMillis();
+        int claimed = jobs.claimDueJobs(now, batch, OWNER, now + 60_000).size();
+        jobs.releaseLeases(OWNER);
+        return claimed;
+    }
+}
@@ -0,0 +1,101 @@
+package com.hypnofaq.bot.bench;
+
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.scheduler.JobScheduler;
+import com.hypnofaq.bot.scheduler.RetryPolicy;
+import com.hypnofaq.bot.store.Storage;
+import com.hypnofaq.bot.store.memory.MemoryStorage;
+import com.hypnofaq.bot.store.mvstore.MvStoreStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * JobScheduler end to end with a handler that does nothing: schedule {@link #JOBS} due jobs
+ * (one per user) and wait until every one of them is DONE. The score is the cost per job of
+ * scheduleOnce + wake-up + claim + dispatch + complete.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(SchedulerBenchmark.JOBS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SchedulerBenchmark {
+    static final int JOBS = 2000;
+
+    @Param({"sqlite", "mvstore", "memory"})
+    public String backend;
+
+    @Param({"8"})
+    public int workers;
+
+    private Path dir;
+    private Storage storage;
+    private JobScheduler scheduler;
+    private volatile CountDownLatch handled;
+    private long nextTgId = 1;
+    private final List<Long> batch = new ArrayList<>(JOBS);
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Bench.tempDir();
+        storage = switch (backend) {
+            case "sqlite" -> Bench.sqlite(dir, 100_000);
+            case "mvstore" -> new MvStoreStorage(dir.resolve("bench.mv.db").toString(), 1000);
+            default -> new MemoryStorage();
+        };
+        JobScheduler.Handler handler = job -> {
+            handled.countDown();
+            return JobResult.NONE;
+        };
+        RetryPolicy giveUp = (job, attempts, kind, error, now) -> RetryPolicy.GIVE_UP;
+        scheduler = new JobScheduler(storage.jobs(), handler, giveUp, 60, workers, 256, 100, "bench", 60);
+        scheduler.start();
+    }
+
+    /** Users exist before the clock starts (the jobs table references them). */
+    @Setup(Level.Invocation)
+    public void createUsers() {
+        batch.clear();
+        for (int i = 0; i < JOBS; i++) batch.add(nextTgId++);
+        storage.users().ensureUsers(batch);
+        handled = new CountDownLatch(JOBS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        scheduler.stop();
+        storage.close();
+        Bench.delete(dir);
+    }
+
+    @Benchmark
+    public void scheduleAndDrain() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        for (long tgId : batch) storage.jobs().scheduleOnce(tgId, JobType.SEND_CHECKUP_PROMPT, now, null);
+        handled.await();
+        // the handler runs before complete(); the permit is returned after it
+        while (scheduler.inFlight() > 0) LockSupport.parkNanos(50_000);
+    }
+}
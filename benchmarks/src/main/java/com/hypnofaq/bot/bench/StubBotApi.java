@@ -0,0 +1,79 @@
+package com.hypnofaq.bot.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bot API that answers every method instantly with a canned success, so a benchmark
+ * measures the bot's own work (serialization, HTTP client, gateway) and not Telegram.
+ */
+final class StubBotApi implements AutoCloseable {
+    private static final byte[] MESSAGE = """
+            {"ok":true,"result":{"message_id":1,"date":0,"chat":{"id":1,"type":"private"},\
+            "photo":[{"file_id":"stub","file_unique_id":"stub","width":1,"height":1}]}}\
+            """.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRUE = "{\"ok\":true,\"result\":true}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MEMBER = """
+            {"ok":true,"result":{"status":"member","user":{"id":1,"is_bot":false,"first_name":"u"}}}\
+            """.getBytes(StandardCharsets.UTF_8);
+
+    static {
+        // otherwise Nagle + delayed ACK add ~40 ms to every loopback reply
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final AtomicLong calls = new AtomicLong();
+
+    StubBotApi() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** Value for TELEGRAM_API_URL. */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    long calls() {
+        return calls.get();
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            try (InputStream in = ex.getRequestBody()) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            calls.incrementAndGet();
+            String path = ex.getRequestURI().getPath();
+            String method = path.substring(path.lastIndexOf('/') + 1);
+            byte[] body = switch (method) {
+                case "getChatMember" -> MEMBER;
+                case "answerCallbackQuery", "deleteMessage", "setWebhook" -> TRUE;
+                default -> MESSAGE;
+            };
+            ex.getResponseHeaders().set("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
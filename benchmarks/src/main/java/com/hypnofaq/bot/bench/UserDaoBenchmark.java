@@ -0,0 +1,106 @@
+package com.hypnofaq.bot.bench;
+
+import com.hypnofaq.bot.db.SqliteStorage;
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.model.UserStage;
+import com.hypnofaq.bot.store.UserSession;
+import com.hypnofaq.bot.store.UserStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserDao on a real SQLite file: upserts (new and existing users), reads with the user
+ * cache warm and with it effectively off, and one session round trip per update.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserDaoBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int users;
+
+    /** "warm": cache holds every user; "cold": one entry, so reads go to SQLite. */
+    @Param({"warm", "cold"})
+    public String cache;
+
+    private Path dir;
+    private SqliteStorage storage;
+    private UserStore store;
+    private long nextNewId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Bench.tempDir();
+        Bench.loadJobs(dir, users);
+        storage = Bench.sqlite(dir, cache.equals("warm") ? users : 1);
+        store = storage.users();
+        nextNewId = users + 1L;
+        if (cache.equals("warm")) {
+            List<Long> ids = new ArrayList<>(10_000);
+            for (long id = 1; id <= users; id++) {
+                ids.add(id);
+                if (ids.size() == 10_000) {
+                    store.ensureUsers(ids);
+                    ids.clear();
+                }
+            }
+            store.ensureUsers(ids);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        storage.close();
+        Bench.delete(dir);
+    }
+
+    private long randomExisting() {
+        return ThreadLocalRandom.current().nextLong(1, users + 1L);
+    }
+
+    @Benchmark
+    public void ensureExisting() {
+        store.ensureUser(randomExisting());
+    }
+
+    @Benchmark
+    public void ensureNew() {
+        store.ensureUser(nextNewId++);
+    }
+
+    @Benchmark
+    public Optional<User> getUser() {
+        return store.getUser(randomExisting());
+    }
+
+    /** What a CHECK_SUB tap costs: open, change two columns, flush. */
+    @Benchmark
+    public void sessionRoundTrip() {
+        UserSession s = store.openSession(randomExisting());
+        s.setSubscribed(!s.subscribed());
+        s.setStage(s.stage() == UserStage.READY ? UserStage.WAITING_SUBSCRIBE : UserStage.READY);
+        store.flush(s);
+    }
+}
@@ -0,0 +1,432 @@
+package com.hypnofaq.bot.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local stand-in for the Telegram Bot API, good enough for the bot's whole funnel:
+ * long-polling {@code getUpdates} fed by {@link #pushMessage}/{@link #pushCallback}, the send
+ * methods, {@code forwardMessage}, {@code getChatMember} (always "member") and
+ * {@code answerCallbackQuery}. Every outbound call is reported to the {@link Listener}.
+ * <p>
+ * Send methods can be made to misbehave like the real thing: added latency with jitter,
+ * random 429 (with {@code retry_after}) and 5xx answers, and a per-chat limit of messages
+ * per second answered with 429 once exceeded.
+ */
+final class FakeBotApi implements AutoCloseable {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    /** Method names are case-insensitive; TelegramBots calls e.g. "getupdates". */
+    private static final Map<String, String> METHODS = Stream.of(
+                    "getMe", "getUpdates", "deleteWebhook", "setWebhook", "getChatMember", "answerCallbackQuery",
+                    "sendMessage", "sendPhoto", "sendAudio", "sendDocument", "sendVideo", "forwardMessage")
+            .collect(Collectors.toMap(m -> m.toLowerCase(Locale.ROOT), m -> m));
+    private static final Pattern MULTIPART_FIELD =
+            Pattern.compile("name=\"([a-z_]+)\"\r\n(?:[^\r\n]+\r\n)*\r\n([^\r]*)\r\n");
+
+    static {
+        // otherwise Nagle + delayed ACK add ~40 ms to every loopback reply
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    /**
+     * One Bot API call the bot made, timed when the request arrived (before the injected
+     * latency). {@code chatId} is 0 when the method has none.
+     */
+    static final class Call {
+        final String method;
+        final long chatId;
+        final JsonNode params;
+        final long atNanos;
+
+        Call(String method, long chatId, JsonNode params, long atNanos) {
+            this.method = method;
+            this.chatId = chatId;
+            this.params = params;
+            this.atNanos = atNanos;
+        }
+
+        /** callback_data of the first inline button, or null. */
+        String firstCallbackData() {
+            JsonNode b = firstButton();
+            return b != null && b.hasNonNull("callback_data") ? b.get("callback_data").asText() : null;
+        }
+
+        boolean hasUrlButton() {
+            JsonNode b = firstButton();
+            return b != null && b.hasNonNull("url");
+        }
+
+        private JsonNode firstButton() {
+            JsonNode markup = params.get("reply_markup");
+            if (markup == null || markup.isNull()) return null;
+            if (markup.isTextual()) {
+                try {
+                    markup = JSON.readTree(markup.asText());
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+            JsonNode b = markup.path("inline_keyboard").path(0).path(0);
+            return b.isMissingNode() ? null : b;
+        }
+    }
+
+    interface Listener {
+        void onCall(Call call);
+    }
+
+    static final class Settings {
+        final long latencyMillis;
+        final long jitterMillis;
+        final double rate429;
+        final double rate5xx;
+        final int chatLimitPerSecond;
+
+        Settings(long latencyMillis, long jitterMillis, double rate429, double rate5xx, int chatLimitPerSecond) {
+            this.latencyMillis = latencyMillis;
+            this.jitterMillis = jitterMillis;
+            this.rate429 = rate429;
+            this.rate5xx = rate5xx;
+            this.chatLimitPerSecond = chatLimitPerSecond;
+        }
+    }
+
+    private final Settings settings;
+    private final HttpServer server;
+    private volatile Listener listener = call -> {
+    };
+
+    private final ReentrantLock updatesLock = new ReentrantLock();
+    private final Condition updatesArrived = updatesLock.newCondition();
+    private final ArrayDeque<ObjectNode> updates = new ArrayDeque<>();
+    private long nextUpdateId = 1;
+
+    private final AtomicLong messageIds = new AtomicLong();
+    private final AtomicLong callbackSeq = new AtomicLong();
+    private final Map<Long, ChatWindow> chatWindows = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> callsByMethod = new ConcurrentHashMap<>();
+    private final AtomicLong injected429 = new AtomicLong();
+    private final AtomicLong injected5xx = new AtomicLong();
+    private final AtomicLong chatLimited = new AtomicLong();
+
+    FakeBotApi(Settings settings) throws IOException {
+        this.settings = settings;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // platform threads: the bot's own virtual threads can pin every carrier while they
+        // wait for a pooled connection, and the fake must still answer to free one
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** Value for TELEGRAM_API_URL. */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** A private-chat text message from user {@code userId}. */
+    void pushMessage(long userId, String text) {
+        ObjectNode message = message(userId);
+        message.put("text", text);
+        ObjectNode update = JSON.createObjectNode();
+        update.set("message", message);
+        enqueue(update);
+    }
+
+    /**
+     * A button press by {@code userId}. The query id is {@code "<userId>:<seq>"}, so the
+     * matching answerCallbackQuery can be attributed to the user.
+     */
+    void pushCallback(long userId, String data) {
+        ObjectNode query = JSON.createObjectNode();
+        query.put("id", userId + ":" + callbackSeq.incrementAndGet());
+        query.set("from", user(userId));
+        query.set("message", message(userId));
+        query.put("chat_instance", String.valueOf(userId));
+        query.put("data", data);
+        ObjectNode update = JSON.createObjectNode();
+        update.set("callback_query", query);
+        enqueue(update);
+    }
+
+    private void enqueue(ObjectNode update) {
+        updatesLock.lock();
+        try {
+            update.put("update_id", nextUpdateId++);
+            updates.addLast(update);
+            updatesArrived.signalAll();
+        } finally {
+            updatesLock.unlock();
+        }
+    }
+
+    Stats stats() {
+        Map<String, Long> calls = new TreeMap<>();
+        callsByMethod.forEach((method, n) -> calls.put(method, n.get()));
+        return new Stats(calls, injected429.get(), injected5xx.get(), chatLimited.get());
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        long at = System.nanoTime();
+        try {
+            byte[] raw;
+            try (InputStream in = ex.getRequestBody()) {
+                raw = in.readAllBytes();
+            }
+            String path = ex.getRequestURI().getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            String method = METHODS.getOrDefault(name.toLowerCase(Locale.ROOT), name);
+            JsonNode params = parse(ex.getRequestHeaders().getFirst("Content-Type"), raw);
+            callsByMethod.computeIfAbsent(method, k -> new AtomicLong()).incrementAndGet();
+
+            if (method.equals("getUpdates")) {
+                reply(ex, 200, ok(pollUpdates(params)));
+                return;
+            }
+
+            boolean sending = method.startsWith("send") || method.equals("forwardMessage");
+            if (sending) delay();
+            long chatId = params.path("chat_id").asLong(0);
+            if (sending) {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                if (rnd.nextDouble() < settings.rate5xx) {
+                    injected5xx.incrementAndGet();
+                    reply(ex, 502, error(502, "Bad Gateway", 0));
+                    return;
+                }
+                if (rnd.nextDouble() < settings.rate429) {
+                    injected429.incrementAndGet();
+                    reply(ex, 429, error(429, "Too Many Requests: retry after 1", 1));
+                    return;
+                }
+                if (settings.chatLimitPerSecond > 0 && chatId != 0
+                        && !chatWindows.computeIfAbsent(chatId, k -> new ChatWindow()).tryAcquire(settings.chatLimitPerSecond)) {
+                    chatLimited.incrementAndGet();
+                    reply(ex, 429, error(429, "Too Many Requests: retry after 1", 1));
+                    return;
+                }
+            }
+
+            listener.onCall(new Call(method, chatId, params, at));
+
+            JsonNode result = switch (method) {
+                case "getMe" -> bot();
+                case "getChatMember" -> member(params.path("user_id").asLong());
+                case "sendMessage", "sendPhoto", "sendAudio", "sendDocument", "sendVideo", "forwardMessage" ->
+                        sent(method, chatId);
+                default -> JSON.getNodeFactory().booleanNode(true);
+            };
+            reply(ex, 200, ok(result));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private ArrayNode pollUpdates(JsonNode params) {
+        long offset = params.path("offset").asLong(0);
+        int limit = params.path("limit").asInt(100);
+        long timeoutNanos = TimeUnit.SECONDS.toNanos(params.path("timeout").asLong(0));
+        ArrayNode result = JSON.createArrayNode();
+        updatesLock.lock();
+        try {
+            while (!updates.isEmpty() && updates.peekFirst().get("update_id").asLong() < offset) updates.pollFirst();
+            while (updates.isEmpty() && timeoutNanos > 0) {
+                timeoutNanos = updatesArrived.awaitNanos(timeoutNanos);
+            }
+            for (ObjectNode u : updates) {
+                if (result.size() >= limit) break;
+                result.add(u);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            updatesLock.unlock();
+        }
+        return result;
+    }
+
+    private void delay() {
+        long ms = settings.latencyMillis;
+        if (settings.jitterMillis > 0) ms += ThreadLocalRandom.current().nextLong(settings.jitterMillis + 1);
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* ---------------------------
+       Payloads
+       --------------------------- */
+
+    private static JsonNode parse(String contentType, byte[] raw) throws IOException {
+        if (contentType != null && contentType.startsWith("multipart/form-data")) {
+            // file parts are binary, but the fields we read are ASCII, so Latin-1 keeps offsets sane
+            ObjectNode fields = JSON.createObjectNode();
+            Matcher m = MULTIPART_FIELD.matcher(new String(raw, StandardCharsets.ISO_8859_1));
+            while (m.find()) {
+                if (!fields.has(m.group(1))) fields.put(m.group(1), m.group(2));
+            }
+            return fields;
+        }
+        if (raw.length == 0) return JSON.createObjectNode();
+        return JSON.readTree(raw);
+    }
+
+    private ObjectNode message(long chatId) {
+        ObjectNode chat = JSON.createObjectNode();
+        chat.put("id", chatId);
+        chat.put("type", "private");
+        ObjectNode m = JSON.createObjectNode();
+        m.put("message_id", messageIds.incrementAndGet());
+        m.put("date", System.currentTimeMillis() / 1000);
+        m.set("chat", chat);
+        m.set("from", user(chatId));
+        return m;
+    }
+
+    private JsonNode sent(String method, long chatId) {
+        ObjectNode m = message(chatId);
+        m.remove("from");
+        String fileId = method + "-" + m.get("message_id").asLong();
+        switch (method) {
+            case "sendPhoto" -> {
+                ObjectNode size = file(fileId);
+                size.put("width", 1280);
+                size.put("height", 720);
+                m.set("photo", JSON.createArrayNode().add(size));
+            }
+            case "sendAudio" -> m.set("audio", file(fileId).put("duration", 600));
+            case "sendDocument" -> m.set("document", file(fileId));
+            case "sendVideo" -> m.set("video", file(fileId).put("width", 1280).put("height", 720).put("duration", 60));
+            default -> m.put("text", "ok");
+        }
+        return m;
+    }
+
+    private static ObjectNode file(String fileId) {
+        ObjectNode f = JSON.createObjectNode();
+        f.put("file_id", fileId);
+        f.put("file_unique_id", fileId);
+        return f;
+    }
+
+    private static ObjectNode user(long id) {
+        ObjectNode u = JSON.createObjectNode();
+        u.put("id", id);
+        u.put("is_bot", false);
+        u.put("first_name", "user" + id);
+        return u;
+    }
+
+    private static JsonNode bot() {
+        ObjectNode u = user(1);
+        u.put("is_bot", true);
+        u.put("username", "loadtest_bot");
+        return u;
+    }
+
+    private static JsonNode member(long userId) {
+        ObjectNode m = JSON.createObjectNode();
+        m.put("status", "member");
+        m.set("user", user(userId));
+        return m;
+    }
+
+    private static ObjectNode ok(JsonNode result) {
+        ObjectNode r = JSON.createObjectNode();
+        r.put("ok", true);
+        r.set("result", result);
+        return r;
+    }
+
+    private static ObjectNode error(int code, String description, int retryAfter) {
+        ObjectNode r = JSON.createObjectNode();
+        r.put("ok", false);
+        r.put("error_code", code);
+        r.put("description", description);
+        if (retryAfter > 0) r.putObject("parameters").put("retry_after", retryAfter);
+        return r;
+    }
+
+    private static void reply(HttpExchange ex, int status, JsonNode body) throws IOException {
+        byte[] bytes = JSON.writeValueAsBytes(body);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /** Messages sent to one chat in the current one-second window. */
+    private static final class ChatWindow {
+        private long second;
+        private int count;
+
+        synchronized boolean tryAcquire(int limit) {
+            long now = System.currentTimeMillis() / 1000;
+            if (now != second) {
+                second = now;
+                count = 0;
+            }
+            return ++count <= limit;
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    static final class Stats {
+        final Map<String, Long> callsByMethod;
+        final long injected429;
+        final long injected5xx;
+        final long chatLimited;
+
+        Stats(Map<String, Long> callsByMethod, long injected429, long injected5xx, long chatLimited) {
+            this.callsByMethod = callsByMethod;
+            this.injected429 = injected429;
+            this.injected5xx = injected5xx;
+            this.chatLimited = chatLimited;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + callsByMethod +
+                    ", injected429=" + injected429 +
+                    ", injected5xx=" + injected5xx +
+                    ", chatLimited=" + chatLimited;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package com.hypnofaq.bot.loadtest;
+
+import com.hypnofaq.bot.Main;
+import com.hypnofaq.bot.config.BotConfig;
+import com.hypnofaq.bot.ui.Texts;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Drives N simulated users through the whole funnel, {@code /start} to the CHOOSE_TIME
+ * answer, against the real {@link Main#start} wiring pointed at a {@link FakeBotApi}.
+ * Funnel delays are compressed with FUNNEL_DELAY_SCALE, so 80 hours of follow-ups take
+ * about a minute at the default scale.
+ * <p>
+ * Arguments are {@code key=value}: the lower-case ones below tune the driver and the fake,
+ * UPPER_CASE ones are passed to the bot as ENV (e.g. {@code STORAGE_BACKEND=mvstore}).
+ * <pre>
+ *   users=1000        simulated users
+ *   arrival=30        seconds over which their /start arrives
+ *   scale=0.0002      FUNNEL_DELAY_SCALE
+ *   think=300         max think time before a button press, ms
+ *   latency=30        Bot API latency, ms, plus up to jitter=20
+ *   p429=0.01         share of send calls answered with 429 retry_after=1
+ *   p5xx=0            share of send calls answered with 502
+ *   chatLimit=3       messages per chat per second before 429
+ *   timeout=0         seconds to wait for the last user; 0 picks one from the funnel length
+ * </pre>
+ * Reports reply latency (user input to the bot's first call for that chat), callback ack
+ * latency, lag of each scheduled step behind its due time, where unfinished users stopped,
+ * and the fake's per-method counters.
+ */
+public final class FunnelLoadTest {
+    private static final long USER_ID_BASE = 1_000_000;
+
+    /** Funnel step the driver recognises, with the delay it follows; ZERO for replies to the user. */
+    private enum Step {
+        WELCOME(Duration.ZERO),
+        PRACTICE_INTRO(Duration.ZERO),
+        CHECKUP_PROMPT(Duration.ofHours(24)),
+        VIDEO_PROMPT(Duration.ofHours(4)),
+        CALL_INVITE(Duration.ofHours(24)),
+        ANNA_STORY(Duration.ofHours(4)),
+        MAXIM_STORY(Duration.ofHours(24)),
+        FINAL_PUSH(Duration.ofSeconds(5)),
+        DONE(Duration.ZERO);
+
+        final Duration delay;
+
+        Step(Duration delay) {
+            this.delay = delay;
+        }
+    }
+
+    private final FakeBotApi api;
+    private final double scale;
+    private final long thinkMillis;
+    private final ScheduledExecutorService clicks = Executors.newScheduledThreadPool(2);
+    private final Map<Long, SimUser> users = new ConcurrentHashMap<>();
+    private final CountDownLatch finished;
+    private final long startNanos = System.nanoTime();
+
+    private final Samples reply = new Samples();
+    private final Samples ack = new Samples();
+    private final Samples funnel = new Samples();
+    private final Map<Step, Samples> lag = new ConcurrentHashMap<>();
+
+    private FunnelLoadTest(FakeBotApi api, int users, double scale, long thinkMillis) {
+        this.api = api;
+        this.scale = scale;
+        this.thinkMillis = thinkMillis;
+        this.finished = new CountDownLatch(users);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        Map<String, String> env = new HashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Expected key=value, got: " + a);
+            String key = a.substring(0, eq);
+            (key.equals(key.toUpperCase()) ? env : opts).put(key, a.substring(eq + 1));
+        }
+        int users = Integer.parseInt(opts.getOrDefault("users", "1000"));
+        int arrivalSeconds = Integer.parseInt(opts.getOrDefault("arrival", "30"));
+        double scale = Double.parseDouble(opts.getOrDefault("scale", "0.0002"));
+        long think = Long.parseLong(opts.getOrDefault("think", "300"));
+        FakeBotApi.Settings settings = new FakeBotApi.Settings(
+                Long.parseLong(opts.getOrDefault("latency", "30")),
+                Long.parseLong(opts.getOrDefault("jitter", "20")),
+                Double.parseDouble(opts.getOrDefault("p429", "0.01")),
+                Double.parseDouble(opts.getOrDefault("p5xx", "0")),
+                Integer.parseInt(opts.getOrDefault("chatLimit", "3")));
+        long funnelSeconds = (long) (Arrays.stream(Step.values()).mapToLong(s -> s.delay.toSeconds()).sum() * scale);
+        long timeout = Long.parseLong(opts.getOrDefault("timeout", "0"));
+        if (timeout <= 0) timeout = arrivalSeconds + funnelSeconds + 60;
+
+        Path dir = Files.createTempDirectory("hypno-loadtest-");
+        String logLevel = env.getOrDefault("LOG_LEVEL", "WARN");
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", logLevel.toLowerCase());
+
+        try (FakeBotApi api = new FakeBotApi(settings)) {
+            Map<String, String> vars = botEnv(dir, api.url(), scale);
+            vars.putAll(env);
+            BotConfig config = BotConfig.fromEnv(vars);
+
+            FunnelLoadTest test = new FunnelLoadTest(api, users, scale, think);
+            api.setListener(test::onCall);
+            Runnable shutdown = Main.start(config);
+
+            System.out.printf("users=%d arrival=%ds scale=%s (funnel ~%ds) backend=%s api=%s%n",
+                    users, arrivalSeconds, scale, funnelSeconds, config.storageBackend, api.url());
+            test.arrive(users, arrivalSeconds);
+            boolean all = test.finished.await(timeout, TimeUnit.SECONDS);
+            double elapsed = (System.nanoTime() - test.startNanos) / 1e9;
+
+            test.clicks.shutdownNow();
+            shutdown.run();
+            test.report(all, elapsed);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static Map<String, String> botEnv(Path dir, String apiUrl, double scale) throws IOException {
+        Map<String, String> env = new HashMap<>();
+        env.put("BOT_TOKEN", "123:loadtest");
+        env.put("BOT_USERNAME", "loadtest_bot");
+        env.put("TELEGRAM_API_URL", apiUrl);
+        env.put("DB_PATH", dir.resolve("bot.db").toString());
+        env.put("MVSTORE_PATH", dir.resolve("bot.mv.db").toString());
+        env.put("PRACTICE_AUDIO_PATH", asset(dir, "practice.m4a", 256 * 1024).toString());
+        env.put("CHECKUP_PDF_PATH", asset(dir, "checkup.pdf", 128 * 1024).toString());
+        env.put("CHECKUP_IMAGE_PATH", asset(dir, "2.jpg", 64 * 1024).toString());
+        env.put("ANNA_IMAGE_PATH", asset(dir, "5.jpg", 64 * 1024).toString());
+        env.put("ASSET_WATCH", "false");
+        env.put("FUNNEL_DELAY_SCALE", String.valueOf(scale));
+        env.put("SCHEDULER_POLL_SECONDS", "1");
+        env.put("JOB_RETRY_BASE_SECONDS", "1");
+        env.put("JOB_RETRY_MAX_SECONDS", "5");
+        env.put("TG_GLOBAL_RATE", "1000");
+        env.put("TG_GLOBAL_BURST", "1000");
+        return env;
+    }
+
+    private static Path asset(Path dir, String name, int size) throws IOException {
+        byte[] bytes = new byte[size];
+        ThreadLocalRandom.current().nextBytes(bytes);
+        return Files.write(dir.resolve(name), bytes);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    /** Sends each user's /start at a uniformly spread moment of the arrival window. */
+    private void arrive(int count, int arrivalSeconds) throws InterruptedException {
+        long windowNanos = TimeUnit.SECONDS.toNanos(arrivalSeconds);
+        for (int i = 0; i < count; i++) {
+            long due = startNanos + (count > 1 ? windowNanos * i / (count - 1) : 0);
+            long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+
+            SimUser u = new SimUser(USER_ID_BASE + i);
+            users.put(u.id, u);
+            synchronized (u) {
+                u.inputAt = System.nanoTime();
+                u.startedAt = u.inputAt;
+                api.pushMessage(u.id, "/start");
+            }
+        }
+    }
+
+    /* ---------------------------
+       Reacting to the bot
+       --------------------------- */
+
+    private void onCall(FakeBotApi.Call call) {
+        if (call.method.equals("answerCallbackQuery")) {
+            String id = call.params.path("callback_query_id").asText("");
+            int colon = id.indexOf(':');
+            SimUser u = colon > 0 ? users.get(Long.parseLong(id.substring(0, colon))) : null;
+            if (u != null) {
+                synchronized (u) {
+                    if (u.clickAt > 0) ack.add(call.atNanos - u.clickAt);
+                    u.clickAt = 0;
+                }
+            }
+            return;
+        }
+        if (!call.method.startsWith("send") && !call.method.equals("forwardMessage")) return;
+        SimUser u = users.get(call.chatId);
+        if (u == null) return;
+
+        synchronized (u) {
+            if (u.inputAt > 0) {
+                reply.add(call.atNanos - u.inputAt);
+                u.inputAt = 0;
+            }
+            Step step = recognise(u, call);
+            if (step != null) {
+                if (step.delay.isPositive()) {
+                    long anchor = step == Step.CALL_INVITE ? u.videoPromptAt : u.lastSendAt;
+                    long due = anchor + (long) (step.delay.toNanos() * scale);
+                    lag.computeIfAbsent(step, k -> new Samples()).add(call.atNanos - due);
+                }
+                u.step = step;
+                if (step == Step.VIDEO_PROMPT) u.videoPromptAt = call.atNanos;
+                if (step == Step.DONE) {
+                    funnel.add(call.atNanos - u.startedAt);
+                    finished.countDown();
+                }
+            }
+            u.lastSendAt = call.atNanos;
+
+            String data = call.firstCallbackData();
+            if (data != null && step != null && step != Step.DONE) press(u, data);
+        }
+    }
+
+    /** Which step this call is, given where the user is; null for everything in between. */
+    private static Step recognise(SimUser u, FakeBotApi.Call call) {
+        String data = call.firstCallbackData();
+        if (data != null) {
+            return switch (data) {
+                case "START" -> u.step == null ? Step.WELCOME : null;
+                case "GET_PRACTICE" -> u.step == Step.WELCOME ? Step.PRACTICE_INTRO : null;
+                case "DOWNLOAD_PDF" -> u.step == Step.PRACTICE_INTRO ? Step.CHECKUP_PROMPT : null;
+                case "WATCH_VIDEO" -> u.step == Step.CHECKUP_PROMPT ? Step.VIDEO_PROMPT : null;
+                case "CHOOSE_TIME" -> u.step == Step.MAXIM_STORY ? Step.FINAL_PUSH : null;
+                default -> null;
+            };
+        }
+        return switch (call.method) {
+            case "sendMessage" -> {
+                if (call.hasUrlButton()) {
+                    if (u.step == Step.VIDEO_PROMPT) yield Step.CALL_INVITE;
+                    if (u.step == Step.FINAL_PUSH) yield Step.DONE;
+                    yield null;
+                }
+                yield u.step == Step.ANNA_STORY && Texts.MAXIM_STORY.equals(call.params.path("text").asText())
+                        ? Step.MAXIM_STORY : null;
+            }
+            case "sendPhoto" -> u.step == Step.CALL_INVITE ? Step.ANNA_STORY : null;
+            default -> null;
+        };
+    }
+
+    private void press(SimUser u, String data) {
+        long think = thinkMillis > 0 ? ThreadLocalRandom.current().nextLong(thinkMillis + 1) : 0;
+        clicks.schedule(() -> {
+            synchronized (u) {
+                u.inputAt = System.nanoTime();
+                u.clickAt = u.inputAt;
+                api.pushCallback(u.id, data);
+            }
+        }, think, TimeUnit.MILLISECONDS);
+    }
+
+    /* ---------------------------
+       Report
+       --------------------------- */
+
+    private void report(boolean all, double elapsedSeconds) {
+        Map<String, Integer> stoppedAt = new TreeMap<>();
+        for (SimUser u : users.values()) {
+            if (u.step != Step.DONE) stoppedAt.merge(u.step == null ? "(nothing)" : u.step.name(), 1, Integer::sum);
+        }
+        System.out.printf("%nfinished %d/%d users in %.1fs%s%n", funnel.count(), users.size(), elapsedSeconds,
+                all ? "" : " (timed out)");
+        if (!stoppedAt.isEmpty()) System.out.println("stopped after: " + stoppedAt);
+        System.out.println("reply latency, ms:  " + reply.summary());
+        System.out.println("ack latency, ms:    " + ack.summary());
+        for (Step s : Step.values()) {
+            Samples l = lag.get(s);
+            if (l != null) System.out.printf("lag %-15s ms: %s%n", s, l.summary());
+        }
+        System.out.println("funnel, ms:         " + funnel.summary());
+        System.out.println("bot api: " + api.stats());
+    }
+
+    private static final class SimUser {
+        final long id;
+        Step step;
+        long startedAt;
+        /** Last /start or button press not yet answered by any call to the chat. */
+        long inputAt;
+        /** Last button press not yet acknowledged. */
+        long clickAt;
+        long lastSendAt;
+        long videoPromptAt;
+
+        SimUser(long id) {
+            this.id = id;
+        }
+    }
+
+    /** Durations in nanos; reported in millis. */
+    private static final class Samples {
+        private final List<Long> values = new ArrayList<>();
+
+        synchronized void add(long nanos) {
+            values.add(nanos);
+        }
+
+        synchronized int count() {
+            return values.size();
+        }
+
+        synchronized String summary() {
+            if (values.isEmpty()) return "n=0";
+            long[] v = values.stream().mapToLong(Long::longValue).sorted().toArray();
+            return String.format("n=%d p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                    v.length, ms(v, 0.50), ms(v, 0.90), ms(v, 0.99), v[v.length - 1] / 1e6);
+        }
+
+        private static double ms(long[] sorted, double q) {
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1)] / 1e6;
+        }
+    }
+}
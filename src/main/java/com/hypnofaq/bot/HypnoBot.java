@@ -1,38 +1,56 @@
 package com.hypnofaq.bot;
 
+import com.hypnofaq.bot.broadcast.Broadcaster;
 import com.hypnofaq.bot.config.BotConfig;
-import com.hypnofaq.bot.db.FileIdDao;
-import com.hypnofaq.bot.db.JobDao;
-import com.hypnofaq.bot.db.UserDao;
+import com.hypnofaq.bot.jfr.UpdateEvent;
+import com.hypnofaq.bot.media.AssetRegistry;
+import com.hypnofaq.bot.media.FileIdCache;
+import com.hypnofaq.bot.media.MediaAsset;
+import com.hypnofaq.bot.media.MediaSender;
+import com.hypnofaq.bot.metrics.Histogram;
+import com.hypnofaq.bot.metrics.Metrics;
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
 import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
 import com.hypnofaq.bot.model.JobType;
 import com.hypnofaq.bot.model.User;
 import com.hypnofaq.bot.model.UserStage;
+import com.hypnofaq.bot.scheduler.FailureKind;
+import com.hypnofaq.bot.store.BroadcastStore;
+import com.hypnofaq.bot.store.UserSession;
+import com.hypnofaq.bot.store.UserStore;
+import com.hypnofaq.bot.telegram.BotApiPool;
+import com.hypnofaq.bot.telegram.SendGateway;
+import com.hypnofaq.bot.telegram.SubscriptionCache;
+import com.hypnofaq.bot.telegram.UpdateDispatcher;
+import com.hypnofaq.bot.telegram.UpdateKeys;
 import com.hypnofaq.bot.ui.Keyboards;
 import com.hypnofaq.bot.ui.Texts;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.ForwardMessage;
 import org.telegram.telegrambots.meta.api.methods.groupadministration.GetChatMember;
-import org.telegram.telegrambots.meta.api.methods.send.SendAudio;
-import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
-import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
+import org.telegram.telegrambots.meta.api.objects.ChatMemberUpdated;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.chatmember.ChatMember;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
-import org.telegram.telegrambots.meta.api.objects.InputFile;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
-import java.io.File;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
 
 public final class HypnoBot extends TelegramLongPollingBot {
     private static final Logger log = LoggerFactory.getLogger(HypnoBot.class);
@@ -48,20 +66,78 @@ public final class HypnoBot extends TelegramLongPollingBot {
     // step2 extra button -> show step1
     private static final String CB_WHAT_DATE = "WHAT_DATE";
 
-    // Keys for file_id cache
-    private static final String FILEKEY_PRACTICE_AUDIO = "practice_audio";
-    private static final String FILEKEY_CHECKUP_PDF = "checkup_pdf";
+    private static final Set<String> CALLBACKS = Set.of(CB_START, CB_CHECK_SUB, CB_GET_PRACTICE, CB_DOWNLOAD_PDF,
+            CB_WATCH_VIDEO, CB_CHOOSE_TIME, CB_WHAT_DATE);
 
-    private final BotConfig config;
-    private final UserDao userDao;
-    private final JobDao jobDao;
-    private final FileIdDao fileIdDao;
+    // admin /stats window, in days
+    private static final int STATS_DAYS = 7;
+    private static final int MAX_STATS_DAYS = 366;
+    // admin /broadcasts list length
+    private static final int RECENT_BROADCASTS = 10;
+    private static final Histogram UPDATE_SECONDS = Metrics.histogram("hypnobot_update_seconds",
+            "Time to handle one update, by kind and command or button.", "kind", "action", "outcome");
+
+    /**
+     * Update kinds handleUpdate understands; Telegram doesn't send (or bill us for) the rest.
+     * chat_member only arrives while the bot is an admin of the channel.
+     */
+    public static final List<String> ALLOWED_UPDATES = List.of("message", "callback_query", "chat_member");
 
-    public HypnoBot(BotConfig config, UserDao userDao, JobDao jobDao, FileIdDao fileIdDao) {
+    private final BotConfig config;
+    private final UserStore userDao;
+    private final SendGateway gateway;
+    private final MediaSender media;
+    private final UpdateDispatcher dispatcher;
+    private final SubscriptionCache subscriptions;
+    private final BroadcastStore broadcasts;
+    private final Broadcaster broadcaster;
+
+    private final MediaAsset practiceAudio;
+    private final MediaAsset checkupPdf;
+    private final MediaAsset checkupImage;
+    private final MediaAsset annaImage;
+
+    public HypnoBot(BotConfig config, UserStore userDao, BroadcastStore broadcasts,
+                    SendGateway gateway, FileIdCache fileIds, AssetRegistry assets) {
+        super(botOptions(config), config.botToken);
+        BotApiPool.resize(this, config.tgMaxConnections);
         this.config = config;
         this.userDao = userDao;
-        this.jobDao = jobDao;
-        this.fileIdDao = fileIdDao;
+        this.gateway = gateway;
+        this.media = new MediaSender(this, gateway, fileIds, assets);
+        this.dispatcher = new UpdateDispatcher(this::handleUpdate, config.updateMaxConcurrency);
+        this.subscriptions = new SubscriptionCache(config.subCacheMaxSize,
+                config.subCachePositiveTtlSeconds * 1000L, config.subCacheNegativeTtlSeconds * 1000L);
+        this.broadcasts = broadcasts;
+        this.broadcaster = new Broadcaster(broadcasts, userDao, this::sendBroadcastMessage, config.broadcastBatch);
+
+        this.practiceAudio = assets.get(AssetRegistry.PRACTICE_AUDIO);
+        this.checkupPdf = assets.get(AssetRegistry.CHECKUP_PDF);
+        this.checkupImage = assets.get(AssetRegistry.CHECKUP_IMAGE);
+        this.annaImage = assets.get(AssetRegistry.ANNA_IMAGE);
+    }
+
+    private static DefaultBotOptions botOptions(BotConfig config) {
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setAllowedUpdates(ALLOWED_UPDATES);
+        options.setBaseUrl(config.telegramApiUrl + "/bot");
+        return options;
+    }
+
+    public MediaSender media() {
+        return media;
+    }
+
+    public UpdateDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    public SubscriptionCache subscriptions() {
+        return subscriptions;
+    }
+
+    public Broadcaster broadcaster() {
+        return broadcaster;
     }
 
     @Override
@@ -69,40 +145,84 @@ public final class HypnoBot extends TelegramLongPollingBot {
         return config.botUsername;
     }
 
+    /** Called on the polling thread (or by the webhook server): only hands the update off. */
     @Override
-    public String getBotToken() {
-        return config.botToken;
+    public void onUpdateReceived(Update update) {
+        dispatcher.dispatch(update);
     }
 
+    /**
+     * A whole getUpdates batch: every sender is upserted in one transaction up front, so the
+     * handlers' sessions open from the cache without touching the database.
+     */
     @Override
-    public void onUpdateReceived(Update update) {
+    public void onUpdatesReceived(List<Update> updates) {
+        Set<Long> userIds = new LinkedHashSet<>();
+        for (Update u : updates) {
+            long userId = senderId(u);
+            if (userId != 0) userIds.add(userId);
+        }
+        try {
+            userDao.ensureUsers(userIds);
+        } catch (Exception e) {
+            log.warn("Batch ensureUsers failed ({} users), falling back to per-update: {}", userIds.size(), e.getMessage());
+        }
+        for (Update u : updates) dispatcher.dispatch(u);
+    }
+
+    private static long senderId(Update update) {
+        if (update.hasMessage() && update.getMessage().hasText()) return update.getMessage().getFrom().getId();
+        if (update.hasCallbackQuery()) return update.getCallbackQuery().getFrom().getId();
+        return 0;
+    }
+
+    private void handleUpdate(Update update) {
+        UpdateEvent event = new UpdateEvent();
+        event.begin();
+        long started = System.nanoTime();
+        String outcome = "ok";
         try {
+            if (update.hasChatMember()) {
+                onChannelMember(update.getChatMember());
+                return;
+            }
+
             if (update.hasMessage() && update.getMessage().hasText()) {
                 long chatId = update.getMessage().getChatId();
                 long userId = update.getMessage().getFrom().getId();
                 String text = update.getMessage().getText().trim();
 
-                userDao.ensureUser(userId);
+                if (isStatsCommand(text) && config.adminIds.contains(userId)) {
+                    sendStats(chatId, text);
+                    return;
+                }
+                if (isBroadcastCommand(text) && config.adminIds.contains(userId)) {
+                    handleBroadcastCommand(chatId, userId, text);
+                    return;
+                }
+
+                UserSession user = userDao.openSession(userId);
+                try {
+                    if (isStartCommand(text)) {
+                        Optional<String> payloadOpt = parseStartPayload(text);
 
-                if (isStartCommand(text)) {
-                    Optional<String> payloadOpt = parseStartPayload(text);
+                        if (payloadOpt.isEmpty()) {
+                            user.clearStartParam();
+                            sendWelcome(chatId);
+                            return;
+                        }
 
-                    if (payloadOpt.isEmpty()) {
-                        userDao.clearStartParam(userId);
-                        sendWelcome(chatId);
+                        user.setStartParam(payloadOpt.get());
+                        handleStartOrCheckSub(chatId, user, false);
                         return;
                     }
 
-                    userDao.setStartParam(userId, payloadOpt.get());
-                    handleStartOrCheckSub(chatId, userId);
-                    return;
-                }
-
-                if (text.equalsIgnoreCase("старт")) {
-                    handleStartOrCheckSub(chatId, userId);
-                    return;
+                    if (text.equalsIgnoreCase("старт")) {
+                        handleStartOrCheckSub(chatId, user, false);
+                    }
+                } finally {
+                    userDao.flush(user);
                 }
-
                 return;
             }
 
@@ -112,71 +232,101 @@ public final class HypnoBot extends TelegramLongPollingBot {
                 long chatId = cq.getMessage().getChatId();
                 long userId = cq.getFrom().getId();
 
-                userDao.ensureUser(userId);
-
-                switch (data) {
-                    case CB_START -> {
-                        ack(cq.getId());
-                        userDao.clearStartParam(userId);
-                        handleStartOrCheckSub(chatId, userId);
-                    }
-                    case CB_CHECK_SUB -> {
-                        ack(cq.getId());
-                        handleStartOrCheckSub(chatId, userId);
-                    }
-                    case CB_DOWNLOAD_PDF -> {
-                        ack(cq.getId());
-                        handleDownloadPdf(chatId, userId);
-                    }
-                    case CB_WHAT_DATE -> {
-                        ack(cq.getId());
-                        handleWhatIsDate(chatId, userId);
-                    }
-                    case CB_GET_PRACTICE -> {
-                        ack(cq.getId());
-                        handleGetPractice(chatId, userId);
+                UserSession user = userDao.openSession(userId);
+                try {
+                    switch (data) {
+                        case CB_START -> {
+                            ack(cq.getId());
+                            user.clearStartParam();
+                            handleStartOrCheckSub(chatId, user, false);
+                        }
+                        case CB_CHECK_SUB -> {
+                            ack(cq.getId());
+                            handleStartOrCheckSub(chatId, user, true);
+                        }
+                        case CB_DOWNLOAD_PDF -> {
+                            ack(cq.getId());
+                            handleDownloadPdf(chatId, user);
+                        }
+                        case CB_WHAT_DATE -> {
+                            ack(cq.getId());
+                            handleWhatIsDate(chatId, user);
+                        }
+                        case CB_GET_PRACTICE -> {
+                            ack(cq.getId());
+                            handleGetPractice(chatId, user);
+                        }
+                        case CB_WATCH_VIDEO -> {
+                            ack(cq.getId());
+                            handleWatchVideo(chatId);
+                        }
+                        case CB_CHOOSE_TIME -> {
+                            ack(cq.getId());
+                            handleChooseTime(chatId, user);
+                        }
+                        default -> ack(cq.getId());
                     }
-                    case CB_WATCH_VIDEO -> {
-                        ack(cq.getId());
-                        handleWatchVideo(chatId, userId);
-                    }
-                    case CB_CHOOSE_TIME -> {
-                        ack(cq.getId());
-                        handleChooseTime(chatId, userId);
-                    }
-                    default -> ack(cq.getId());
+                } finally {
+                    userDao.flush(user);
                 }
             }
         } catch (Exception e) {
+            outcome = "error";
             log.error("onUpdateReceived error: {}", e.getMessage(), e);
+        } finally {
+            String kind = UpdateKeys.kind(update).name().toLowerCase(Locale.ROOT);
+            UPDATE_SECONDS.observeSince(started, kind, action(update), outcome);
+            event.end();
+            if (event.shouldCommit()) {
+                event.updateId = update.getUpdateId() != null ? update.getUpdateId() : 0;
+                event.chatId = UpdateKeys.chatId(update);
+                event.kind = kind;
+                event.data = update.hasCallbackQuery() ? update.getCallbackQuery().getData() : action(update);
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    /** Metrics label: the command or button pressed, from a fixed set. */
+    private static String action(Update update) {
+        if (update.hasCallbackQuery()) {
+            String data = update.getCallbackQuery().getData();
+            return data != null && CALLBACKS.contains(data) ? data : "other";
+        }
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            String text = update.getMessage().getText().trim();
+            if (isStartCommand(text)) return "start";
+            if (isBroadcastCommand(text)) return "broadcast";
+            return isStatsCommand(text) ? "stats" : "text";
         }
+        return "none";
     }
 
     /* ---------------------------
        Public job handler for scheduler
        --------------------------- */
 
-    public void handleJob(Job job) throws Exception {
-        userDao.ensureUser(job.tgId);
+    /** Sends the step; the stage change and the next step are committed by the scheduler with DONE. */
+    public JobResult handleJob(Job job) throws Exception {
         Optional<User> uOpt = userDao.getUser(job.tgId);
-        if (uOpt.isEmpty()) return;
+        if (uOpt.isEmpty()) return JobResult.NONE;
         User u = uOpt.get();
 
         switch (job.type) {
             case SEND_CHECKUP_PROMPT -> {
-                if (u.practiceSentAt == null) return;
+                if (u.practiceSentAt == null) return JobResult.NONE;
                 sendStep2WithImage(job.tgId, false);
-                userDao.setStage(job.tgId, UserStage.CHECKUP_PROMPT_SENT);
+                return JobResult.stage(UserStage.CHECKUP_PROMPT_SENT);
             }
 
             case SEND_VIDEO_PROMPT -> {
-                if (u.checkupSentAt == null) return;
+                if (u.checkupSentAt == null) return JobResult.NONE;
                 sendHtml(job.tgId, Texts.VIDEO_PROMPT_HTML,
                         Keyboards.singleCallbackButton("📺 Смотреть объяснение", CB_WATCH_VIDEO),
                         true);
-                userDao.setStage(job.tgId, UserStage.VIDEO_PROMPT_SENT);
-
-                schedule(job.tgId, JobType.SEND_CALL_INVITE, Duration.ofHours(24), null);
+                return JobResult.stage(UserStage.VIDEO_PROMPT_SENT)
+                        .then(JobType.SEND_CALL_INVITE, runAt(Duration.ofHours(24)), null);
             }
 
             case SEND_CALL_INVITE -> {
@@ -185,18 +335,17 @@ public final class HypnoBot extends TelegramLongPollingBot {
                 sendHtml(job.tgId, Texts.CALL_INVITE_HTML,
                         Keyboards.singleUrlButton("👉 Забронировать 20 минут", url),
                         true);
-                userDao.setStage(job.tgId, UserStage.CALL_INVITE_SENT);
-
-                schedule(job.tgId, JobType.SEND_ANNA_STORY, Duration.ofHours(4), null);
+                return JobResult.stage(UserStage.CALL_INVITE_SENT)
+                        .then(JobType.SEND_ANNA_STORY, runAt(Duration.ofHours(4)), null);
             }
 
             case SEND_ANNA_STORY -> {
                 // STEP 5: фото + вступительный текст, затем пересылаем сам пост из канала
-                sendPhotoHtml(job.tgId, config.annaImagePath, Texts.ANNA_STORY, null);
+                sendPhotoHtml(job.tgId, annaImage, Texts.ANNA_STORY, null);
                 forwardFromFaq(job.tgId, config.annaPostId);
 
-                userDao.setStage(job.tgId, UserStage.ANNA_STORY_SENT);
-                schedule(job.tgId, JobType.SEND_MAXIM_STORY, Duration.ofHours(24), null);
+                return JobResult.stage(UserStage.ANNA_STORY_SENT)
+                        .then(JobType.SEND_MAXIM_STORY, runAt(Duration.ofHours(24)), null);
             }
 
             case SEND_MAXIM_STORY -> {
@@ -204,29 +353,29 @@ public final class HypnoBot extends TelegramLongPollingBot {
                 sendText(job.tgId, Texts.MAXIM_STORY, "HTML", null, true);
                 forwardFromFaq(job.tgId, config.maximPostId);
 
-                userDao.setStage(job.tgId, UserStage.MAXIM_STORY_SENT);
-                schedule(job.tgId, JobType.SEND_FINAL_PUSH, Duration.ofSeconds(5), null);
+                return JobResult.stage(UserStage.MAXIM_STORY_SENT)
+                        .then(JobType.SEND_FINAL_PUSH, runAt(Duration.ofSeconds(5)), null);
             }
 
             case SEND_FINAL_PUSH -> {
                 sendHtml(job.tgId, Texts.FINAL_PUSH_HTML,
                         Keyboards.singleCallbackButton("Выбрать время", CB_CHOOSE_TIME),
                         true);
-                userDao.setStage(job.tgId, UserStage.FINAL_PUSH_SENT);
-
-                schedule(job.tgId, JobType.SEND_REMINDER_BOOK_TIME, Duration.ofHours(3), null);
+                return JobResult.stage(UserStage.FINAL_PUSH_SENT)
+                        .then(JobType.SEND_REMINDER_BOOK_TIME, runAt(Duration.ofHours(3)), null);
             }
 
             case SEND_REMINDER_BOOK_TIME -> {
-                if (u.chooseTimeClicked) return;
+                if (u.chooseTimeClicked) return JobResult.NONE;
 
                 sendHtml(job.tgId, Texts.REMINDER_HTML,
                         Keyboards.singleCallbackButton("Выбрать время", CB_CHOOSE_TIME),
                         true);
+                return JobResult.NONE;
             }
 
             default -> {
-                // no-op
+                return JobResult.NONE;
             }
         }
     }
@@ -241,46 +390,60 @@ public final class HypnoBot extends TelegramLongPollingBot {
         msg.setText(Texts.WELCOME);
         msg.setReplyMarkup(Keyboards.singleCallbackButton("Старт", CB_START));
         msg.setDisableWebPagePreview(true);
-        execute(msg);
+        gateway.send(chatId, "sendMessage", () -> execute(msg));
     }
 
-    private void handleStartOrCheckSub(long chatId, long userId) throws TelegramApiException {
+    /**
+     * @param recheck the user tapped "I subscribed": a cached "not subscribed" is likely stale,
+     *                so only a cached "subscribed" skips getChatMember
+     */
+    private void handleStartOrCheckSub(long chatId, UserSession user, boolean recheck) throws TelegramApiException {
+        long userId = user.tgId();
+        Optional<Boolean> cached = subscriptions.get(userId);
         boolean subscribed;
-        try {
-            subscribed = isSubscribed(userId);
-        } catch (TelegramApiException e) {
-            log.warn("Subscription check failed: {}", e.getMessage());
-            String txt = """
+        if (cached.isPresent() && (cached.get() || !recheck)) {
+            subscribed = cached.get();
+        } else {
+            try {
+                subscribed = isSubscribed(userId);
+                subscriptions.put(userId, subscribed);
+                user.setSubscribed(subscribed);
+            } catch (TelegramApiException e) {
+                FailureKind kind = FailureKind.classify(e);
+                boolean stored = user.subscribed();
+                if (!stored && !kind.retryable) {
+                    // 400/403: the bot can't see the member list at all
+                    log.warn("Subscription check failed: {}", e.getMessage());
+                    String txt = """
 Сейчас я не могу проверить подписку 😔
 
 Похоже, у меня нет доступа к списку участников канала.
 Попросите администратора канала добавить этого бота в канал как администратора, и проверка заработает ✅
 """;
-            sendText(chatId, txt, null, null, true);
-            return;
+                    sendText(chatId, txt, null, null, true);
+                    return;
+                }
+                log.warn("Subscription check failed ({}), using stored subscribed={}: {}", kind, stored, e.getMessage());
+                subscribed = stored;
+            }
         }
 
-        userDao.setSubscribed(userId, subscribed);
-
         if (!subscribed) {
-            userDao.setStage(userId, UserStage.WAITING_SUBSCRIBE);
+            user.setStage(UserStage.WAITING_SUBSCRIBE);
             sendText(chatId, Texts.NEED_SUBSCRIBE, null,
                     Keyboards.singleCallbackButton("✅ Я подписалась", CB_CHECK_SUB),
                     true);
             return;
         }
 
-        Optional<User> uOpt = userDao.getUser(userId);
-        String startParam = uOpt.map(u -> u.startParam).orElse(null);
-
-        if ("2".equals(startParam)) {
-            userDao.clearStartParam(userId);
-            userDao.setStage(userId, UserStage.CHECKUP_PROMPT_SENT);
+        if ("2".equals(user.startParam())) {
+            user.clearStartParam();
+            user.setStage(UserStage.CHECKUP_PROMPT_SENT);
             sendStep2WithImage(chatId, true);
             return;
         }
 
-        userDao.setStage(userId, UserStage.READY);
+        user.setStage(UserStage.READY);
         sendText(chatId, Texts.PRACTICE_INTRO, "HTML",
                 Keyboards.singleCallbackButton("Получить практику", CB_GET_PRACTICE),
                 true);
@@ -296,102 +459,67 @@ public final class HypnoBot extends TelegramLongPollingBot {
             kb = Keyboards.singleCallbackButton("👉 Скачать Чек-ап (PDF)", CB_DOWNLOAD_PDF);
         }
 
-        sendPhotoHtml(chatId, config.checkupImagePath, Texts.CHECKUP_PROMPT_HTML, kb);
+        sendPhotoHtml(chatId, checkupImage, Texts.CHECKUP_PROMPT_HTML, kb);
     }
 
-    private void handleWhatIsDate(long chatId, long userId) throws TelegramApiException {
+    private void handleWhatIsDate(long chatId, UserSession user) throws TelegramApiException {
         sendText(chatId, Texts.PRACTICE_INTRO, "HTML",
                 Keyboards.singleCallbackButton("Получить практику", CB_GET_PRACTICE),
                 true);
 
-        Optional<User> uOpt = userDao.getUser(userId);
-        if (uOpt.isPresent()) {
-            User u = uOpt.get();
-            if (u.stage == UserStage.NEW || u.stage == UserStage.WAITING_SUBSCRIBE) {
-                userDao.setStage(userId, UserStage.READY);
-            }
+        if (user.stage() == UserStage.NEW || user.stage() == UserStage.WAITING_SUBSCRIBE) {
+            user.setStage(UserStage.READY);
         }
     }
 
-    private void handleGetPractice(long chatId, long userId) throws TelegramApiException {
-        SendAudio audio = new SendAudio();
-        audio.setChatId(String.valueOf(chatId));
-        audio.setCaption("🎧 Встреча с будущим Я");
-
-        Optional<String> cached = fileIdDao.getFileId(FILEKEY_PRACTICE_AUDIO);
-        if (cached.isPresent()) {
-            audio.setAudio(new InputFile(cached.get()));
-        } else {
-            File f = new File(config.practiceAudioPath);
-            if (!f.exists() || !f.isFile()) {
-                String txt = "Не могу найти файл практики на сервере 😔\n" +
-                        "Администратору нужно загрузить файл или один раз отправить его боту, чтобы сохранился file_id.";
-                sendText(chatId, txt, null, null, true);
-                return;
-            }
-            audio.setAudio(new InputFile(f));
-        }
-
-        var sent = execute(audio);
-        if (sent != null && sent.getAudio() != null && sent.getAudio().getFileId() != null) {
-            fileIdDao.upsertFileId(FILEKEY_PRACTICE_AUDIO, sent.getAudio().getFileId());
+    private void handleGetPractice(long chatId, UserSession user) throws TelegramApiException {
+        if (media.send(chatId, practiceAudio, "🎧 Встреча с будущим Я", null, null).isEmpty()) {
+            String txt = "Не могу найти файл практики на сервере 😔\n" +
+                    "Администратору нужно загрузить файл или один раз отправить его боту, чтобы сохранился file_id.";
+            sendText(chatId, txt, null, null, true);
+            return;
         }
 
         sendHtml(chatId, Texts.PRACTICE_INSTRUCTION_HTML, null, false);
 
-        userDao.markPracticeSent(userId);
+        user.markPracticeSent(Instant.now().toEpochMilli());
 
-        Optional<User> uOpt = userDao.getUser(userId);
-        boolean checkupAlreadyPrompted = uOpt.map(u ->
-                u.checkupSentAt != null ||
-                        u.stage == UserStage.CHECKUP_PROMPT_SENT ||
-                        u.stage == UserStage.CHECKUP_SENT ||
-                        u.stage == UserStage.VIDEO_PROMPT_SENT ||
-                        u.stage == UserStage.CALL_INVITE_SENT ||
-                        u.stage == UserStage.ANNA_STORY_SENT ||
-                        u.stage == UserStage.MAXIM_STORY_SENT ||
-                        u.stage == UserStage.FINAL_PUSH_SENT
-        ).orElse(false);
+        UserStage stage = user.stage();
+        boolean checkupAlreadyPrompted =
+                user.checkupSentAt() != null ||
+                        stage == UserStage.CHECKUP_PROMPT_SENT ||
+                        stage == UserStage.CHECKUP_SENT ||
+                        stage == UserStage.VIDEO_PROMPT_SENT ||
+                        stage == UserStage.CALL_INVITE_SENT ||
+                        stage == UserStage.ANNA_STORY_SENT ||
+                        stage == UserStage.MAXIM_STORY_SENT ||
+                        stage == UserStage.FINAL_PUSH_SENT;
 
         if (!checkupAlreadyPrompted) {
-            schedule(userId, JobType.SEND_CHECKUP_PROMPT, Duration.ofHours(24), null);
+            // inserted with the session flush, so the job can't run before PRACTICE_SENT is stored
+            user.schedule(JobType.SEND_CHECKUP_PROMPT, runAt(Duration.ofHours(24)), null);
         }
     }
 
-    private void handleDownloadPdf(long chatId, long userId) throws TelegramApiException {
-        SendDocument doc = new SendDocument();
-        doc.setChatId(String.valueOf(chatId));
-
-        Optional<String> cached = fileIdDao.getFileId(FILEKEY_CHECKUP_PDF);
-        if (cached.isPresent()) {
-            doc.setDocument(new InputFile(cached.get()));
-        } else {
-            File f = new File(config.checkupPdfPath);
-            if (!f.exists() || !f.isFile()) {
-                String txt = "Не могу найти PDF «ЧЕК-АП» на сервере 😔\n" +
-                        "Администратору нужно загрузить файл или один раз отправить его боту, чтобы сохранился file_id.";
-                sendText(chatId, txt, null, null, true);
-                return;
-            }
-            doc.setDocument(new InputFile(f));
-        }
-
-        var sent = execute(doc);
-        if (sent != null && sent.getDocument() != null && sent.getDocument().getFileId() != null) {
-            fileIdDao.upsertFileId(FILEKEY_CHECKUP_PDF, sent.getDocument().getFileId());
+    private void handleDownloadPdf(long chatId, UserSession user) throws TelegramApiException {
+        if (media.send(chatId, checkupPdf, null, null, null).isEmpty()) {
+            String txt = "Не могу найти PDF «ЧЕК-АП» на сервере 😔\n" +
+                    "Администратору нужно загрузить файл или один раз отправить его боту, чтобы сохранился file_id.";
+            sendText(chatId, txt, null, null, true);
+            return;
         }
 
-        userDao.markCheckupSent(userId);
-        schedule(userId, JobType.SEND_VIDEO_PROMPT, Duration.ofHours(4), null);
+        user.markCheckupSent(Instant.now().toEpochMilli());
+        user.schedule(JobType.SEND_VIDEO_PROMPT, runAt(Duration.ofHours(4)), null);
     }
 
-    private void handleWatchVideo(long chatId, long userId) throws TelegramApiException {
+    private void handleWatchVideo(long chatId) throws TelegramApiException {
         try {
             ForwardMessage fm = new ForwardMessage();
             fm.setChatId(String.valueOf(chatId));
             fm.setFromChatId(String.valueOf(config.faqChannelId));
             fm.setMessageId(config.videoPostId);
-            execute(fm);
+            gateway.send(chatId, "forwardMessage", () -> execute(fm));
         } catch (TelegramApiException e) {
             log.warn("Forward failed, sending link instead: {}", e.getMessage());
             String link = "https://t.me/hypno_FAQ/" + config.videoPostId;
@@ -399,8 +527,8 @@ public final class HypnoBot extends TelegramLongPollingBot {
         }
     }
 
-    private void handleChooseTime(long chatId, long userId) throws TelegramApiException {
-        userDao.markChooseTimeClicked(userId);
+    private void handleChooseTime(long chatId, UserSession user) throws TelegramApiException {
+        user.markChooseTimeClicked();
 
         String url = "https://t.me/" + config.bookUsername;
 
@@ -435,7 +563,7 @@ public final class HypnoBot extends TelegramLongPollingBot {
             fm.setChatId(String.valueOf(chatId));
             fm.setFromChatId(String.valueOf(config.faqChannelId));
             fm.setMessageId(messageId);
-            execute(fm);
+            gateway.send(chatId, "forwardMessage", () -> execute(fm));
         } catch (TelegramApiException e) {
             log.warn("Forward from FAQ failed (msgId={}): {}", messageId, e.getMessage());
             // по твоему требованию ссылку НЕ отправляем
@@ -446,16 +574,15 @@ public final class HypnoBot extends TelegramLongPollingBot {
         }
     }
 
-    private void schedule(long tgId, JobType type, Duration delay, String payload) {
-        long runAt = Instant.now().plus(delay).toEpochMilli();
-        jobDao.scheduleOnce(tgId, type, runAt, payload);
+    private long runAt(Duration delay) {
+        return Instant.now().toEpochMilli() + (long) (delay.toMillis() * config.funnelDelayScale);
     }
 
     private void ack(String callbackQueryId) {
         try {
             AnswerCallbackQuery ans = new AnswerCallbackQuery();
             ans.setCallbackQueryId(callbackQueryId);
-            execute(ans);
+            gateway.call("answerCallbackQuery", () -> execute(ans));
         } catch (Exception ignored) {}
     }
 
@@ -464,14 +591,29 @@ public final class HypnoBot extends TelegramLongPollingBot {
         gcm.setChatId(String.valueOf(config.channelId));
         gcm.setUserId(userId);
 
-        ChatMember m = execute(gcm);
-        String status = m.getStatus();
+        return isMember(gateway.call("getChatMember", () -> execute(gcm)));
+    }
+
+    private static boolean isMember(ChatMember m) {
+        String status = m == null ? null : m.getStatus();
         if (status == null) return false;
 
         status = status.toLowerCase(Locale.ROOT);
         return !(status.equals("left") || status.equals("kicked"));
     }
 
+    /** Someone joined or left the channel: refresh the cache and the stored flag without asking Telegram. */
+    private void onChannelMember(ChatMemberUpdated upd) {
+        if (upd.getChat() == null || upd.getChat().getId() != config.channelId) return;
+        ChatMember m = upd.getNewChatMember();
+        if (m == null || m.getUser() == null) return;
+
+        long userId = m.getUser().getId();
+        boolean subscribed = isMember(m);
+        subscriptions.onMemberUpdate(userId, subscribed);
+        userDao.setSubscribedAsync(userId, subscribed);
+    }
+
     private void sendHtml(long chatId, String html, InlineKeyboardMarkup kb, boolean disablePreview) throws TelegramApiException {
         sendText(chatId, html, "HTML", kb, disablePreview);
     }
@@ -483,23 +625,105 @@ public final class HypnoBot extends TelegramLongPollingBot {
         if (parseMode != null) msg.setParseMode(parseMode);
         if (kb != null) msg.setReplyMarkup(kb);
         msg.setDisableWebPagePreview(disablePreview);
-        execute(msg);
+        gateway.send(chatId, "sendMessage", () -> execute(msg));
     }
 
-    private void sendPhotoHtml(long chatId, String imagePath, String htmlCaption, InlineKeyboardMarkup kb) throws TelegramApiException {
-        File f = new File(imagePath);
-        if (!f.exists() || !f.isFile()) {
+    private void sendPhotoHtml(long chatId, MediaAsset image, String htmlCaption, InlineKeyboardMarkup kb) throws TelegramApiException {
+        if (media.send(chatId, image, htmlCaption, "HTML", kb).isEmpty()) {
             sendHtml(chatId, htmlCaption, kb, true);
+        }
+    }
+
+    /** "/stats" or "/stats 30": funnel counters for the last N days (7 by default). */
+    private void sendStats(long chatId, String text) throws TelegramApiException {
+        int days = STATS_DAYS;
+        String[] parts = text.split("\\s+");
+        if (parts.length > 1) {
+            try {
+                days = Math.max(1, Math.min(MAX_STATS_DAYS, Integer.parseInt(parts[1])));
+            } catch (NumberFormatException ignored) {
+                // keep the default
+            }
+        }
+        sendHtml(chatId, Texts.funnelStats(userDao.funnelStats(days), days), null, true);
+    }
+
+    /**
+     * Admin broadcast commands. "/broadcast &lt;audience&gt;" takes the message from the following
+     * lines and first sends it back to the admin as a preview: Telegram rejects broken HTML
+     * there, before any draft exists.
+     */
+    private void handleBroadcastCommand(long chatId, long adminId, String text) throws TelegramApiException {
+        String[] lines = text.split("\n", 2);
+        String[] head = lines[0].trim().split("\\s+", 2);
+        String command = head[0].contains("@") ? head[0].substring(0, head[0].indexOf('@')) : head[0];
+        String arg = head.length > 1 ? head[1].trim() : "";
+
+        if (command.equals("/broadcasts")) {
+            sendHtml(chatId, Texts.broadcasts(broadcasts.recent(RECENT_BROADCASTS), broadcaster.progress()), null, true);
+            return;
+        }
+        if (command.equals("/broadcast")) {
+            String body = lines.length > 1 ? lines[1].strip() : "";
+            if (body.isEmpty()) {
+                sendHtml(chatId, Texts.BROADCAST_HELP, null, true);
+                return;
+            }
+            Audience audience;
+            try {
+                audience = Audience.parse(arg);
+            } catch (IllegalArgumentException e) {
+                sendHtml(chatId, Texts.broadcastBadAudience(e.getMessage()), null, true);
+                return;
+            }
+            try {
+                sendBroadcastMessage(chatId, body);
+            } catch (TelegramApiException e) {
+                if (FailureKind.classify(e) != FailureKind.BAD_REQUEST) throw e;
+                sendHtml(chatId, Texts.broadcastRejected(e.getMessage()), null, true);
+                return;
+            }
+            Broadcast b = broadcaster.create(body, audience, adminId);
+            log.info("Broadcast #{} created by {} for '{}' ({} recipients)", b.id, adminId, audience, b.total);
+            sendHtml(chatId, Texts.broadcastCreated(b), null, true);
             return;
         }
 
-        SendPhoto sp = new SendPhoto();
-        sp.setChatId(String.valueOf(chatId));
-        sp.setPhoto(new InputFile(f));
-        sp.setCaption(htmlCaption);
-        sp.setParseMode("HTML");
-        if (kb != null) sp.setReplyMarkup(kb);
-        execute(sp);
+        long id;
+        try {
+            id = Long.parseLong(arg);
+        } catch (NumberFormatException e) {
+            sendHtml(chatId, Texts.BROADCAST_HELP, null, true);
+            return;
+        }
+        switch (command) {
+            case "/broadcast_start" -> sendHtml(chatId,
+                    Texts.broadcastTransition(id, BroadcastStatus.RUNNING, broadcaster.launch(id)), null, true);
+            case "/broadcast_pause" -> sendHtml(chatId,
+                    Texts.broadcastTransition(id, BroadcastStatus.PAUSED, broadcaster.pause(id)), null, true);
+            case "/broadcast_cancel" -> sendHtml(chatId,
+                    Texts.broadcastTransition(id, BroadcastStatus.CANCELLED, broadcaster.cancel(id)), null, true);
+            default -> sendHtml(chatId, Texts.BROADCAST_HELP, null, true);
+        }
+    }
+
+    /** One broadcast message, through the gateway's bulk lane. */
+    private void sendBroadcastMessage(long chatId, String html) throws TelegramApiException {
+        SendMessage msg = new SendMessage();
+        msg.setChatId(String.valueOf(chatId));
+        msg.setText(html);
+        msg.setParseMode("HTML");
+        msg.setDisableWebPagePreview(true);
+        gateway.sendBulk(chatId, "sendMessage", () -> execute(msg));
+    }
+
+    /** "/broadcast", "/broadcasts", "/broadcast_start N", ... */
+    private static boolean isBroadcastCommand(String text) {
+        return text.startsWith("/broadcast");
+    }
+
+    private static boolean isStatsCommand(String text) {
+        return text.equals("/stats") || text.startsWith("/stats@") || text.startsWith("/stats ");
     }
 
     private static boolean isStartCommand(String text) {
@@ -1,44 +1,242 @@
 package com.hypnofaq.bot;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hypnofaq.bot.broadcast.Broadcaster;
 import com.hypnofaq.bot.config.BotConfig;
-import com.hypnofaq.bot.db.Database;
-import com.hypnofaq.bot.db.FileIdDao;
-import com.hypnofaq.bot.db.JobDao;
-import com.hypnofaq.bot.db.UserDao;
+import com.hypnofaq.bot.db.DbSettings;
+import com.hypnofaq.bot.db.SqliteStorage;
+import com.hypnofaq.bot.db.UserCache;
+import com.hypnofaq.bot.http.WebhookServer;
+import com.hypnofaq.bot.media.AssetRegistry;
+import com.hypnofaq.bot.media.AssetWarmer;
+import com.hypnofaq.bot.media.FileIdCache;
+import com.hypnofaq.bot.metrics.Metrics;
+import com.hypnofaq.bot.metrics.MetricsServer;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.scheduler.BackoffRetryPolicy;
+import com.hypnofaq.bot.scheduler.JobRetention;
 import com.hypnofaq.bot.scheduler.JobScheduler;
+import com.hypnofaq.bot.scheduler.RetryPolicy;
+import com.hypnofaq.bot.store.BroadcastStore;
+import com.hypnofaq.bot.store.InstrumentedStorage;
+import com.hypnofaq.bot.store.JobStore;
+import com.hypnofaq.bot.store.Storage;
+import com.hypnofaq.bot.store.UserStore;
+import com.hypnofaq.bot.store.memory.MemoryStorage;
+import com.hypnofaq.bot.store.mvstore.MvStoreStorage;
+import com.hypnofaq.bot.telegram.SendGateway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.generics.BotSession;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public final class Main {
     private static final Logger log = LoggerFactory.getLogger(Main.class);
+    private static final ObjectMapper JSON = new ObjectMapper();
 
     public static void main(String[] args) throws Exception {
         BotConfig config = BotConfig.fromEnv();
 
         System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", config.logLevel.toLowerCase());
+        WebhookServer.limitRequestTime();
+
+        Runnable shutdown = start(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            log.info("Shutdown...");
+            shutdown.run();
+        }));
+    }
+
+    /**
+     * Wires storage, the bot, the scheduler and the update source and starts them.
+     * The load test runs this in-process against a fake Bot API.
+     *
+     * @return stops everything, in order
+     */
+    public static Runnable start(BotConfig config) throws Exception {
+        Storage storage = new InstrumentedStorage(openStorage(config));
+        UserStore userStore = storage.users();
+        JobStore jobStore = storage.jobs();
 
-        Database db = new Database(config.dbPath);
-        db.initSchema();
+        SendGateway gateway = new SendGateway(
+                config.tgGlobalRate, config.tgGlobalBurst,
+                config.tgChatRate, config.tgChatBurst,
+                config.tgMaxRetries, config.tgMaxRetryWaitSeconds,
+                config.broadcastRate, config.tgMaxConnections
+        );
 
-        UserDao userDao = new UserDao(db);
-        JobDao jobDao = new JobDao(db);
-        FileIdDao fileIdDao = new FileIdDao(db);
+        AssetRegistry assets = AssetRegistry.fromConfig(config);
+        HypnoBot bot = new HypnoBot(config, userStore, storage.broadcasts(), gateway,
+                new FileIdCache(storage.fileIds()), assets);
 
-        HypnoBot bot = new HypnoBot(config, userDao, jobDao, fileIdDao);
+        AssetWarmer assetWarmer = new AssetWarmer(assets, bot.media(), config.assetWarmupChatId, config.assetWarmupParallelism);
+        if (config.assetWatch) assetWarmer.startWatching();
+        assetWarmer.warmAllAsync();
 
-        JobScheduler scheduler = new JobScheduler(jobDao, bot::handleJob, config.schedulerPollSeconds);
+        RetryPolicy retryPolicy = new BackoffRetryPolicy(
+                new BackoffRetryPolicy.Settings(config.jobRetryMaxAttempts,
+                        config.jobRetryBaseSeconds * 1000L, config.jobRetryMaxSeconds * 1000L),
+                BackoffRetryPolicy.parseOverrides(config.jobRetryOverrides));
+        JobScheduler scheduler = new JobScheduler(jobStore, bot::handleJob, retryPolicy, config.schedulerPollSeconds,
+                config.jobWorkers, config.jobMaxInFlight, config.jobClaimBatch,
+                config.instanceId, config.jobLeaseSeconds);
         scheduler.start();
+        JobRetention retention = config.jobRetentionDays > 0
+                ? new JobRetention(storage, config.jobRetentionDays, config.jobArchiveBatch)
+                : null;
+        if (retention != null) retention.start();
+        Broadcaster broadcaster = bot.broadcaster();
+        broadcaster.start();
 
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            log.info("Shutdown...");
+        registerGauges(userStore, jobStore, scheduler, bot, gateway);
+        MetricsServer metrics = config.metricsPort > 0 ? new MetricsServer(config.metricsHost, config.metricsPort) : null;
+        if (metrics != null) {
+            metrics.serve("/stats", "application/json", query -> funnelJson(userStore, query.get("days")));
+            metrics.serve("/broadcasts", "application/json", query -> broadcastsJson(storage.broadcasts(), broadcaster));
+            metrics.start();
+        }
+
+        WebhookServer webhook = config.webhookMode
+                ? new WebhookServer(config.webhookPort, config.webhookPath, config.webhookSecret, bot::onUpdateReceived)
+                : null;
+        BotSession session = null;
+
+        if (webhook != null) {
+            webhook.start();
+            if (config.webhookUrl != null) {
+                SetWebhook setWebhook = new SetWebhook();
+                setWebhook.setUrl(config.webhookUrl);
+                setWebhook.setSecretToken(config.webhookSecret);
+                setWebhook.setAllowedUpdates(HypnoBot.ALLOWED_UPDATES);
+                bot.execute(setWebhook);
+                log.info("Webhook registered: {}", config.webhookUrl);
+            } else {
+                log.warn("WEBHOOK_URL not set: webhook is not registered with Telegram (local mode)");
+            }
+        } else {
+            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+            session = botsApi.registerBot(bot);
+        }
+
+        log.info("Bot started as @{} ({})", config.botUsername, webhook != null ? "webhook" : "long polling");
+
+        BotSession polling = session;
+        return () -> {
+            if (metrics != null) metrics.stop();
+            if (webhook != null) webhook.stop();
+            if (polling != null && polling.isRunning()) polling.stop();
+            bot.dispatcher().stop(10);
+            log.info("Updates: {}", bot.dispatcher().stats());
+            log.info("Subscription cache: {}", bot.subscriptions().stats());
             scheduler.stop();
-        }));
+            broadcaster.stop();
+            if (retention != null) retention.stop();
+            assetWarmer.stop();
+            log.info("Telegram gateway: {}", gateway.stats());
+            storage.close();
+        };
+    }
 
-        TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-        botsApi.registerBot(bot);
+    private static void registerGauges(UserStore users, JobStore jobs, JobScheduler scheduler, HypnoBot bot, SendGateway gateway) {
+        Metrics.gauge("hypnobot_funnel_users", "Users by funnel stage.", "stage", () -> {
+            Map<String, Long> byStage = new LinkedHashMap<>();
+            users.funnelStats(1).stages.forEach((stage, n) -> byStage.put(stage.name(), n));
+            return byStage;
+        });
+        Metrics.gauge("hypnobot_jobs", "Jobs by status (DONE not counted).", "status", jobs::countActive);
+        Metrics.gauge("hypnobot_scheduler_lag_seconds", "How overdue the earliest pending job is; 0 if none is due.", () -> {
+            Long next = jobs.nextRunAt();
+            return next == null ? 0 : Math.max(0, System.currentTimeMillis() - next) / 1000.0;
+        });
+        Metrics.gauge("hypnobot_jobs_in_flight", "Claimed jobs running or queued behind a job of the same user.",
+                scheduler::inFlight);
+        Metrics.gauge("hypnobot_updates_in_flight", "Updates being handled right now.",
+                () -> bot.dispatcher().stats().inFlight);
+        Metrics.gauge("hypnobot_telegram_rate_limit_waiting", "Threads sleeping for a send token.",
+                gateway::queueDepth);
+        Metrics.gauge("hypnobot_broadcast_remaining", "Recipients left in the broadcast being sent; 0 if none is.",
+                () -> bot.broadcaster().progress().map(Broadcaster.Progress::remaining).orElse(0L));
+        Metrics.gauge("hypnobot_broadcast_rate", "Messages per second of the broadcast being sent.",
+                () -> bot.broadcaster().progress().map(p -> p.perSecond).orElse(0.0));
+    }
+
+    /** {@code GET /stats?days=N} (default 30): {@link FunnelStats} as JSON. */
+    private static String funnelJson(UserStore users, String days) {
+        int n;
+        try {
+            n = days == null ? 30 : Integer.parseInt(days);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("days: " + days);
+        }
+        if (n < 1 || n > 366) throw new IllegalArgumentException("days: " + n);
+        try {
+            return JSON.writeValueAsString(users.funnelStats(n));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** {@code GET /broadcasts}: the latest broadcasts, plus rate and ETA of the one being sent. */
+    private static String broadcastsJson(BroadcastStore broadcasts, Broadcaster broadcaster) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Broadcast b : broadcasts.recent(20)) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", b.id);
+            m.put("audience", b.audience.toString());
+            m.put("status", b.status.name());
+            m.put("total", b.total);
+            m.put("sent", b.sent);
+            m.put("blocked", b.blocked);
+            m.put("failed", b.failed);
+            m.put("createdAt", b.createdAt);
+            m.put("finishedAt", b.finishedAt);
+            list.add(m);
+        }
+        body.put("broadcasts", list);
+        broadcaster.progress().ifPresent(p -> {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", p.broadcastId);
+            m.put("processed", p.processed);
+            m.put("total", p.total);
+            m.put("perSecond", p.perSecond);
+            m.put("etaSeconds", p.eta() != null ? p.eta().toSeconds() : null);
+            body.put("current", m);
+        });
+        try {
+            return JSON.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        log.info("Bot started as @{}", config.botUsername);
+    private static Storage openStorage(BotConfig config) {
+        log.info("Storage backend: {}", config.storageBackend);
+        return switch (config.storageBackend) {
+            case "sqlite" -> new SqliteStorage(config.dbPath, new DbSettings(
+                    config.dbPoolSize,
+                    10_000,
+                    64,
+                    config.dbCacheSizeKb,
+                    config.dbMmapSizeBytes,
+                    config.dbTempStore,
+                    config.dbBusyTimeoutMs,
+                    config.dbWriteQueueCapacity,
+                    config.dbGroupCommitMs,
+                    config.dbWriteBatchMax
+            ), new UserCache(config.userCacheMaxSize, config.userCacheTtlSeconds * 1000L));
+            case "mvstore" -> new MvStoreStorage(config.mvStorePath, config.mvStoreAutoCommitMs);
+            case "memory" -> new MemoryStorage();
+            default -> throw new IllegalStateException("Unknown STORAGE_BACKEND: " + config.storageBackend);
+        };
     }
 }
@@ -0,0 +1,381 @@
+package com.hypnofaq.bot.broadcast;
+
+import com.hypnofaq.bot.metrics.Counter;
+import com.hypnofaq.bot.metrics.Metrics;
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.scheduler.FailureKind;
+import com.hypnofaq.bot.store.BroadcastStore;
+import com.hypnofaq.bot.store.UserStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends RUNNING broadcasts, one at a time, on a single runner thread.
+ * <p>
+ * Recipients are read a page of {@code pageSize} tg_ids at a time with a keyset query
+ * ({@link UserStore#recipients}) and handed to {@link #SENDERS} sender threads, at most
+ * {@link #MAX_IN_FLIGHT} messages at once, so memory does not grow with the audience. Pacing
+ * is the {@link Sender}'s business (the gateway's bulk lane).
+ * <p>
+ * Pages settle in order: once every message of the oldest outstanding page is sent, blocked
+ * or failed for good, its last tg_id and the totals are checkpointed. A restarted process
+ * resumes right after the checkpoint, so after a crash the recipients of the pages in flight
+ * may get the message twice (at most {@link #MAX_OPEN_PAGES} pages); {@link #stop()} drains
+ * first and loses or repeats nothing. The status is re-read before every page, which is how
+ * pause and cancel take effect.
+ */
+public final class Broadcaster implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(Broadcaster.class);
+
+    private static final int SENDERS = 8;
+    private static final int MAX_IN_FLIGHT = 2 * SENDERS;
+    /** Pages read but not yet checkpointed; bounds what a crash can repeat. */
+    private static final int MAX_OPEN_PAGES = 2;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long IDLE_POLL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long REPORT_EVERY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final Counter MESSAGES = Metrics.counter("hypnobot_broadcast_messages_total",
+            "Broadcast messages by outcome (sent, blocked, failed).", "outcome");
+
+    /** Delivers one broadcast message; pacing and the Bot API call are up to the implementation. */
+    public interface Sender {
+        void send(long chatId, String html) throws TelegramApiException;
+    }
+
+    private final BroadcastStore store;
+    private final UserStore users;
+    private final Sender sender;
+    private final int pageSize;
+
+    private final ExecutorService pool;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final Thread thread;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final Object idle = new Object();
+    private boolean woken;
+    private volatile Run current;
+
+    public Broadcaster(BroadcastStore store, UserStore users, Sender sender, int pageSize) {
+        this.store = store;
+        this.users = users;
+        this.sender = sender;
+        this.pageSize = Math.max(1, pageSize);
+
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(SENDERS, r -> {
+            Thread t = new Thread(r, "broadcast-sender-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.thread = new Thread(this, "broadcaster");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            thread.start();
+            log.info("Broadcaster started ({} per page, {} senders)", pageSize, SENDERS);
+        }
+    }
+
+    /**
+     * Finishes the messages in flight, checkpoints and returns; the broadcast stays RUNNING and
+     * continues after the next start.
+     */
+    public void stop() {
+        running.set(false);
+        wake();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.shutdownNow();
+    }
+
+    /** Stores a DRAFT for everyone {@code audience} matches right now. */
+    public Broadcast create(String html, Audience audience, long createdBy) {
+        return store.create(html, audience, users.countRecipients(audience), createdBy);
+    }
+
+    /** DRAFT or PAUSED to RUNNING. */
+    public boolean launch(long id) {
+        boolean ok = store.transition(id, EnumSet.of(BroadcastStatus.DRAFT, BroadcastStatus.PAUSED),
+                BroadcastStatus.RUNNING);
+        if (ok) wake();
+        return ok;
+    }
+
+    /** RUNNING to PAUSED; the runner stops before its next page. */
+    public boolean pause(long id) {
+        return store.transition(id, EnumSet.of(BroadcastStatus.RUNNING), BroadcastStatus.PAUSED);
+    }
+
+    public boolean cancel(long id) {
+        return store.transition(id,
+                EnumSet.of(BroadcastStatus.DRAFT, BroadcastStatus.RUNNING, BroadcastStatus.PAUSED),
+                BroadcastStatus.CANCELLED);
+    }
+
+    /** The broadcast being sent right now, if any. */
+    public Optional<Progress> progress() {
+        Run run = current;
+        return run == null ? Optional.empty() : Optional.of(run.progress());
+    }
+
+    @Override
+    public void run() {
+        while (running.get()) {
+            try {
+                List<Broadcast> queue = store.running();
+                if (queue.isEmpty()) {
+                    awaitWakeup(IDLE_POLL_MILLIS);
+                    continue;
+                }
+                send(queue.get(0));
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Broadcaster loop error: {}", e.getMessage(), e);
+                try {
+                    awaitWakeup(3000L);
+                } catch (InterruptedException ignored) {
+                    break;
+                }
+            }
+        }
+        log.info("Broadcaster stopped.");
+    }
+
+    /** Sends {@code b} from its checkpoint until it runs out of recipients, is paused or cancelled, or we stop. */
+    private void send(Broadcast b) throws InterruptedException {
+        Run run = new Run(b);
+        current = run;
+        Deque<Page> pages = new ArrayDeque<>();
+        long readCursor = b.cursor;
+        boolean complete = false;
+        log.info("Broadcast #{} to '{}': resuming after tg_id {}, {}/{} done", b.id, b.audience, b.cursor,
+                b.processed(), b.total);
+        try {
+            while (running.get() && isRunning(b.id)) {
+                // a page held up by a slow retry holds back the checkpoint, so don't read far ahead of it
+                while (pages.size() >= MAX_OPEN_PAGES) {
+                    pages.peekFirst().pending.await();
+                    settle(run, pages);
+                }
+                List<Long> ids = users.recipients(b.audience, readCursor, pageSize);
+                if (ids.isEmpty()) {
+                    complete = true;
+                    break;
+                }
+                Page page = new Page(ids.get(ids.size() - 1), ids.size());
+                pages.addLast(page);
+                for (long chatId : ids) {
+                    inFlight.acquire();
+                    pool.execute(() -> {
+                        try {
+                            deliver(b.text, chatId, page, run);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                readCursor = page.lastTgId;
+                settle(run, pages);
+                run.report(false);
+            }
+        } finally {
+            // wait for the messages in flight so the checkpoint covers everything that was sent
+            inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+            inFlight.release(MAX_IN_FLIGHT);
+            settle(run, pages);
+            current = null;
+        }
+        if (complete && store.transition(b.id, EnumSet.of(BroadcastStatus.RUNNING), BroadcastStatus.DONE)) {
+            log.info("Broadcast #{} done: sent={}, blocked={}, failed={}", b.id, run.sent, run.blocked, run.failed);
+        } else {
+            run.report(true);
+        }
+    }
+
+    private boolean isRunning(long id) {
+        return store.get(id).map(b -> b.status == BroadcastStatus.RUNNING).orElse(false);
+    }
+
+    /** Checkpoints past every leading page whose messages have all settled. */
+    private void settle(Run run, Deque<Page> pages) {
+        Page settled = null;
+        while (!pages.isEmpty() && pages.peekFirst().pending.getCount() == 0) {
+            settled = pages.pollFirst();
+            run.sent += settled.sent.sum();
+            run.blocked += settled.blocked.sum();
+            run.failed += settled.failed.sum();
+        }
+        if (settled != null) store.checkpoint(run.id, settled.lastTgId, run.sent, run.blocked, run.failed);
+    }
+
+    /** Retries what Telegram may accept later; a user who blocked the bot is counted, not retried. */
+    private void deliver(String html, long chatId, Page page, Run run) {
+        String outcome;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                sender.send(chatId, html);
+                outcome = "sent";
+                page.sent.increment();
+                break;
+            } catch (Exception e) {
+                FailureKind kind = FailureKind.classify(e);
+                if (kind == FailureKind.FORBIDDEN) {
+                    outcome = "blocked";
+                    page.blocked.increment();
+                    break;
+                }
+                if (!kind.retryable || attempt >= MAX_ATTEMPTS || !sleepBeforeRetry(e, attempt)) {
+                    log.debug("Broadcast #{} to {} failed ({}): {}", run.id, chatId, kind, e.getMessage());
+                    outcome = "failed";
+                    page.failed.increment();
+                    break;
+                }
+            }
+        }
+        MESSAGES.inc(outcome);
+        run.settled.increment();
+        page.pending.countDown();
+    }
+
+    /** retry_after if Telegram gave one, else 1s, 2s, ...; false if interrupted. */
+    private static boolean sleepBeforeRetry(Exception e, int attempt) {
+        long seconds = Math.max(FailureKind.retryAfterSeconds(e), 1L << (attempt - 1));
+        try {
+            TimeUnit.SECONDS.sleep(seconds);
+            return true;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void awaitWakeup(long millis) throws InterruptedException {
+        synchronized (idle) {
+            if (!woken && running.get()) idle.wait(millis);
+            woken = false;
+        }
+    }
+
+    private void wake() {
+        synchronized (idle) {
+            woken = true;
+            idle.notifyAll();
+        }
+    }
+
+    /** One page of recipients; {@code pending} counts its messages not yet settled. */
+    private static final class Page {
+        final long lastTgId;
+        final CountDownLatch pending;
+        final LongAdder sent = new LongAdder();
+        final LongAdder blocked = new LongAdder();
+        final LongAdder failed = new LongAdder();
+
+        Page(long lastTgId, int size) {
+            this.lastTgId = lastTgId;
+            this.pending = new CountDownLatch(size);
+        }
+    }
+
+    /** State of the broadcast being sent; the totals are the checkpointed ones, owned by the runner. */
+    private static final class Run {
+        final long id;
+        final long total;
+        final long startProcessed;
+        final long startedNanos = System.nanoTime();
+        /** Messages settled in this run, checkpointed or not. */
+        final LongAdder settled = new LongAdder();
+        long sent;
+        long blocked;
+        long failed;
+        long lastReportNanos = startedNanos;
+
+        Run(Broadcast b) {
+            this.id = b.id;
+            this.total = b.total;
+            this.startProcessed = b.processed();
+            this.sent = b.sent;
+            this.blocked = b.blocked;
+            this.failed = b.failed;
+        }
+
+        Progress progress() {
+            long done = settled.sum();
+            double seconds = (System.nanoTime() - startedNanos) / 1e9;
+            return new Progress(id, startProcessed + done, total, seconds > 0 ? done / seconds : 0);
+        }
+
+        void report(boolean force) {
+            long now = System.nanoTime();
+            if (!force && now - lastReportNanos < REPORT_EVERY_NANOS) return;
+            lastReportNanos = now;
+            log.info("Broadcast {}", progress());
+        }
+    }
+
+    /** How far the current broadcast is; the rate is over this run only, so it reflects the current pacing. */
+    public static final class Progress {
+        public final long broadcastId;
+        public final long processed;
+        public final long total;
+        public final double perSecond;
+
+        Progress(long broadcastId, long processed, long total, double perSecond) {
+            this.broadcastId = broadcastId;
+            this.processed = processed;
+            this.total = total;
+            this.perSecond = perSecond;
+        }
+
+        /** Recipients left, by the count taken at creation. */
+        public long remaining() {
+            return Math.max(0, total - processed);
+        }
+
+        /** Time left at the current rate, or null before the first message settles. */
+        public Duration eta() {
+            return perSecond > 0 ? Duration.ofSeconds((long) Math.ceil(remaining() / perSecond)) : null;
+        }
+
+        @Override
+        public String toString() {
+            Duration eta = eta();
+            return "#" + broadcastId +
+                    ": " + processed + "/" + total +
+                    String.format(", %.1f msg/s", perSecond) +
+                    ", eta=" + (eta == null ? "?" : formatDuration(eta));
+        }
+
+        public static String formatDuration(Duration d) {
+            long h = d.toHours();
+            int m = d.toMinutesPart();
+            int s = d.toSecondsPart();
+            return h > 0 ? h + "h" + m + "m" : m > 0 ? m + "m" + s + "s" : s + "s";
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.hypnofaq.bot.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks on a shared executor while keeping tasks with the same key strictly
+ * sequential and in submission order.
+ * <p>
+ * Each key with pending work has a small mailbox; a mailbox exists only while one of its
+ * tasks is queued or running and is removed as soon as it drains, so idle keys cost nothing.
+ */
+public final class KeyedSerialExecutor {
+    private static final Logger log = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+
+    private static final class Mailbox {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>(4);
+    }
+
+    private final Executor executor;
+    private final ConcurrentHashMap<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the executor refused to start a drainer for this key;
+     *         the task will not run, and the key's mailbox is dropped so later tasks can start a new one
+     */
+    public void execute(long key, Runnable task) {
+        Mailbox[] started = {null};
+        mailboxes.compute(key, (k, mb) -> {
+            if (mb == null) {
+                // no drainer for this key: the caller starts one with this task
+                started[0] = new Mailbox();
+                return started[0];
+            }
+            mb.tasks.addLast(task);
+            return mb;
+        });
+        if (started[0] == null) return;
+        try {
+            executor.execute(() -> drain(key, task));
+        } catch (RejectedExecutionException e) {
+            // once removed nothing can be queued on it: compute() for this key sees another mailbox or none
+            Mailbox mb = started[0];
+            mailboxes.remove(key, mb);
+            if (!mb.tasks.isEmpty()) {
+                log.error("Executor rejected key {}: dropped {} tasks queued behind it", key, mb.tasks.size());
+            }
+            throw e;
+        }
+    }
+
+    /** Keys that currently have queued or running work. */
+    public int activeKeys() {
+        return mailboxes.size();
+    }
+
+    private void drain(long key, Runnable first) {
+        Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Task for key {} failed: {}", key, t.getMessage(), t);
+            }
+
+            Runnable[] next = {null};
+            mailboxes.compute(key, (k, mb) -> {
+                if (mb == null) return null;
+                next[0] = mb.tasks.pollFirst();
+                return next[0] == null ? null : mb;
+            });
+            task = next[0];
+        }
+    }
+}
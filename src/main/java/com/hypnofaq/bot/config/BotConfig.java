@@ -1,15 +1,46 @@
 package com.hypnofaq.bot.config;
 
+import java.net.InetAddress;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 public final class BotConfig {
     public final String botToken;
     public final String botUsername;
+    // Bot API root; point it at a local stand-in for benchmarks and load tests
+    public final String telegramApiUrl;
 
+    public final String storageBackend;
     public final String dbPath;
+    public final String mvStorePath;
+    public final int mvStoreAutoCommitMs;
+
+    // SQLite connection pool + PRAGMAs
+    public final int dbPoolSize;
+    public final int dbCacheSizeKb;
+    public final long dbMmapSizeBytes;
+    public final String dbTempStore;
+    public final int dbBusyTimeoutMs;
+
+    // single-writer group commit
+    public final int dbWriteQueueCapacity;
+    public final int dbGroupCommitMs;
+    public final int dbWriteBatchMax;
+
+    // in-memory User cache in front of UserDao; 0 = off, required when several processes share the DB
+    public final int userCacheMaxSize;
+    public final int userCacheTtlSeconds;
 
     public final long channelId;
+
+    // GetChatMember results cache (negative answers expire sooner)
+    public final int subCacheMaxSize;
+    public final int subCachePositiveTtlSeconds;
+    public final int subCacheNegativeTtlSeconds;
+
     public final long faqChannelId;
 
     public final String practiceAudioPath;
@@ -19,6 +50,11 @@ public final class BotConfig {
     public final String checkupImagePath; // 2.jpg
     public final String annaImagePath;    // 5.jpg
 
+    // asset pre-upload: service chat to upload into (0 = disabled)
+    public final long assetWarmupChatId;
+    public final int assetWarmupParallelism;
+    public final boolean assetWatch;
+
     public final int videoPostId;
 
     public final String annaPostUrl;
@@ -29,90 +65,319 @@ public final class BotConfig {
     public final int maximPostId;
 
     public final String bookUsername;
+
+    // multiplies every funnel delay (24h, 4h, ...); < 1 only for load tests
+    public final double funnelDelayScale;
+
+    // outbound rate limits (Telegram: ~30 msg/s per bot, ~1 msg/s per chat)
+    public final double tgGlobalRate;
+    public final int tgGlobalBurst;
+    public final double tgChatRate;
+    public final int tgChatBurst;
+    public final int tgMaxRetries;
+    public final int tgMaxRetryWaitSeconds;
+    // Bot API calls on the wire at once: the HTTP pool's per-host limit and SendGateway's cap
+    public final int tgMaxConnections;
+
     public final int schedulerPollSeconds;
+    public final int jobWorkers;
+    public final int jobMaxInFlight;
+    public final int jobClaimBatch;
+    public final int jobRetryMaxAttempts;
+    public final int jobRetryBaseSeconds;
+    public final int jobRetryMaxSeconds;
+    public final String jobRetryOverrides;
+    public final String instanceId;
+    public final int jobLeaseSeconds;
+    public final int jobRetentionDays;
+    public final int jobArchiveBatch;
+
+    public final boolean webhookMode;
+    public final String webhookUrl;
+    public final String webhookSecret;
+    public final int webhookPort;
+    public final String webhookPath;
+    public final int updateMaxConcurrency;
+
+    // Telegram user ids allowed to use /stats and /broadcast; empty = nobody
+    public final Set<Long> adminIds;
+
+    // Broadcasts: messages/s (within TG_GLOBAL_RATE) and recipients per page / checkpoint
+    public final double broadcastRate;
+    public final int broadcastBatch;
+
+    // Metrics (Prometheus text format); port 0 = off
+    public final String metricsHost;
+    public final int metricsPort;
 
     public final String logLevel;
 
     private BotConfig(
             String botToken,
             String botUsername,
+            String telegramApiUrl,
+            String storageBackend,
             String dbPath,
+            String mvStorePath,
+            int mvStoreAutoCommitMs,
+            int dbPoolSize,
+            int dbCacheSizeKb,
+            long dbMmapSizeBytes,
+            String dbTempStore,
+            int dbBusyTimeoutMs,
+            int dbWriteQueueCapacity,
+            int dbGroupCommitMs,
+            int dbWriteBatchMax,
+            int userCacheMaxSize,
+            int userCacheTtlSeconds,
             long channelId,
+            int subCacheMaxSize,
+            int subCachePositiveTtlSeconds,
+            int subCacheNegativeTtlSeconds,
             long faqChannelId,
             String practiceAudioPath,
             String checkupPdfPath,
             String checkupImagePath,
             String annaImagePath,
+            long assetWarmupChatId,
+            int assetWarmupParallelism,
+            boolean assetWatch,
             int videoPostId,
             String annaPostUrl,
             String maximPostUrl,
             int annaPostId,
             int maximPostId,
             String bookUsername,
+            double funnelDelayScale,
+            double tgGlobalRate,
+            int tgGlobalBurst,
+            double tgChatRate,
+            int tgChatBurst,
+            int tgMaxRetries,
+            int tgMaxRetryWaitSeconds,
+            int tgMaxConnections,
             int schedulerPollSeconds,
+            int jobWorkers,
+            int jobMaxInFlight,
+            int jobClaimBatch,
+            int jobRetryMaxAttempts,
+            int jobRetryBaseSeconds,
+            int jobRetryMaxSeconds,
+            String jobRetryOverrides,
+            String instanceId,
+            int jobLeaseSeconds,
+            int jobRetentionDays,
+            int jobArchiveBatch,
+            boolean webhookMode,
+            String webhookUrl,
+            String webhookSecret,
+            int webhookPort,
+            String webhookPath,
+            int updateMaxConcurrency,
+            Set<Long> adminIds,
+            double broadcastRate,
+            int broadcastBatch,
+            String metricsHost,
+            int metricsPort,
             String logLevel
     ) {
         this.botToken = botToken;
         this.botUsername = botUsername;
+        this.telegramApiUrl = telegramApiUrl;
+        this.storageBackend = storageBackend;
         this.dbPath = dbPath;
+        this.mvStorePath = mvStorePath;
+        this.mvStoreAutoCommitMs = mvStoreAutoCommitMs;
+        this.dbPoolSize = dbPoolSize;
+        this.dbCacheSizeKb = dbCacheSizeKb;
+        this.dbMmapSizeBytes = dbMmapSizeBytes;
+        this.dbTempStore = dbTempStore;
+        this.dbBusyTimeoutMs = dbBusyTimeoutMs;
+        this.dbWriteQueueCapacity = dbWriteQueueCapacity;
+        this.dbGroupCommitMs = dbGroupCommitMs;
+        this.dbWriteBatchMax = dbWriteBatchMax;
+        this.userCacheMaxSize = userCacheMaxSize;
+        this.userCacheTtlSeconds = userCacheTtlSeconds;
         this.channelId = channelId;
+        this.subCacheMaxSize = subCacheMaxSize;
+        this.subCachePositiveTtlSeconds = subCachePositiveTtlSeconds;
+        this.subCacheNegativeTtlSeconds = subCacheNegativeTtlSeconds;
         this.faqChannelId = faqChannelId;
         this.practiceAudioPath = practiceAudioPath;
         this.checkupPdfPath = checkupPdfPath;
         this.checkupImagePath = checkupImagePath;
         this.annaImagePath = annaImagePath;
+        this.assetWarmupChatId = assetWarmupChatId;
+        this.assetWarmupParallelism = assetWarmupParallelism;
+        this.assetWatch = assetWatch;
         this.videoPostId = videoPostId;
         this.annaPostUrl = annaPostUrl;
         this.maximPostUrl = maximPostUrl;
         this.annaPostId = annaPostId;
         this.maximPostId = maximPostId;
         this.bookUsername = bookUsername;
+        this.funnelDelayScale = funnelDelayScale;
+        this.tgGlobalRate = tgGlobalRate;
+        this.tgGlobalBurst = tgGlobalBurst;
+        this.tgChatRate = tgChatRate;
+        this.tgChatBurst = tgChatBurst;
+        this.tgMaxRetries = tgMaxRetries;
+        this.tgMaxRetryWaitSeconds = tgMaxRetryWaitSeconds;
+        this.tgMaxConnections = tgMaxConnections;
         this.schedulerPollSeconds = schedulerPollSeconds;
+        this.jobWorkers = jobWorkers;
+        this.jobMaxInFlight = jobMaxInFlight;
+        this.jobClaimBatch = jobClaimBatch;
+        this.jobRetryMaxAttempts = jobRetryMaxAttempts;
+        this.jobRetryBaseSeconds = jobRetryBaseSeconds;
+        this.jobRetryMaxSeconds = jobRetryMaxSeconds;
+        this.jobRetryOverrides = jobRetryOverrides;
+        this.instanceId = instanceId;
+        this.jobLeaseSeconds = jobLeaseSeconds;
+        this.jobRetentionDays = jobRetentionDays;
+        this.jobArchiveBatch = jobArchiveBatch;
+        this.webhookMode = webhookMode;
+        this.webhookUrl = webhookUrl;
+        this.webhookSecret = webhookSecret;
+        this.webhookPort = webhookPort;
+        this.webhookPath = webhookPath;
+        this.updateMaxConcurrency = updateMaxConcurrency;
+        this.adminIds = adminIds;
+        this.broadcastRate = broadcastRate;
+        this.broadcastBatch = broadcastBatch;
+        this.metricsHost = metricsHost;
+        this.metricsPort = metricsPort;
         this.logLevel = logLevel;
     }
 
     public static BotConfig fromEnv() {
-        String token = required("BOT_TOKEN");
-        String username = required("BOT_USERNAME");
+        return fromEnv(System.getenv());
+    }
+
+    /** Same as {@link #fromEnv()}, reading the variables from {@code vars} (benchmarks, load tests). */
+    public static BotConfig fromEnv(Map<String, String> vars) {
+        String token = required(vars, "BOT_TOKEN");
+        String username = required(vars, "BOT_USERNAME");
+        String telegramApiUrl = env(vars, "TELEGRAM_API_URL").orElse("https://api.telegram.org").replaceAll("/+$", "");
 
-        String dbPath = env("DB_PATH").orElse("/data/bot.db");
+        String storageBackend = env(vars, "STORAGE_BACKEND").orElse("sqlite").toLowerCase(Locale.ROOT);
+        String dbPath = env(vars, "DB_PATH").orElse("/data/bot.db");
+        String mvStorePath = env(vars, "MVSTORE_PATH").orElse("/data/bot.mv.db");
+        int mvStoreAutoCommitMs = parseInt(env(vars, "MVSTORE_AUTOCOMMIT_MS").orElse("1000"));
+        int dbPoolSize = parseInt(env(vars, "DB_POOL_SIZE").orElse("4"));
+        int dbCacheSizeKb = parseInt(env(vars, "DB_CACHE_SIZE_KB").orElse("8192"));
+        long dbMmapSizeBytes = parseLong(env(vars, "DB_MMAP_SIZE_MB").orElse("64")) * 1024L * 1024L;
+        String dbTempStore = env(vars, "DB_TEMP_STORE").orElse("MEMORY").toUpperCase(Locale.ROOT);
+        int dbBusyTimeoutMs = parseInt(env(vars, "DB_BUSY_TIMEOUT_MS").orElse("5000"));
+        int dbWriteQueueCapacity = parseInt(env(vars, "DB_WRITE_QUEUE_CAPACITY").orElse("10000"));
+        int dbGroupCommitMs = parseInt(env(vars, "DB_GROUP_COMMIT_MS").orElse("2"));
+        int dbWriteBatchMax = parseInt(env(vars, "DB_WRITE_BATCH_MAX").orElse("256"));
+        int userCacheMaxSize = parseInt(env(vars, "USER_CACHE_MAX_SIZE").orElse("50000"));
+        int userCacheTtlSeconds = parseInt(env(vars, "USER_CACHE_TTL_SECONDS").orElse("600"));
 
-        long channelId = parseLong(env("CHANNEL_ID").orElse("-1003060928185"));
-        long faqChannelId = parseLong(env("FAQ_CHANNEL_ID").orElse(String.valueOf(channelId)));
+        long channelId = parseLong(env(vars, "CHANNEL_ID").orElse("-1003060928185"));
+        int subCacheMaxSize = parseInt(env(vars, "SUB_CACHE_MAX_SIZE").orElse("50000"));
+        int subCachePositiveTtlSeconds = parseInt(env(vars, "SUB_CACHE_POSITIVE_TTL_SECONDS").orElse("3600"));
+        int subCacheNegativeTtlSeconds = parseInt(env(vars, "SUB_CACHE_NEGATIVE_TTL_SECONDS").orElse("10"));
+        long faqChannelId = parseLong(env(vars, "FAQ_CHANNEL_ID").orElse(String.valueOf(channelId)));
 
-        String practiceAudioPath = env("PRACTICE_AUDIO_PATH").orElse("/assets/Встреча с будущим Я.m4a");
-        String checkupPdfPath = env("CHECKUP_PDF_PATH").orElse("/assets/ЧЕК-АП.pdf");
+        String practiceAudioPath = env(vars, "PRACTICE_AUDIO_PATH").orElse("/assets/Встреча с будущим Я.m4a");
+        String checkupPdfPath = env(vars, "CHECKUP_PDF_PATH").orElse("/assets/ЧЕК-АП.pdf");
 
-        String checkupImagePath = env("CHECKUP_IMAGE_PATH").orElse("/assets/2.jpg");
-        String annaImagePath = env("ANNA_IMAGE_PATH").orElse("/assets/5.jpg");
+        String checkupImagePath = env(vars, "CHECKUP_IMAGE_PATH").orElse("/assets/2.jpg");
+        String annaImagePath = env(vars, "ANNA_IMAGE_PATH").orElse("/assets/5.jpg");
 
-        int videoPostId = parseInt(env("VIDEO_POST_ID").orElse("135"));
+        long assetWarmupChatId = parseLong(env(vars, "ASSET_WARMUP_CHAT_ID").orElse("0"));
+        int assetWarmupParallelism = parseInt(env(vars, "ASSET_WARMUP_PARALLELISM").orElse("4"));
+        boolean assetWatch = parseBoolean(env(vars, "ASSET_WATCH").orElse("true"));
 
-        String annaUrl = env("ANNA_POST_URL").orElse("https://t.me/hypno_FAQ/112");
-        String maximUrl = env("MAXIM_POST_URL").orElse("https://t.me/hypno_FAQ/140");
+        int videoPostId = parseInt(env(vars, "VIDEO_POST_ID").orElse("135"));
+
+        String annaUrl = env(vars, "ANNA_POST_URL").orElse("https://t.me/hypno_FAQ/112");
+        String maximUrl = env(vars, "MAXIM_POST_URL").orElse("https://t.me/hypno_FAQ/140");
 
         // NEW: allow explicit message ids, otherwise parse from URL
-        int annaPostId = env("ANNA_POST_ID")
+        int annaPostId = env(vars, "ANNA_POST_ID")
                 .map(BotConfig::parseInt)
                 .orElseGet(() -> parseTelegramPostId(annaUrl).orElse(112));
 
-        int maximPostId = env("MAXIM_POST_ID")
+        int maximPostId = env(vars, "MAXIM_POST_ID")
                 .map(BotConfig::parseInt)
                 .orElseGet(() -> parseTelegramPostId(maximUrl).orElse(140));
 
-        String bookUsername = env("BOOK_USERNAME").orElse("katherine_hypno");
-        int pollSeconds = parseInt(env("SCHEDULER_POLL_SECONDS").orElse("10"));
+        String bookUsername = env(vars, "BOOK_USERNAME").orElse("katherine_hypno");
+        double funnelDelayScale = parseDouble(env(vars, "FUNNEL_DELAY_SCALE").orElse("1"));
+        if (funnelDelayScale <= 0) throw new IllegalStateException("FUNNEL_DELAY_SCALE must be > 0: " + funnelDelayScale);
+
+        double tgGlobalRate = parseDouble(env(vars, "TG_GLOBAL_RATE").orElse("30"));
+        int tgGlobalBurst = parseInt(env(vars, "TG_GLOBAL_BURST").orElse("30"));
+        double tgChatRate = parseDouble(env(vars, "TG_CHAT_RATE").orElse("1"));
+        int tgChatBurst = parseInt(env(vars, "TG_CHAT_BURST").orElse("3"));
+        int tgMaxRetries = parseInt(env(vars, "TG_429_MAX_RETRIES").orElse("1"));
+        int tgMaxRetryWaitSeconds = parseInt(env(vars, "TG_429_MAX_WAIT_SECONDS").orElse("10"));
+        int tgMaxConnections = parseInt(env(vars, "TG_MAX_CONNECTIONS").orElse("16"));
+        if (tgMaxConnections < 1) throw new IllegalStateException("TG_MAX_CONNECTIONS must be >= 1: " + tgMaxConnections);
+
+        int pollSeconds = parseInt(env(vars, "SCHEDULER_POLL_SECONDS").orElse("60"));
+        int jobWorkers = parseInt(env(vars, "JOB_WORKERS").orElse("8"));
+        int jobMaxInFlight = parseInt(env(vars, "JOB_MAX_IN_FLIGHT").orElse("64"));
+        int jobClaimBatch = parseInt(env(vars, "JOB_CLAIM_BATCH").orElse("100"));
+        int jobRetryMaxAttempts = parseInt(env(vars, "JOB_RETRY_MAX_ATTEMPTS").orElse("5"));
+        int jobRetryBaseSeconds = parseInt(env(vars, "JOB_RETRY_BASE_SECONDS").orElse("30"));
+        int jobRetryMaxSeconds = parseInt(env(vars, "JOB_RETRY_MAX_SECONDS").orElse("3600"));
+        String jobRetryOverrides = env(vars, "JOB_RETRY_OVERRIDES").orElse("");
+        String instanceId = env(vars, "INSTANCE_ID").orElseGet(BotConfig::defaultInstanceId);
+        int jobLeaseSeconds = parseInt(env(vars, "JOB_LEASE_SECONDS").orElse("60"));
+        int jobRetentionDays = parseInt(env(vars, "JOB_RETENTION_DAYS").orElse("30"));
+        int jobArchiveBatch = parseInt(env(vars, "JOB_ARCHIVE_BATCH").orElse("500"));
 
-        String logLevel = env("LOG_LEVEL").orElse("INFO").toUpperCase(Locale.ROOT);
+        String updatesMode = env(vars, "UPDATES_MODE").orElse("polling").toLowerCase(Locale.ROOT);
+        if (!updatesMode.equals("polling") && !updatesMode.equals("webhook")) {
+            throw new IllegalStateException("Invalid UPDATES_MODE (polling|webhook): " + updatesMode);
+        }
+        boolean webhookMode = updatesMode.equals("webhook");
+        String webhookUrl = env(vars, "WEBHOOK_URL").orElse(null);
+        String webhookSecret = env(vars, "WEBHOOK_SECRET").orElse(null);
+        if (webhookMode && webhookUrl != null && webhookSecret == null) {
+            throw new IllegalStateException("WEBHOOK_SECRET is required when WEBHOOK_URL is set");
+        }
+        int webhookPort = parseInt(env(vars, "WEBHOOK_PORT").orElse("8080"));
+        String webhookPath = env(vars, "WEBHOOK_PATH").orElse("/telegram");
+        int updateMaxConcurrency = parseInt(env(vars, "UPDATE_MAX_CONCURRENCY").orElse("64"));
+
+        Set<Long> adminIds = parseIds(env(vars, "ADMIN_IDS").orElse(""));
+
+        double broadcastRate = parseDouble(env(vars, "BROADCAST_RATE").orElse("20"));
+        if (broadcastRate <= 0) throw new IllegalStateException("BROADCAST_RATE must be > 0: " + broadcastRate);
+        int broadcastBatch = parseInt(env(vars, "BROADCAST_BATCH").orElse("200"));
+
+        String metricsHost = env(vars, "METRICS_HOST").orElse("127.0.0.1");
+        int metricsPort = parseInt(env(vars, "METRICS_PORT").orElse("0"));
+
+        String logLevel = env(vars, "LOG_LEVEL").orElse("INFO").toUpperCase(Locale.ROOT);
 
         return new BotConfig(
-                token, username, dbPath, channelId, faqChannelId,
+                token, username, telegramApiUrl, storageBackend, dbPath, mvStorePath, mvStoreAutoCommitMs,
+                dbPoolSize, dbCacheSizeKb, dbMmapSizeBytes, dbTempStore, dbBusyTimeoutMs,
+                dbWriteQueueCapacity, dbGroupCommitMs, dbWriteBatchMax,
+                userCacheMaxSize, userCacheTtlSeconds,
+                channelId, subCacheMaxSize, subCachePositiveTtlSeconds, subCacheNegativeTtlSeconds, faqChannelId,
                 practiceAudioPath, checkupPdfPath,
                 checkupImagePath, annaImagePath,
+                assetWarmupChatId, assetWarmupParallelism, assetWatch,
                 videoPostId,
                 annaUrl, maximUrl,
                 annaPostId, maximPostId,
-                bookUsername, pollSeconds, logLevel
+                bookUsername, funnelDelayScale,
+                tgGlobalRate, tgGlobalBurst, tgChatRate, tgChatBurst, tgMaxRetries, tgMaxRetryWaitSeconds,
+                tgMaxConnections,
+                pollSeconds, jobWorkers, jobMaxInFlight, jobClaimBatch,
+                jobRetryMaxAttempts, jobRetryBaseSeconds, jobRetryMaxSeconds, jobRetryOverrides,
+                instanceId, jobLeaseSeconds, jobRetentionDays, jobArchiveBatch,
+                webhookMode, webhookUrl, webhookSecret, webhookPort, webhookPath, updateMaxConcurrency,
+                adminIds, broadcastRate, broadcastBatch,
+                metricsHost, metricsPort,
+                logLevel
         );
     }
 
@@ -130,12 +395,22 @@ public final class BotConfig {
         }
     }
 
-    private static Optional<String> env(String name) {
-        return Optional.ofNullable(System.getenv(name)).map(String::trim).filter(s -> !s.isEmpty());
+    private static String defaultInstanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "localhost";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    private static Optional<String> env(Map<String, String> vars, String name) {
+        return Optional.ofNullable(vars.get(name)).map(String::trim).filter(s -> !s.isEmpty());
     }
 
-    private static String required(String name) {
-        return env(name).orElseThrow(() -> new IllegalStateException("Missing required ENV variable: " + name));
+    private static String required(Map<String, String> vars, String name) {
+        return env(vars, name).orElseThrow(() -> new IllegalStateException("Missing required ENV variable: " + name));
     }
 
     private static long parseLong(String s) {
@@ -153,4 +428,30 @@ public final class BotConfig {
             throw new IllegalStateException("Invalid int ENV value: " + s, e);
         }
     }
-}
\ No newline at end of file
+
+    private static double parseDouble(String s) {
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (Exception e) {
+            throw new IllegalStateException("Invalid double ENV value: " + s, e);
+        }
+    }
+
+    /** Comma-separated ids. */
+    private static Set<Long> parseIds(String s) {
+        Set<Long> ids = new HashSet<>();
+        for (String part : s.split(",")) {
+            if (!part.isBlank()) ids.add(parseLong(part));
+        }
+        return Set.copyOf(ids);
+    }
+
+    private static boolean parseBoolean(String s) {
+        String v = s.trim().toLowerCase(Locale.ROOT);
+        return switch (v) {
+            case "true", "1", "yes", "on" -> true;
+            case "false", "0", "no", "off" -> false;
+            default -> throw new IllegalStateException("Invalid boolean ENV value: " + s);
+        };
+    }
+}
@@ -0,0 +1,173 @@
+package com.hypnofaq.bot.db;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.model.UserStage;
+import com.hypnofaq.bot.store.BroadcastStore;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+public final class BroadcastDao implements BroadcastStore {
+    private static final String COLUMNS = """
+            id, text, stage, subscribed, start_param, status, total, cursor, sent, blocked, failed,
+            created_by, created_at, updated_at, finished_at
+            """;
+
+    private final Database db;
+
+    public BroadcastDao(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    public Broadcast create(String text, Audience audience, long total, long createdBy) {
+        long now = Instant.now().toEpochMilli();
+        try {
+            long id = db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        INSERT INTO broadcasts (text, stage, subscribed, start_param, status, total, created_by, created_at, updated_at)
+                        VALUES (?, ?, ?, ?, 'DRAFT', ?, ?, ?, ?)
+                        RETURNING id
+                        """);
+                ps.setString(1, text);
+                ps.setString(2, audience.stage != null ? audience.stage.name() : null);
+                ps.setObject(3, audience.subscribed != null ? (audience.subscribed ? 1 : 0) : null);
+                ps.setString(4, audience.startParam);
+                ps.setLong(5, total);
+                ps.setLong(6, createdBy);
+                ps.setLong(7, now);
+                ps.setLong(8, now);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            });
+            return new Broadcast(id, text, audience, BroadcastStatus.DRAFT, total, 0, 0, 0, 0, createdBy, now, now, null);
+        } catch (Exception e) {
+            throw new RuntimeException("createBroadcast failed", e);
+        }
+    }
+
+    @Override
+    public Optional<Broadcast> get(long id) {
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("SELECT " + COLUMNS + " FROM broadcasts WHERE id = ?");
+                ps.setLong(1, id);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    return rs.next() ? Optional.of(readBroadcast(rs)) : Optional.<Broadcast>empty();
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("getBroadcast failed", e);
+        }
+    }
+
+    @Override
+    public List<Broadcast> recent(int limit) {
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("SELECT " + COLUMNS + " FROM broadcasts ORDER BY id DESC LIMIT ?");
+                ps.setInt(1, limit);
+                return readAll(c, ps);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("recentBroadcasts failed", e);
+        }
+    }
+
+    @Override
+    public List<Broadcast> running() {
+        try {
+            return db.withConnection(c -> readAll(c, c.prepare(
+                    "SELECT " + COLUMNS + " FROM broadcasts WHERE status = 'RUNNING' ORDER BY id")));
+        } catch (Exception e) {
+            throw new RuntimeException("runningBroadcasts failed", e);
+        }
+    }
+
+    @Override
+    public boolean transition(long id, Set<BroadcastStatus> from, BroadcastStatus to) {
+        if (from.isEmpty()) return false;
+        long now = Instant.now().toEpochMilli();
+        try {
+            return db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE broadcasts SET status = ?, updated_at = ?, finished_at = ?
+                        WHERE id = ? AND status IN (%s)
+                        """.formatted(String.join(", ", Collections.nCopies(from.size(), "?"))));
+                ps.setString(1, to.name());
+                ps.setLong(2, now);
+                ps.setObject(3, to.isFinished() ? now : null);
+                ps.setLong(4, id);
+                int i = 5;
+                for (BroadcastStatus s : from) ps.setString(i++, s.name());
+                return c.executeUpdate(ps) == 1;
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("transitionBroadcast failed", e);
+        }
+    }
+
+    @Override
+    public void checkpoint(long id, long cursor, long sent, long blocked, long failed) {
+        long now = Instant.now().toEpochMilli();
+        try {
+            db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE broadcasts SET cursor = ?, sent = ?, blocked = ?, failed = ?, updated_at = ?
+                        WHERE id = ?
+                        """);
+                ps.setLong(1, cursor);
+                ps.setLong(2, sent);
+                ps.setLong(3, blocked);
+                ps.setLong(4, failed);
+                ps.setLong(5, now);
+                ps.setLong(6, id);
+                return c.executeUpdate(ps);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("checkpointBroadcast failed", e);
+        }
+    }
+
+    private static List<Broadcast> readAll(PooledConnection c, PreparedStatement ps) throws Exception {
+        List<Broadcast> list = new ArrayList<>();
+        try (ResultSet rs = c.executeQuery(ps)) {
+            while (rs.next()) list.add(readBroadcast(rs));
+        }
+        return list;
+    }
+
+    private static Broadcast readBroadcast(ResultSet rs) throws Exception {
+        String stage = rs.getString("stage");
+        Object subscribed = rs.getObject("subscribed");
+        Audience audience = new Audience(
+                stage != null ? UserStage.valueOf(stage) : null,
+                subscribed != null ? rs.getInt("subscribed") == 1 : null,
+                rs.getString("start_param"));
+        return new Broadcast(
+                rs.getLong("id"),
+                rs.getString("text"),
+                audience,
+                BroadcastStatus.valueOf(rs.getString("status")),
+                rs.getLong("total"),
+                rs.getLong("cursor"),
+                rs.getLong("sent"),
+                rs.getLong("blocked"),
+                rs.getLong("failed"),
+                rs.getLong("created_by"),
+                rs.getLong("created_at"),
+                rs.getLong("updated_at"),
+                (Long) rs.getObject("finished_at")
+        );
+    }
+}
@@ -1,34 +1,267 @@
 package com.hypnofaq.bot.db;
 
+import com.hypnofaq.bot.jfr.DbConnectEvent;
+import com.hypnofaq.bot.model.FunnelStats;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-public final class Database {
+public final class Database implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(Database.class);
 
+    /** A unit of work executed on a pooled connection. */
+    public interface SqlWork<T> {
+        T run(PooledConnection c) throws Exception;
+    }
+
     private final String jdbcUrl;
+    private final DbSettings settings;
+
+    // LIFO: the most recently used connection has the warmest page and statement caches
+    private final BlockingDeque<PooledConnection> idle;
+    private final List<PooledConnection> all = new ArrayList<>();
+    private final DbWriter writer;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    // pool counters
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
 
     public Database(String dbPath) {
+        this(dbPath, DbSettings.defaults());
+    }
+
+    public Database(String dbPath, DbSettings settings) {
         this.jdbcUrl = "jdbc:sqlite:" + dbPath;
+        this.settings = settings;
+        this.idle = new LinkedBlockingDeque<>(settings.poolSize);
+        try {
+            for (int i = 0; i < settings.poolSize; i++) {
+                PooledConnection c = newPooledConnection();
+                all.add(c);
+                idle.add(c);
+            }
+            this.writer = new DbWriter(newPooledConnection(), settings);
+        } catch (Exception e) {
+            all.forEach(PooledConnection::close);
+            throw new RuntimeException("Failed to open SQLite connection pool", e);
+        }
+        log.info("SQLite pool opened: {} connections, cache_size={}KiB, mmap_size={}, temp_store={}, busy_timeout={}ms",
+                settings.poolSize, settings.cacheSizeKb, settings.mmapSizeBytes, settings.tempStore, settings.busyTimeoutMillis);
     }
 
+    /**
+     * Opens a fresh, unpooled connection with all PRAGMAs applied. The caller owns and must close it.
+     */
     public Connection openConnection() throws Exception {
-        Connection conn = DriverManager.getConnection(jdbcUrl);
+        DbConnectEvent event = new DbConnectEvent();
+        event.begin();
+        try {
+            Connection conn = configure(DriverManager.getConnection(jdbcUrl));
+            event.outcome = "ok";
+            return conn;
+        } catch (Exception e) {
+            event.outcome = "error";
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.url = jdbcUrl;
+                event.commit();
+            }
+        }
+    }
+
+    private Connection configure(Connection conn) throws SQLException {
         try (Statement st = conn.createStatement()) {
             st.execute("PRAGMA foreign_keys = ON;");
             st.execute("PRAGMA journal_mode = WAL;");
             st.execute("PRAGMA synchronous = NORMAL;");
+            st.execute("PRAGMA busy_timeout = " + settings.busyTimeoutMillis + ";");
+            st.execute("PRAGMA cache_size = -" + settings.cacheSizeKb + ";");
+            st.execute("PRAGMA mmap_size = " + settings.mmapSizeBytes + ";");
+            st.execute("PRAGMA temp_store = " + settings.tempStore + ";");
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
         }
         return conn;
     }
 
+    /**
+     * Borrows a warm connection from the pool for the duration of {@code work}.
+     */
+    public <T> T withConnection(SqlWork<T> work) throws Exception {
+        PooledConnection c = acquire();
+        boolean broken = false;
+        try {
+            return work.run(c);
+        } catch (SQLException e) {
+            broken = !c.isUsable();
+            throw e;
+        } finally {
+            release(c, broken);
+        }
+    }
+
+    /**
+     * Runs {@code work} in a single transaction on a pooled connection.
+     */
+    public <T> T inTransaction(SqlWork<T> work) throws Exception {
+        return withConnection(c -> {
+            Connection conn = c.raw();
+            conn.setAutoCommit(false);
+            try {
+                T result = work.run(c);
+                conn.commit();
+                return result;
+            } catch (Exception e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        });
+    }
+
+    /**
+     * Queues a mutation for the single writer thread. The future completes once the
+     * group-commit transaction containing it has been committed; callers that don't need
+     * durability can simply ignore it.
+     */
+    public <T> CompletableFuture<T> write(SqlWork<T> work) {
+        return writer.submit(work);
+    }
+
+    /**
+     * Queues a mutation and blocks until it is committed.
+     */
+    public <T> T writeAndWait(SqlWork<T> work) throws Exception {
+        return await(writer.submit(work));
+    }
+
+    /**
+     * Waits for a queued write, rethrowing its original exception.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception ex) throw ex;
+            throw e;
+        }
+    }
+
+    public int writeQueueDepth() {
+        return writer.queueDepth();
+    }
+
+    public PoolStats poolStats() {
+        return new PoolStats(
+                settings.poolSize,
+                idle.size(),
+                acquisitions.sum(),
+                waits.sum(),
+                TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+                statementHits.sum(),
+                statementMisses.sum()
+        );
+    }
+
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) return;
+        writer.stop();
+        log.info("Closing SQLite pool: {}", poolStats());
+        synchronized (all) {
+            all.forEach(PooledConnection::close);
+            all.clear();
+        }
+        idle.clear();
+    }
+
+    private PooledConnection acquire() throws Exception {
+        if (closed.get()) throw new SQLException("Database is closed");
+        acquisitions.increment();
+
+        PooledConnection c = idle.pollFirst();
+        if (c != null) return c;
+
+        waits.increment();
+        long t0 = System.nanoTime();
+        c = idle.pollFirst(settings.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        long waited = System.nanoTime() - t0;
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        if (c == null) {
+            throw new SQLException("Timed out after " + settings.acquireTimeoutMillis + "ms waiting for a pooled SQLite connection");
+        }
+        return c;
+    }
+
+    private void release(PooledConnection c, boolean broken) {
+        if (!broken) {
+            try {
+                c.reset();
+            } catch (SQLException e) {
+                broken = true;
+            }
+        }
+
+        if (broken || !c.isUsable()) {
+            log.warn("Replacing broken pooled SQLite connection");
+            c.close();
+            synchronized (all) {
+                all.remove(c);
+                if (closed.get()) return;
+                try {
+                    c = newPooledConnection();
+                    all.add(c);
+                } catch (Exception e) {
+                    log.error("Failed to reopen pooled SQLite connection: {}", e.getMessage(), e);
+                    return;
+                }
+            }
+        }
+
+        if (closed.get()) {
+            c.close();
+            return;
+        }
+        idle.offerFirst(c);
+    }
+
+    private PooledConnection newPooledConnection() throws Exception {
+        return new PooledConnection(openConnection(), settings.statementCacheSize, statementHits, statementMisses);
+    }
+
     public void initSchema() {
         try (Connection conn = openConnection(); Statement st = conn.createStatement()) {
 
+            initAutoVacuum(st);
+
             st.execute("""
                     CREATE TABLE IF NOT EXISTS users (
                         tg_id INTEGER PRIMARY KEY,
@@ -76,11 +309,236 @@ public final class Database {
                     );
                     """);
 
-            st.execute("CREATE INDEX IF NOT EXISTS idx_jobs_run_at ON jobs(status, run_at);");
+            // Migration: only PENDING rows in the run_at index; DONE and FAILED used to sit in it forever
+            st.execute("CREATE INDEX IF NOT EXISTS idx_jobs_pending ON jobs(status, run_at) WHERE status = 'PENDING';");
+            st.execute("DROP INDEX IF EXISTS idx_jobs_run_at;");
+
+            // Finished jobs older than JOB_RETENTION_DAYS. Keyed like UNIQUE(tg_id, type), which they
+            // still take part in, and without a rowid, so a job costs one b-tree entry instead of three.
+            st.execute("""
+                    CREATE TABLE IF NOT EXISTS jobs_archive (
+                        tg_id INTEGER NOT NULL,
+                        type TEXT NOT NULL,
+                        id INTEGER NOT NULL,
+                        run_at INTEGER NOT NULL,
+                        payload TEXT,
+                        status TEXT NOT NULL,
+                        attempts INTEGER NOT NULL,
+                        last_error TEXT,
+                        created_at INTEGER NOT NULL,
+                        updated_at INTEGER NOT NULL,
+                        archived_at INTEGER NOT NULL,
+                        PRIMARY KEY (tg_id, type)
+                    ) WITHOUT ROWID;
+                    """);
+
+            // Migration: job leases (owner + expiry) for crash recovery and multi-process claiming
+            try {
+                st.execute("ALTER TABLE jobs ADD COLUMN lease_owner TEXT;");
+                log.info("Migration applied: jobs.lease_owner added.");
+            } catch (Exception ignored) {
+                // column already exists -> ignore
+            }
+            try {
+                st.execute("ALTER TABLE jobs ADD COLUMN lease_until INTEGER;");
+                log.info("Migration applied: jobs.lease_until added.");
+            } catch (Exception ignored) {
+                // column already exists -> ignore
+            }
+            // Migration: the lease index used to cover every row; now only RUNNING and FAILED ones,
+            // so DONE jobs (the bulk of the table until they are archived) stay out of both
+            st.execute("CREATE INDEX IF NOT EXISTS idx_jobs_running ON jobs(lease_until) WHERE status = 'RUNNING';");
+            st.execute("CREATE INDEX IF NOT EXISTS idx_jobs_failed ON jobs(updated_at) WHERE status = 'FAILED';");
+            st.execute("DROP INDEX IF EXISTS idx_jobs_lease;");
+
+            st.execute("""
+                    CREATE TABLE IF NOT EXISTS broadcasts (
+                        id INTEGER PRIMARY KEY AUTOINCREMENT,
+                        text TEXT NOT NULL,
+                        stage TEXT,
+                        subscribed INTEGER,
+                        start_param TEXT,
+                        status TEXT NOT NULL,
+                        total INTEGER NOT NULL DEFAULT 0,
+                        cursor INTEGER NOT NULL DEFAULT 0,
+                        sent INTEGER NOT NULL DEFAULT 0,
+                        blocked INTEGER NOT NULL DEFAULT 0,
+                        failed INTEGER NOT NULL DEFAULT 0,
+                        created_by INTEGER NOT NULL,
+                        created_at INTEGER NOT NULL,
+                        updated_at INTEGER NOT NULL,
+                        finished_at INTEGER
+                    );
+                    """);
+
+            initFunnelCounters(conn, st);
 
             log.info("SQLite schema initialized.");
         } catch (Exception e) {
             throw new RuntimeException("Failed to init SQLite schema", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Switches the file to incremental auto-vacuum, so {@link #incrementalVacuum} can hand pages
+     * freed by deletes back to the file system. The pragma alone only takes on a file with no
+     * pages yet, and even a fresh file has its header written once the pool put it in WAL mode,
+     * so whenever it doesn't read back as set this runs one full VACUUM (a copy of the file;
+     * instant on a new database, takes a while on a big one).
+     */
+    private static void initAutoVacuum(Statement st) throws SQLException {
+        if (autoVacuum(st) == 2) return;
+        st.execute("PRAGMA auto_vacuum = INCREMENTAL;");
+        if (autoVacuum(st) == 2) return;
+        long started = System.nanoTime();
+        st.execute("VACUUM;");
+        log.info("Migration applied: auto_vacuum = INCREMENTAL (VACUUM took {}ms).",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private static int autoVacuum(Statement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery("PRAGMA auto_vacuum;")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Truncates up to {@code maxPages} free pages off the end of the file, on the writer so it
+     * doesn't fight the group commit for the lock.
+     *
+     * @return bytes given back to the file system
+     */
+    public long incrementalVacuum(int maxPages) throws Exception {
+        return writeAndWait(c -> {
+            try (Statement st = c.raw().createStatement()) {
+                long pageSize = pragma(st, "page_size");
+                long before = pragma(st, "freelist_count");
+                if (before == 0) return 0L;
+                st.execute("PRAGMA incremental_vacuum(" + maxPages + ");");
+                return (before - pragma(st, "freelist_count")) * pageSize;
+            }
+        });
+    }
+
+    private static long pragma(Statement st, String name) throws SQLException {
+        try (ResultSet rs = st.executeQuery("PRAGMA " + name + ";")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Funnel counters maintained by triggers, so every write path (UserDao, JobDao.complete,
+     * session flushes) keeps them in step within its own transaction. {@code funnel_totals}
+     * holds users per stage plus {@link FunnelStats#CHOOSE_TIME_CLICKED}; {@code funnel_daily}
+     * how many reached each of them per UTC day (epoch day).
+     */
+    private static void initFunnelCounters(Connection conn, Statement st) throws SQLException {
+        st.execute("""
+                CREATE TABLE IF NOT EXISTS funnel_totals (
+                    name TEXT PRIMARY KEY,
+                    count INTEGER NOT NULL
+                ) WITHOUT ROWID;
+                """);
+        st.execute("""
+                CREATE TABLE IF NOT EXISTS funnel_daily (
+                    day INTEGER NOT NULL,
+                    name TEXT NOT NULL,
+                    count INTEGER NOT NULL,
+                    PRIMARY KEY (day, name)
+                ) WITHOUT ROWID;
+                """);
+
+        try (ResultSet rs = st.executeQuery("SELECT 1 FROM sqlite_master WHERE type = 'trigger' AND name = 'funnel_user_insert'")) {
+            if (rs.next()) return;
+        }
+
+        // Migration: seed the totals from the existing users once, in the transaction that adds the triggers.
+        // Days before this point stay empty.
+        conn.setAutoCommit(false);
+        try {
+            st.execute("DELETE FROM funnel_totals;");
+            st.execute("INSERT INTO funnel_totals (name, count) SELECT stage, COUNT(*) FROM users GROUP BY stage;");
+            st.execute("INSERT INTO funnel_totals (name, count) SELECT '" + FunnelStats.CHOOSE_TIME_CLICKED
+                    + "', COUNT(*) FROM users WHERE choose_time_clicked = 1;");
+            st.execute("""
+                    CREATE TRIGGER funnel_user_insert AFTER INSERT ON users
+                    BEGIN
+                        INSERT INTO funnel_totals (name, count) VALUES (NEW.stage, 1)
+                            ON CONFLICT (name) DO UPDATE SET count = count + 1;
+                        INSERT INTO funnel_daily (day, name, count) VALUES (NEW.created_at / 86400000, NEW.stage, 1)
+                            ON CONFLICT (day, name) DO UPDATE SET count = count + 1;
+                    END;
+                    """);
+            st.execute("""
+                    CREATE TRIGGER funnel_user_stage AFTER UPDATE OF stage ON users
+                    WHEN OLD.stage IS NOT NEW.stage
+                    BEGIN
+                        UPDATE funnel_totals SET count = count - 1 WHERE name = OLD.stage;
+                        INSERT INTO funnel_totals (name, count) VALUES (NEW.stage, 1)
+                            ON CONFLICT (name) DO UPDATE SET count = count + 1;
+                        INSERT INTO funnel_daily (day, name, count) VALUES (NEW.updated_at / 86400000, NEW.stage, 1)
+                            ON CONFLICT (day, name) DO UPDATE SET count = count + 1;
+                    END;
+                    """);
+            st.execute("""
+                    CREATE TRIGGER funnel_user_choose_time AFTER UPDATE OF choose_time_clicked ON users
+                    WHEN OLD.choose_time_clicked = 0 AND NEW.choose_time_clicked = 1
+                    BEGIN
+                        INSERT INTO funnel_totals (name, count) VALUES ('%1$s', 1)
+                            ON CONFLICT (name) DO UPDATE SET count = count + 1;
+                        INSERT INTO funnel_daily (day, name, count) VALUES (NEW.updated_at / 86400000, '%1$s', 1)
+                            ON CONFLICT (day, name) DO UPDATE SET count = count + 1;
+                    END;
+                    """.formatted(FunnelStats.CHOOSE_TIME_CLICKED));
+            st.execute("""
+                    CREATE TRIGGER funnel_user_delete AFTER DELETE ON users
+                    BEGIN
+                        UPDATE funnel_totals SET count = count - 1 WHERE name = OLD.stage;
+                        UPDATE funnel_totals SET count = count - OLD.choose_time_clicked WHERE name = '%s';
+                    END;
+                    """.formatted(FunnelStats.CHOOSE_TIME_CLICKED));
+            conn.commit();
+            log.info("Migration applied: funnel counters seeded and triggers added.");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    public static final class PoolStats {
+        public final int size;
+        public final int idle;
+        public final long acquisitions;
+        public final long waits;
+        public final long totalWaitMillis;
+        public final long maxWaitMillis;
+        public final long statementCacheHits;
+        public final long statementCacheMisses;
+
+        PoolStats(int size, int idle, long acquisitions, long waits, long totalWaitMillis, long maxWaitMillis,
+                  long statementCacheHits, long statementCacheMisses) {
+            this.size = size;
+            this.idle = idle;
+            this.acquisitions = acquisitions;
+            this.waits = waits;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.statementCacheHits = statementCacheHits;
+            this.statementCacheMisses = statementCacheMisses;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size +
+                    ", idle=" + idle +
+                    ", acquisitions=" + acquisitions +
+                    ", waits=" + waits +
+                    ", totalWaitMs=" + totalWaitMillis +
+                    ", maxWaitMs=" + maxWaitMillis +
+                    ", stmtCacheHits=" + statementCacheHits +
+                    ", stmtCacheMisses=" + statementCacheMisses;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.hypnofaq.bot.db;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Connection pool size and SQLite PRAGMAs applied to every pooled connection.
+ */
+public final class DbSettings {
+    private static final Set<String> TEMP_STORE_VALUES = Set.of("DEFAULT", "FILE", "MEMORY");
+
+    public final int poolSize;
+    public final long acquireTimeoutMillis;
+    public final int statementCacheSize;
+
+    /** PRAGMA cache_size, in KiB (passed to SQLite as a negative number). */
+    public final int cacheSizeKb;
+    /** PRAGMA mmap_size, in bytes. 0 disables memory-mapped I/O. */
+    public final long mmapSizeBytes;
+    /** PRAGMA temp_store: DEFAULT / FILE / MEMORY. */
+    public final String tempStore;
+    /** PRAGMA busy_timeout, in milliseconds. */
+    public final int busyTimeoutMillis;
+
+    /** Max queued mutations before writers block (backpressure). */
+    public final int writeQueueCapacity;
+    /** How long the writer keeps collecting mutations into one transaction. */
+    public final long groupCommitMillis;
+    /** Max mutations committed in one transaction. */
+    public final int writeBatchMax;
+
+    public DbSettings(int poolSize,
+                      long acquireTimeoutMillis,
+                      int statementCacheSize,
+                      int cacheSizeKb,
+                      long mmapSizeBytes,
+                      String tempStore,
+                      int busyTimeoutMillis,
+                      int writeQueueCapacity,
+                      long groupCommitMillis,
+                      int writeBatchMax) {
+        String ts = tempStore == null ? "DEFAULT" : tempStore.trim().toUpperCase(Locale.ROOT);
+        if (!TEMP_STORE_VALUES.contains(ts)) {
+            throw new IllegalArgumentException("Invalid temp_store: " + tempStore);
+        }
+        this.poolSize = Math.max(1, poolSize);
+        this.acquireTimeoutMillis = Math.max(1, acquireTimeoutMillis);
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+        this.cacheSizeKb = Math.max(0, cacheSizeKb);
+        this.mmapSizeBytes = Math.max(0, mmapSizeBytes);
+        this.tempStore = ts;
+        this.busyTimeoutMillis = Math.max(0, busyTimeoutMillis);
+        this.writeQueueCapacity = Math.max(1, writeQueueCapacity);
+        this.groupCommitMillis = Math.max(0, groupCommitMillis);
+        this.writeBatchMax = Math.max(1, writeBatchMax);
+    }
+
+    public static DbSettings defaults() {
+        return new DbSettings(4, 10_000, 64, 8 * 1024, 64L * 1024 * 1024, "MEMORY", 5_000, 10_000, 2, 256);
+    }
+}
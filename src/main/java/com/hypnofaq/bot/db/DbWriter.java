@@ -0,0 +1,229 @@
+package com.hypnofaq.bot.db;
+
+import com.hypnofaq.bot.jfr.DbStatementEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single writer thread for all SQLite mutations.
+ * <p>
+ * SQLite allows only one writer at a time, so instead of every caller opening its own
+ * autocommit transaction (and paying a WAL commit each), mutations are queued here and
+ * applied in batches: whatever arrives within {@code groupCommitMillis} of the first
+ * pending write goes into one {@code BEGIN IMMEDIATE ... COMMIT}. Each task runs inside
+ * its own SAVEPOINT, so a failing task is rolled back alone and does not poison the batch.
+ * Futures complete only after the batch is committed.
+ */
+final class DbWriter implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(DbWriter.class);
+
+    private static final class Task<T> {
+        final Database.SqlWork<T> work;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        Exception error;
+
+        Task(Database.SqlWork<T> work) {
+            this.work = work;
+        }
+
+        void run(PooledConnection c) {
+            try {
+                result = work.run(c);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+
+        void fail(Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private final PooledConnection conn;
+    private final BlockingQueue<Task<?>> queue;
+    private final long groupCommitNanos;
+    private final int maxBatch;
+
+    private final Thread thread;
+    private final AtomicBoolean running = new AtomicBoolean(true);
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder tasks = new LongAdder();
+    private final LongAdder failedTasks = new LongAdder();
+    private final LongAdder enqueueWaits = new LongAdder();
+
+    DbWriter(PooledConnection conn, DbSettings settings) {
+        this.conn = conn;
+        this.queue = new ArrayBlockingQueue<>(settings.writeQueueCapacity);
+        this.groupCommitNanos = TimeUnit.MILLISECONDS.toNanos(settings.groupCommitMillis);
+        this.maxBatch = settings.writeBatchMax;
+        this.thread = new Thread(this, "db-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    <T> CompletableFuture<T> submit(Database.SqlWork<T> work) {
+        // Nested write from inside a batch: it is already in the open transaction.
+        if (Thread.currentThread() == thread) {
+            Task<T> t = new Task<>(work);
+            t.run(conn);
+            t.complete();
+            return t.future;
+        }
+
+        Task<T> t = new Task<>(work);
+        if (!running.get()) {
+            t.fail(new IllegalStateException("DB writer is stopped"));
+            return t.future;
+        }
+        if (!queue.offer(t)) {
+            enqueueWaits.increment();
+            try {
+                queue.put(t);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                t.fail(e);
+                return t.future;
+            }
+        }
+        // stop() may have drained the queue between the check above and the put; if the task
+        // is still there nobody will take it. Otherwise the writer or the drain has it.
+        if (!running.get() && queue.remove(t)) {
+            t.fail(new IllegalStateException("DB writer is stopped"));
+        }
+        return t.future;
+    }
+
+    int queueDepth() {
+        return queue.size();
+    }
+
+    void stop() {
+        if (!running.compareAndSet(true, false)) return;
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Task<?> t;
+        while ((t = queue.poll()) != null) {
+            t.fail(new IllegalStateException("DB writer is stopped"));
+        }
+        conn.close();
+    }
+
+    @Override
+    public void run() {
+        List<Task<?>> batch = new ArrayList<>(maxBatch);
+        while (running.get() || !queue.isEmpty()) {
+            try {
+                Task<?> first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                batch.add(first);
+                long deadline = System.nanoTime() + groupCommitNanos;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) continue;
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Task<?> next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+
+                commit(batch);
+            } catch (InterruptedException ie) {
+                // keep draining until stop() flips the flag
+            } finally {
+                batch.clear();
+            }
+        }
+        log.info("DB writer stopped: {}", stats());
+    }
+
+    private void commit(List<Task<?>> batch) {
+        try (Statement st = conn.raw().createStatement()) {
+            execute(st, "BEGIN IMMEDIATE");
+            try {
+                for (Task<?> t : batch) {
+                    execute(st, "SAVEPOINT w");
+                    t.run(conn);
+                    if (t.error != null) {
+                        execute(st, "ROLLBACK TO w");
+                        failedTasks.increment();
+                        log.warn("DB write failed: {}", t.error.getMessage());
+                    }
+                    execute(st, "RELEASE w");
+                }
+                execute(st, "COMMIT");
+            } catch (Exception e) {
+                try {
+                    execute(st, "ROLLBACK");
+                } catch (Exception ignored) {}
+                throw e;
+            }
+        } catch (Exception e) {
+            log.error("DB write batch of {} failed: {}", batch.size(), e.getMessage(), e);
+            for (Task<?> t : batch) {
+                t.fail(e);
+            }
+            return;
+        }
+
+        batches.increment();
+        tasks.add(batch.size());
+        for (Task<?> t : batch) {
+            t.complete();
+        }
+    }
+
+    /** Batch control statements; BEGIN IMMEDIATE waits out other writers and COMMIT pays the WAL write. */
+    private static void execute(Statement st, String sql) throws SQLException {
+        DbStatementEvent event = new DbStatementEvent();
+        event.begin();
+        String outcome = "error";
+        try {
+            st.execute(sql);
+            outcome = "ok";
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.sql = sql;
+                event.method = "execute";
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    String stats() {
+        long b = batches.sum();
+        long n = tasks.sum();
+        return "batches=" + b +
+                ", tasks=" + n +
+                ", avgBatch=" + (b == 0 ? 0 : String.format("%.1f", (double) n / b)) +
+                ", failedTasks=" + failedTasks.sum() +
+                ", enqueueWaits=" + enqueueWaits.sum() +
+                ", queueDepth=" + queue.size();
+    }
+}
@@ -1,12 +1,14 @@
 package com.hypnofaq.bot.db;
 
-import java.sql.Connection;
+import com.hypnofaq.bot.store.FileIdStore;
+
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.time.Instant;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
-public final class FileIdDao {
+public final class FileIdDao implements FileIdStore {
     private final Database db;
 
     public FileIdDao(Database db) {
@@ -14,40 +16,61 @@ public final class FileIdDao {
     }
 
     public Optional<String> getFileId(String key) {
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     SELECT file_id FROM file_cache WHERE key = ?
-                     """)) {
-            ps.setString(1, key);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return Optional.empty();
-                String id = rs.getString("file_id");
-                return Optional.ofNullable(id).map(String::trim).filter(s -> !s.isEmpty());
-            }
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("""
+                        SELECT file_id FROM file_cache WHERE key = ?
+                        """);
+                ps.setString(1, key);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    if (!rs.next()) return Optional.empty();
+                    String id = rs.getString("file_id");
+                    return Optional.ofNullable(id).map(String::trim).filter(s -> !s.isEmpty());
+                }
+            });
         } catch (Exception e) {
             throw new RuntimeException("getFileId failed", e);
         }
     }
 
     public void upsertFileId(String key, String fileId) {
-        if (key == null || key.isBlank()) return;
-        if (fileId == null || fileId.isBlank()) return;
+        try {
+            Database.await(upsertFileIdAsync(key, fileId));
+        } catch (Exception e) {
+            throw new RuntimeException("upsertFileId failed", e);
+        }
+    }
+
+    /**
+     * Fire-and-forget variant: queued for the next group commit, the caller doesn't wait.
+     */
+    public CompletableFuture<Integer> upsertFileIdAsync(String key, String fileId) {
+        if (key == null || key.isBlank()) return CompletableFuture.completedFuture(0);
+        if (fileId == null || fileId.isBlank()) return CompletableFuture.completedFuture(0);
 
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     INSERT INTO file_cache (key, file_id, updated_at)
-                     VALUES (?, ?, ?)
-                     ON CONFLICT(key) DO UPDATE SET
-                         file_id = excluded.file_id,
-                         updated_at = excluded.updated_at
-                     """)) {
+        return db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    INSERT INTO file_cache (key, file_id, updated_at)
+                    VALUES (?, ?, ?)
+                    ON CONFLICT(key) DO UPDATE SET
+                        file_id = excluded.file_id,
+                        updated_at = excluded.updated_at
+                    """);
             ps.setString(1, key);
             ps.setString(2, fileId);
             ps.setLong(3, now);
-            ps.executeUpdate();
-        } catch (Exception e) {
-            throw new RuntimeException("upsertFileId failed", e);
-        }
+            return c.executeUpdate(ps);
+        });
+    }
+
+    public CompletableFuture<Integer> deleteFileIdAsync(String key) {
+        return db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    DELETE FROM file_cache WHERE key = ?
+                    """);
+            ps.setString(1, key);
+            return c.executeUpdate(ps);
+        });
     }
 }
@@ -1,64 +1,96 @@
 package com.hypnofaq.bot.db;
 
 import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
 import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.store.JobStore;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+public final class JobDao implements JobStore {
+    /** UNIQUE(tg_id, type) covers the live table; an archived job of the type blocks it too. */
+    private static final String INSERT_ONCE = """
+            INSERT OR IGNORE INTO jobs (tg_id, type, run_at, payload, status, attempts, created_at, updated_at)
+            SELECT ?, ?, ?, ?, 'PENDING', 0, ?, ?
+            WHERE NOT EXISTS (SELECT 1 FROM jobs_archive WHERE tg_id = ? AND type = ?)
+            """;
 
-public final class JobDao {
     private final Database db;
+    private final UserCache userCache;
+    private volatile ScheduleListener listener;
+
+    private final Object doneLock = new Object();
+    /** job id -> lease owner */
+    private Map<Long, String> doneBuffer = new LinkedHashMap<>();
+    private CompletableFuture<Set<Long>> doneFlush;
 
-    public JobDao(Database db) {
+    /** {@code userCache} is the one in front of the {@link UserDao} sharing this database. */
+    public JobDao(Database db, UserCache userCache) {
         this.db = db;
+        this.userCache = userCache;
+    }
+
+    public void setScheduleListener(ScheduleListener listener) {
+        this.listener = listener;
     }
 
     public void scheduleOnce(long tgId, JobType type, long runAtMillis, String payload) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     INSERT OR IGNORE INTO jobs (tg_id, type, run_at, payload, status, attempts, created_at, updated_at)
-                     VALUES (?, ?, ?, ?, 'PENDING', 0, ?, ?)
-                     """)) {
-            ps.setLong(1, tgId);
-            ps.setString(2, type.name());
-            ps.setLong(3, runAtMillis);
-            ps.setString(4, payload);
-            ps.setLong(5, now);
-            ps.setLong(6, now);
-            ps.executeUpdate();
+        boolean inserted;
+        try {
+            inserted = db.writeAndWait(c -> insertOnce(c, tgId, type, runAtMillis, payload, now));
         } catch (Exception e) {
             throw new RuntimeException("scheduleOnce failed", e);
         }
+        if (inserted) notifyScheduled(runAtMillis);
+    }
+
+    /** The scheduleOnce insert inside the caller's write; false if the user already has a job of this type. */
+    static boolean insertOnce(PooledConnection c, long tgId, JobType type, long runAtMillis, String payload,
+                              long now) throws Exception {
+        PreparedStatement ps = c.prepare(INSERT_ONCE);
+        ps.setLong(1, tgId);
+        ps.setString(2, type.name());
+        ps.setLong(3, runAtMillis);
+        ps.setString(4, payload);
+        ps.setLong(5, now);
+        ps.setLong(6, now);
+        ps.setLong(7, tgId);
+        ps.setString(8, type.name());
+        return c.executeUpdate(ps) > 0;
     }
 
     public List<Job> fetchDueJobs(long nowMillis, int limit) {
         List<Job> jobs = new ArrayList<>();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     SELECT id, tg_id, type, run_at, payload, attempts
-                     FROM jobs
-                     WHERE status = 'PENDING' AND run_at <= ?
-                     ORDER BY run_at ASC
-                     LIMIT ?
-                     """)) {
-            ps.setLong(1, nowMillis);
-            ps.setInt(2, limit);
-            try (ResultSet rs = ps.executeQuery()) {
-                while (rs.next()) {
-                    long id = rs.getLong("id");
-                    long tgId = rs.getLong("tg_id");
-                    JobType type = JobType.valueOf(rs.getString("type"));
-                    long runAt = rs.getLong("run_at");
-                    String payload = rs.getString("payload");
-                    int attempts = rs.getInt("attempts");
-                    jobs.add(new Job(id, tgId, type, runAt, payload, attempts));
+        try {
+            db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("""
+                        SELECT id, tg_id, type, run_at, payload, attempts
+                        FROM jobs
+                        WHERE status = 'PENDING' AND run_at <= ?
+                        ORDER BY run_at ASC
+                        LIMIT ?
+                        """);
+                ps.setLong(1, nowMillis);
+                ps.setInt(2, limit);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    while (rs.next()) {
+                        jobs.add(readJob(rs));
+                    }
                 }
-            }
+                return jobs;
+            });
         } catch (Exception e) {
             throw new RuntimeException("fetchDueJobs failed", e);
         }
@@ -66,80 +98,403 @@ public final class JobDao {
     }
 
     /**
-     * Returns true if status changed to RUNNING (still was PENDING).
+     * Atomically flips up to {@code limit} due PENDING jobs to RUNNING under a lease held by
+     * {@code owner} until {@code leaseUntil}, and returns them earliest first. Users that have
+     * a job running under another owner are skipped, so per-user order holds across processes.
+     */
+    public List<Job> claimDueJobs(long nowMillis, int limit, String owner, long leaseUntil) {
+        try {
+            List<Job> jobs = db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE jobs SET status = 'RUNNING', lease_owner = ?, lease_until = ?, updated_at = ?
+                        WHERE id IN (
+                            SELECT id FROM jobs
+                            WHERE status = 'PENDING' AND run_at <= ?
+                              AND tg_id NOT IN (
+                                  SELECT tg_id FROM jobs
+                                  WHERE status = 'RUNNING' AND (lease_owner IS NULL OR lease_owner <> ?)
+                              )
+                            ORDER BY run_at ASC
+                            LIMIT ?
+                        )
+                        RETURNING id, tg_id, type, run_at, payload, attempts
+                        """);
+                ps.setString(1, owner);
+                ps.setLong(2, leaseUntil);
+                ps.setLong(3, Instant.now().toEpochMilli());
+                ps.setLong(4, nowMillis);
+                ps.setString(5, owner);
+                ps.setInt(6, limit);
+                List<Job> claimed = new ArrayList<>();
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    while (rs.next()) {
+                        claimed.add(readJob(rs));
+                    }
+                }
+                return claimed;
+            });
+            // RETURNING order is unspecified; per-user ordering relies on run_at order
+            jobs.sort(Comparator.comparingLong((Job j) -> j.runAt).thenComparingLong(j -> j.id));
+            return jobs;
+        } catch (Exception e) {
+            throw new RuntimeException("claimDueJobs failed", e);
+        }
+    }
+
+    /**
+     * Extends the leases {@code owner} still holds on the given jobs.
+     *
+     * @return how many leases were extended
      */
-    public boolean markRunning(long jobId) {
+    public int renewLeases(String owner, Collection<Long> jobIds, long leaseUntil) {
+        if (jobIds.isEmpty()) return 0;
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE jobs SET status = 'RUNNING', updated_at = ?
-                     WHERE id = ? AND status = 'PENDING'
-                     """)) {
-            ps.setLong(1, now);
-            ps.setLong(2, jobId);
-            int updated = ps.executeUpdate();
-            return updated == 1;
+        try {
+            return db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE jobs SET lease_until = ?, updated_at = ?
+                        WHERE id = ? AND status = 'RUNNING' AND lease_owner = ?
+                        """);
+                int renewed = 0;
+                for (long id : jobIds) {
+                    ps.setLong(1, leaseUntil);
+                    ps.setLong(2, now);
+                    ps.setLong(3, id);
+                    ps.setString(4, owner);
+                    renewed += c.executeUpdate(ps);
+                }
+                return renewed;
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("renewLeases failed", e);
+        }
+    }
+
+    /**
+     * Returns RUNNING jobs whose lease has expired (their process died or hung) to PENDING,
+     * keeping run_at, so they are picked up again right away.
+     *
+     * @return how many jobs were released
+     */
+    public int releaseExpiredLeases(long nowMillis) {
+        int released;
+        try {
+            released = db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE jobs
+                        SET status = 'PENDING', lease_owner = NULL, lease_until = NULL, updated_at = ?
+                        WHERE status = 'RUNNING' AND (lease_until IS NULL OR lease_until < ?)
+                        """);
+                ps.setLong(1, nowMillis);
+                ps.setLong(2, nowMillis);
+                return c.executeUpdate(ps);
+            });
         } catch (Exception e) {
-            throw new RuntimeException("markRunning failed", e);
+            throw new RuntimeException("releaseExpiredLeases failed", e);
         }
+        if (released > 0) notifyScheduled(nowMillis);
+        return released;
     }
 
-    public void markDone(long jobId) {
+    /**
+     * Hands every job still leased by {@code owner} back to PENDING (clean shutdown).
+     */
+    public int releaseLeases(String owner) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE jobs SET status = 'DONE', updated_at = ?, last_error = NULL
-                     WHERE id = ?
-                     """)) {
-            ps.setLong(1, now);
-            ps.setLong(2, jobId);
-            ps.executeUpdate();
+        try {
+            return db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE jobs
+                        SET status = 'PENDING', lease_owner = NULL, lease_until = NULL, updated_at = ?
+                        WHERE status = 'RUNNING' AND lease_owner = ?
+                        """);
+                ps.setLong(1, now);
+                ps.setString(2, owner);
+                return c.executeUpdate(ps);
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("releaseLeases failed", e);
+        }
+    }
+
+    /**
+     * run_at of the earliest pending job, or null if there is none.
+     */
+    public Long nextRunAt() {
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("SELECT MIN(run_at) FROM jobs WHERE status = 'PENDING'");
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    if (!rs.next()) return null;
+                    long runAt = rs.getLong(1);
+                    return rs.wasNull() ? null : runAt;
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("nextRunAt failed", e);
+        }
+    }
+
+    /**
+     * Number of PENDING, RUNNING and FAILED jobs; one count per status, so each is a scan of
+     * that status's partial index (idx_jobs_pending, idx_jobs_running, idx_jobs_failed).
+     */
+    public Map<String, Long> countActive() {
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("""
+                        SELECT (SELECT COUNT(*) FROM jobs WHERE status = 'PENDING'),
+                               (SELECT COUNT(*) FROM jobs WHERE status = 'RUNNING'),
+                               (SELECT COUNT(*) FROM jobs WHERE status = 'FAILED')
+                        """);
+                Map<String, Long> counts = new LinkedHashMap<>();
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    rs.next();
+                    counts.put("PENDING", rs.getLong(1));
+                    counts.put("RUNNING", rs.getLong(2));
+                    counts.put("FAILED", rs.getLong(3));
+                }
+                return counts;
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("countActive failed", e);
+        }
+    }
+
+    public void markDone(long jobId, String owner) {
+        try {
+            Database.await(markDoneAsync(jobId, owner));
         } catch (Exception e) {
             throw new RuntimeException("markDone failed", e);
         }
     }
 
-    public void rescheduleWithError(long jobId, int newAttempts, long newRunAt, String error) {
+    /**
+     * Queues the job for the next batched DONE update: ids arriving while a flush is waiting
+     * in the write queue ride along with it, so concurrent workers share one statement loop.
+     * A flush takes the buffer and retires its future in one step under {@code doneLock}, so
+     * an id added after that starts a new flush instead of joining one that won't write it.
+     */
+    public CompletableFuture<Integer> markDoneAsync(long jobId, String owner) {
+        CompletableFuture<Set<Long>> flush;
+        synchronized (doneLock) {
+            doneBuffer.put(jobId, owner);
+            flush = doneFlush;
+            if (flush == null) {
+                flush = db.write(c -> {
+                    Map<Long, String> leases;
+                    synchronized (doneLock) {
+                        leases = doneBuffer;
+                        doneBuffer = new LinkedHashMap<>();
+                        doneFlush = null;
+                    }
+                    return markDone(c, leases);
+                });
+                // already settled: ran inline on the writer thread, or the writer is stopped
+                doneFlush = flush.isDone() ? null : flush;
+            }
+        }
+        return flush.thenApply(done -> done.contains(jobId) ? 1 : 0);
+    }
+
+    public void markDone(Collection<Long> jobIds, String owner) {
+        if (jobIds.isEmpty()) return;
+        Map<Long, String> leases = new LinkedHashMap<>();
+        for (long id : jobIds) leases.put(id, owner);
+        try {
+            db.writeAndWait(c -> markDone(c, leases));
+        } catch (Exception e) {
+            throw new RuntimeException("markDone failed", e);
+        }
+    }
+
+    /**
+     * One write for the DONE flip, the stage update and the follow-up inserts; the flip goes
+     * first and a lost lease skips the rest. A result with nothing to apply rides the batched
+     * {@link #markDoneAsync} instead.
+     */
+    @Override
+    public boolean complete(Job job, String owner, JobResult result) {
+        if (result.isEmpty()) {
+            try {
+                return Database.await(markDoneAsync(job.id, owner)) > 0;
+            } catch (Exception e) {
+                throw new RuntimeException("complete failed", e);
+            }
+        }
+        long now = Instant.now().toEpochMilli();
+        List<Long> scheduled;
+        try {
+            scheduled = Database.await(db.write(c -> {
+                if (markDone(c, Map.of(job.id, owner)).isEmpty()) return null;
+
+                if (result.stage != null) {
+                    PreparedStatement ps = c.prepare("""
+                            UPDATE users SET stage = ?, updated_at = ? WHERE tg_id = ?
+                            """);
+                    ps.setString(1, result.stage.name());
+                    ps.setLong(2, now);
+                    ps.setLong(3, job.tgId);
+                    c.executeUpdate(ps);
+                }
+
+                List<Long> runAts = new ArrayList<>();
+                for (JobResult.FollowUp f : result.followUps) {
+                    if (insertOnce(c, job.tgId, f.type, f.runAtMillis, f.payload, now)) runAts.add(f.runAtMillis);
+                }
+                return runAts;
+            }).whenComplete((r, e) -> {
+                // on the writer thread, in commit order, like UserDao's write-through
+                if (result.stage == null) return;
+                if (e != null) userCache.invalidate(job.tgId);
+                else if (r != null) userCache.update(job.tgId, u -> u.withStage(result.stage));
+            }));
+        } catch (Exception e) {
+            throw new RuntimeException("complete failed", e);
+        }
+        if (scheduled == null) return false;
+        for (long runAt : scheduled) notifyScheduled(runAt);
+        return true;
+    }
+
+    /** @return the ids that were still leased by their owner and are now DONE */
+    private static Set<Long> markDone(PooledConnection c, Map<Long, String> leases) throws Exception {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE jobs
-                     SET status = 'PENDING',
-                         attempts = ?,
-                         run_at = ?,
-                         last_error = ?,
-                         updated_at = ?
-                     WHERE id = ?
-                     """)) {
-            ps.setInt(1, newAttempts);
-            ps.setLong(2, newRunAt);
-            ps.setString(3, error);
-            ps.setLong(4, now);
-            ps.setLong(5, jobId);
-            ps.executeUpdate();
+        PreparedStatement ps = c.prepare("""
+                UPDATE jobs SET status = 'DONE', updated_at = ?, last_error = NULL,
+                                lease_owner = NULL, lease_until = NULL
+                WHERE id = ? AND status = 'RUNNING' AND lease_owner = ?
+                """);
+        Set<Long> done = new HashSet<>();
+        for (Map.Entry<Long, String> lease : leases.entrySet()) {
+            ps.setLong(1, now);
+            ps.setLong(2, lease.getKey());
+            ps.setString(3, lease.getValue());
+            if (c.executeUpdate(ps) > 0) done.add(lease.getKey());
+        }
+        return done;
+    }
+
+    public boolean rescheduleWithError(long jobId, String owner, int newAttempts, long newRunAt, String error) {
+        long now = Instant.now().toEpochMilli();
+        int updated;
+        try {
+            updated = db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE jobs
+                        SET status = 'PENDING',
+                            attempts = ?,
+                            run_at = ?,
+                            last_error = ?,
+                            updated_at = ?,
+                            lease_owner = NULL,
+                            lease_until = NULL
+                        WHERE id = ? AND status = 'RUNNING' AND lease_owner = ?
+                        """);
+                ps.setInt(1, newAttempts);
+                ps.setLong(2, newRunAt);
+                ps.setString(3, error);
+                ps.setLong(4, now);
+                ps.setLong(5, jobId);
+                ps.setString(6, owner);
+                return c.executeUpdate(ps);
+            });
         } catch (Exception e) {
             throw new RuntimeException("rescheduleWithError failed", e);
         }
+        if (updated == 0) return false;
+        notifyScheduled(newRunAt);
+        return true;
     }
 
-    public void markFailed(long jobId, int attempts, String error) {
+    public boolean markFailed(long jobId, String owner, int attempts, String error) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE jobs
-                     SET status = 'FAILED',
-                         attempts = ?,
-                         last_error = ?,
-                         updated_at = ?
-                     WHERE id = ?
-                     """)) {
-            ps.setInt(1, attempts);
-            ps.setString(2, error);
-            ps.setLong(3, now);
-            ps.setLong(4, jobId);
-            ps.executeUpdate();
+        try {
+            return db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        UPDATE jobs
+                        SET status = 'FAILED',
+                            attempts = ?,
+                            last_error = ?,
+                            updated_at = ?,
+                            lease_owner = NULL,
+                            lease_until = NULL
+                        WHERE id = ? AND status = 'RUNNING' AND lease_owner = ?
+                        """);
+                ps.setInt(1, attempts);
+                ps.setString(2, error);
+                ps.setLong(3, now);
+                ps.setLong(4, jobId);
+                ps.setString(5, owner);
+                return c.executeUpdate(ps) > 0;
+            });
         } catch (Exception e) {
             throw new RuntimeException("markFailed failed", e);
         }
     }
+
+    /**
+     * Moves up to {@code limit} DONE and FAILED jobs last touched before {@code olderThanMillis}
+     * to jobs_archive, in one transaction, lowest id (earliest created) first. DONE rows are in no
+     * index, so the batch is a walk of the table in rowid order that stops at {@code limit}
+     * matches; old jobs sit at the front, so it reads little more than the rows it moves.
+     *
+     * @return how many jobs were moved
+     */
+    @Override
+    public int archiveFinished(long olderThanMillis, int limit) {
+        long now = Instant.now().toEpochMilli();
+        try {
+            return db.writeAndWait(c -> {
+                PreparedStatement del = c.prepare("""
+                        DELETE FROM jobs
+                        WHERE id IN (
+                            SELECT id FROM jobs
+                            WHERE status IN ('DONE', 'FAILED') AND updated_at < ?
+                            ORDER BY id
+                            LIMIT ?
+                        )
+                        RETURNING id, tg_id, type, run_at, payload, status, attempts, last_error, created_at, updated_at
+                        """);
+                PreparedStatement ins = c.prepare("""
+                        INSERT OR REPLACE INTO jobs_archive
+                            (id, tg_id, type, run_at, payload, status, attempts, last_error, created_at, updated_at, archived_at)
+                        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+                        """);
+                del.setLong(1, olderThanMillis);
+                del.setInt(2, limit);
+                List<Object[]> rows = new ArrayList<>();
+                try (ResultSet rs = c.executeQuery(del)) {
+                    while (rs.next()) {
+                        Object[] row = new Object[10];
+                        for (int i = 0; i < row.length; i++) row[i] = rs.getObject(i + 1);
+                        rows.add(row);
+                    }
+                }
+                for (Object[] row : rows) {
+                    for (int i = 0; i < row.length; i++) ins.setObject(i + 1, row[i]);
+                    ins.setLong(11, now);
+                    c.executeUpdate(ins);
+                }
+                return rows.size();
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("archiveFinished failed", e);
+        }
+    }
+
+    private static Job readJob(ResultSet rs) throws Exception {
+        long id = rs.getLong("id");
+        long tgId = rs.getLong("tg_id");
+        JobType type = JobType.valueOf(rs.getString("type"));
+        long runAt = rs.getLong("run_at");
+        String payload = rs.getString("payload");
+        int attempts = rs.getInt("attempts");
+        return new Job(id, tgId, type, runAt, payload, attempts);
+    }
+
+    void notifyScheduled(long runAtMillis) {
+        ScheduleListener l = listener;
+        if (l != null) l.onScheduled(runAtMillis);
+    }
 }
@@ -0,0 +1,137 @@
+package com.hypnofaq.bot.db;
+
+import com.hypnofaq.bot.jfr.DbStatementEvent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A long-lived SQLite connection owned by {@link Database}'s pool.
+ * Only one thread uses it at a time, so the statement cache needs no locking.
+ * DAOs run cached statements through {@link #executeQuery} / {@link #executeUpdate}, which
+ * cost one enabled-check when no JFR recording asks for {@link DbStatementEvent}s.
+ */
+public final class PooledConnection {
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements;
+    /** Reverse of {@code statements}, for the SQL of a {@link DbStatementEvent}. */
+    private final Map<PreparedStatement, String> sqlOf = new IdentityHashMap<>();
+
+    private final LongAdder statementHits;
+    private final LongAdder statementMisses;
+
+    PooledConnection(Connection conn, int statementCacheSize, LongAdder statementHits, LongAdder statementMisses) {
+        this.conn = conn;
+        this.statementHits = statementHits;
+        this.statementMisses = statementMisses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) return false;
+                sqlOf.remove(eldest.getValue());
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached prepared statement for the given SQL, with parameters cleared.
+     * Callers must NOT close it; close only the ResultSets they open.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            statementHits.increment();
+            ps.clearParameters();
+            return ps;
+        }
+        statementMisses.increment();
+        ps = conn.prepareStatement(sql);
+        statements.put(sql, ps);
+        sqlOf.put(ps, sql);
+        return ps;
+    }
+
+    /** {@link PreparedStatement#executeQuery()}, recorded as a {@link DbStatementEvent} while a JFR recording wants it. */
+    public ResultSet executeQuery(PreparedStatement ps) throws SQLException {
+        DbStatementEvent event = new DbStatementEvent();
+        if (!event.isEnabled()) return ps.executeQuery();
+        return timed(event, ps, "executeQuery", ps::executeQuery);
+    }
+
+    /** {@link PreparedStatement#executeUpdate()}, recorded like {@link #executeQuery}. */
+    public int executeUpdate(PreparedStatement ps) throws SQLException {
+        DbStatementEvent event = new DbStatementEvent();
+        if (!event.isEnabled()) return ps.executeUpdate();
+        return timed(event, ps, "executeUpdate", ps::executeUpdate);
+    }
+
+    private interface SqlCall<T> {
+        T call() throws SQLException;
+    }
+
+    private <T> T timed(DbStatementEvent event, PreparedStatement ps, String method, SqlCall<T> call) throws SQLException {
+        event.begin();
+        String outcome = "error";
+        try {
+            T result = call.call();
+            outcome = "ok";
+            return result;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.sql = sqlOf.get(ps);
+                event.method = method;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    public Connection raw() {
+        return conn;
+    }
+
+    boolean isUsable() {
+        try {
+            return !conn.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /** Leaves the connection in autocommit mode, rolling back anything left open by a failed unit of work. */
+    void reset() throws SQLException {
+        if (!conn.getAutoCommit()) {
+            try {
+                conn.rollback();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    void close() {
+        for (PreparedStatement ps : statements.values()) {
+            closeQuietly(ps);
+        }
+        statements.clear();
+        sqlOf.clear();
+        try {
+            conn.close();
+        } catch (SQLException ignored) {}
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {}
+    }
+}
@@ -0,0 +1,72 @@
+package com.hypnofaq.bot.db;
+
+import com.hypnofaq.bot.store.BroadcastStore;
+import com.hypnofaq.bot.store.FileIdStore;
+import com.hypnofaq.bot.store.JobStore;
+import com.hypnofaq.bot.store.Storage;
+import com.hypnofaq.bot.store.UserStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default backend: one SQLite file behind a connection pool and a group-commit writer.
+ */
+public final class SqliteStorage implements Storage {
+    private static final Logger log = LoggerFactory.getLogger(SqliteStorage.class);
+
+    /** Pages per incremental_vacuum write, so the writer is never held for long. */
+    private static final int VACUUM_PAGES = 1024;
+
+    private final Database db;
+    private final UserDao users;
+    private final JobDao jobs;
+    private final FileIdDao fileIds;
+    private final BroadcastDao broadcasts;
+
+    public SqliteStorage(String dbPath, DbSettings settings, UserCache userCache) {
+        this.db = new Database(dbPath, settings);
+        db.initSchema();
+        this.jobs = new JobDao(db, userCache);
+        this.users = new UserDao(db, userCache, jobs);
+        this.fileIds = new FileIdDao(db);
+        this.broadcasts = new BroadcastDao(db);
+    }
+
+    @Override
+    public UserStore users() {
+        return users;
+    }
+
+    @Override
+    public JobStore jobs() {
+        return jobs;
+    }
+
+    @Override
+    public FileIdStore fileIds() {
+        return fileIds;
+    }
+
+    @Override
+    public BroadcastStore broadcasts() {
+        return broadcasts;
+    }
+
+    @Override
+    public long reclaimSpace() {
+        long total = 0;
+        try {
+            long freed;
+            while ((freed = db.incrementalVacuum(VACUUM_PAGES)) > 0) total += freed;
+        } catch (Exception e) {
+            throw new RuntimeException("reclaimSpace failed", e);
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        log.info("User cache: {}", users.cacheStats());
+        db.close();
+    }
+}
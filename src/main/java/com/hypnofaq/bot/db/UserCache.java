@@ -0,0 +1,140 @@
+package com.hypnofaq.bot.db;
+
+import com.hypnofaq.bot.model.User;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.UnaryOperator;
+
+/**
+ * Bounded LRU + TTL cache of {@link User} snapshots keyed by tg_id.
+ * <p>
+ * {@link UserDao} keeps it write-through: every mutator applies the same change to the
+ * cached snapshot once its write is committed, so the interactive hot path reads users
+ * without a SELECT. Loads from SQLite are only cached if no write landed in the meantime
+ * (see {@link #loadToken()}), which keeps a slow reader from resurrecting a stale row.
+ * <p>
+ * Writes of other processes never reach it, so with several processes on one database
+ * it must be off: {@code maxSize} 0 caches nothing and every read goes to SQLite.
+ */
+public final class UserCache {
+    private static final class Entry {
+        final User user;
+        final long expiresAt;
+
+        Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final LinkedHashMap<Long, Entry> map;
+
+    // bumped by every write-through; guarded by this
+    private long writeSeq;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public UserCache(int maxSize, long ttlMillis) {
+        this.maxSize = Math.max(0, maxSize);
+        this.ttlMillis = Math.max(1, ttlMillis);
+        this.map = new LinkedHashMap<>(Math.min(this.maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() <= UserCache.this.maxSize) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public synchronized Optional<User> get(long tgId) {
+        Entry e = map.get(tgId);
+        if (e == null) {
+            misses++;
+            return Optional.empty();
+        }
+        if (e.expiresAt <= System.currentTimeMillis()) {
+            map.remove(tgId);
+            expirations++;
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(e.user);
+    }
+
+    /** Authoritative snapshot (e.g. returned by a committed upsert). */
+    public synchronized void put(User user) {
+        writeSeq++;
+        if (maxSize == 0) return;
+        map.put(user.tgId, new Entry(user, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /** Applies a committed change to the cached snapshot, if there is one. */
+    public synchronized void update(long tgId, UnaryOperator<User> change) {
+        writeSeq++;
+        Entry e = map.get(tgId);
+        if (e == null) return;
+        map.put(tgId, new Entry(change.apply(e.user), e.expiresAt));
+    }
+
+    public synchronized void invalidate(long tgId) {
+        writeSeq++;
+        map.remove(tgId);
+    }
+
+    /** Take before reading a user from SQLite; pass to {@link #putLoaded}. */
+    public synchronized long loadToken() {
+        return writeSeq;
+    }
+
+    /** Caches a row read from SQLite unless a write happened since {@code token} was taken. */
+    public synchronized void putLoaded(User user, long token) {
+        if (token != writeSeq || maxSize == 0) return;
+        map.put(user.tgId, new Entry(user, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(map.size(), maxSize, hits, misses, evictions, expirations);
+    }
+
+    public static final class Stats {
+        public final int size;
+        public final int maxSize;
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long expirations;
+
+        Stats(int size, int maxSize, long hits, long misses, long evictions, long expirations) {
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.expirations = expirations;
+        }
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size + "/" + maxSize +
+                    ", hits=" + hits +
+                    ", misses=" + misses +
+                    ", hitRatio=" + String.format("%.3f", hitRatio()) +
+                    ", evictions=" + evictions +
+                    ", expirations=" + expirations;
+        }
+    }
+}
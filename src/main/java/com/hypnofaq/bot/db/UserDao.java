@@ -1,187 +1,455 @@
 package com.hypnofaq.bot.db;
 
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.model.JobResult;
 import com.hypnofaq.bot.model.User;
 import com.hypnofaq.bot.model.UserStage;
+import com.hypnofaq.bot.store.UserSession;
+import com.hypnofaq.bot.store.UserStore;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 
-public final class UserDao {
+public final class UserDao implements UserStore {
     private final Database db;
+    private final UserCache cache;
+    private final JobDao jobs;
 
     public UserDao(Database db) {
+        this(db, new UserCache(50_000, 10 * 60 * 1000L));
+    }
+
+    public UserDao(Database db, UserCache cache) {
+        this(db, cache, new JobDao(db, cache));
+    }
+
+    /** {@code jobs} inserts the sessions' scheduled jobs and tells its listener about them. */
+    public UserDao(Database db, UserCache cache, JobDao jobs) {
         this.db = db;
+        this.cache = cache;
+        this.jobs = jobs;
+    }
+
+    public UserCache.Stats cacheStats() {
+        return cache.stats();
     }
 
+    /**
+     * Creates the user if missing. The upsert returns the full row, which warms the cache,
+     * so a following {@link #getUser} costs no SELECT.
+     */
     public void ensureUser(long tgId) {
+        ensureUsers(List.of(tgId));
+    }
+
+    /**
+     * {@link #ensureUser} for a batch: one write transaction for all ids, and every returned
+     * row lands in the cache, so the batch's handlers start with no SELECTs.
+     */
+    @Override
+    public void ensureUsers(Collection<Long> tgIds) {
+        if (tgIds.isEmpty()) return;
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection()) {
-            try (PreparedStatement ps = conn.prepareStatement("""
-                    INSERT INTO users (tg_id, created_at, updated_at)
-                    VALUES (?, ?, ?)
-                    ON CONFLICT(tg_id) DO UPDATE SET updated_at = excluded.updated_at
-                    """)) {
-                ps.setLong(1, tgId);
-                ps.setLong(2, now);
-                ps.setLong(3, now);
-                ps.executeUpdate();
-            }
+        try {
+            int upserted = db.writeAndWait(c -> {
+                PreparedStatement ps = c.prepare("""
+                        INSERT INTO users (tg_id, created_at, updated_at)
+                        VALUES (?, ?, ?)
+                        ON CONFLICT(tg_id) DO UPDATE SET updated_at = excluded.updated_at
+                        RETURNING tg_id, stage, subscribed, practice_sent_at, checkup_sent_at, choose_time_clicked, start_param
+                        """);
+                int n = 0;
+                for (long tgId : tgIds) {
+                    ps.setLong(1, tgId);
+                    ps.setLong(2, now);
+                    ps.setLong(3, now);
+                    try (ResultSet rs = c.executeQuery(ps)) {
+                        if (!rs.next()) continue;
+                        // on the writer thread, in commit order
+                        cache.put(readUser(rs));
+                        n++;
+                    }
+                }
+                return n;
+            });
+            if (upserted < tgIds.size()) tgIds.forEach(cache::invalidate);
         } catch (Exception e) {
+            tgIds.forEach(cache::invalidate);
             throw new RuntimeException("ensureUser failed", e);
         }
     }
 
     public Optional<User> getUser(long tgId) {
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     SELECT tg_id, stage, subscribed, practice_sent_at, checkup_sent_at, choose_time_clicked, start_param
-                     FROM users WHERE tg_id = ?
-                     """)) {
-            ps.setLong(1, tgId);
-            try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return Optional.empty();
-
-                String stageStr = rs.getString("stage");
-                UserStage stage;
-                try {
-                    stage = UserStage.valueOf(stageStr);
-                } catch (Exception ignored) {
-                    stage = UserStage.NEW;
+        Optional<User> cached = cache.get(tgId);
+        if (cached.isPresent()) return cached;
+
+        long token = cache.loadToken();
+        try {
+            Optional<User> loaded = db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("""
+                        SELECT tg_id, stage, subscribed, practice_sent_at, checkup_sent_at, choose_time_clicked, start_param
+                        FROM users WHERE tg_id = ?
+                        """);
+                ps.setLong(1, tgId);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    if (!rs.next()) return Optional.empty();
+                    return Optional.of(readUser(rs));
                 }
+            });
+            loaded.ifPresent(u -> cache.putLoaded(u, token));
+            return loaded;
+        } catch (Exception e) {
+            throw new RuntimeException("getUser failed", e);
+        }
+    }
 
-                boolean subscribed = rs.getInt("subscribed") == 1;
-                Long practiceSentAt = (Long) rs.getObject("practice_sent_at");
-                Long checkupSentAt = (Long) rs.getObject("checkup_sent_at");
-                boolean chooseTimeClicked = rs.getInt("choose_time_clicked") == 1;
+    /**
+     * A cached user is known to exist, so the session costs no statement; otherwise it is
+     * the same upsert as {@link #ensureUser}.
+     */
+    @Override
+    public UserSession openSession(long tgId) {
+        Optional<User> cached = cache.get(tgId);
+        if (cached.isPresent()) return new UserSession(cached.get());
+        ensureUser(tgId);
+        return new UserSession(getUser(tgId).orElseThrow(() -> new IllegalStateException("user vanished: " + tgId)));
+    }
 
-                String startParam = rs.getString("start_param");
-                if (startParam != null) {
-                    startParam = startParam.trim();
-                    if (startParam.isEmpty()) startParam = null;
+    /** One UPDATE of the changed columns and the scheduled jobs' inserts in one write; waits for the commit. */
+    @Override
+    public void flush(UserSession session) {
+        int dirty = session.dirtyColumns();
+        List<JobResult.FollowUp> followUps = session.scheduledJobs();
+        if (dirty == 0 && followUps.isEmpty()) return;
+        long tgId = session.tgId();
+        long now = Instant.now().toEpochMilli();
+
+        StringBuilder sql = new StringBuilder("UPDATE users SET ");
+        if ((dirty & UserSession.STAGE) != 0) sql.append("stage = ?, ");
+        if ((dirty & UserSession.SUBSCRIBED) != 0) sql.append("subscribed = ?, ");
+        if ((dirty & UserSession.START_PARAM) != 0) sql.append("start_param = ?, ");
+        if ((dirty & UserSession.PRACTICE_SENT_AT) != 0) sql.append("practice_sent_at = ?, ");
+        if ((dirty & UserSession.CHECKUP_SENT_AT) != 0) sql.append("checkup_sent_at = ?, ");
+        if ((dirty & UserSession.CHOOSE_TIME_CLICKED) != 0) sql.append("choose_time_clicked = ?, ");
+        sql.append("updated_at = ? WHERE tg_id = ?");
+        // at most 2^6 distinct strings, so the statement cache still works
+        String update = sql.toString();
+
+        List<Long> scheduled = new ArrayList<>();
+        try {
+            CompletableFuture<Integer> write = db.write(c -> {
+                scheduled.clear();
+                for (JobResult.FollowUp f : followUps) {
+                    if (JobDao.insertOnce(c, tgId, f.type, f.runAtMillis, f.payload, now)) scheduled.add(f.runAtMillis);
                 }
+                if (dirty == 0) return 0;
 
-                return Optional.of(new User(
-                        rs.getLong("tg_id"),
-                        stage,
-                        subscribed,
-                        practiceSentAt,
-                        checkupSentAt,
-                        chooseTimeClicked,
-                        startParam
-                ));
-            }
+                PreparedStatement ps = c.prepare(update);
+                int i = 1;
+                if ((dirty & UserSession.STAGE) != 0) ps.setString(i++, session.stage().name());
+                if ((dirty & UserSession.SUBSCRIBED) != 0) ps.setInt(i++, session.subscribed() ? 1 : 0);
+                if ((dirty & UserSession.START_PARAM) != 0) ps.setObject(i++, session.startParam());
+                if ((dirty & UserSession.PRACTICE_SENT_AT) != 0) ps.setObject(i++, session.practiceSentAt());
+                if ((dirty & UserSession.CHECKUP_SENT_AT) != 0) ps.setObject(i++, session.checkupSentAt());
+                if ((dirty & UserSession.CHOOSE_TIME_CLICKED) != 0) ps.setInt(i++, session.chooseTimeClicked() ? 1 : 0);
+                ps.setLong(i++, now);
+                ps.setLong(i, tgId);
+                return c.executeUpdate(ps);
+            });
+            Database.await(dirty == 0 ? write : writeThrough(tgId, session::applyTo, write));
+            session.flushed();
         } catch (Exception e) {
-            throw new RuntimeException("getUser failed", e);
+            throw new RuntimeException("flush failed", e);
         }
+        for (long runAt : scheduled) jobs.notifyScheduled(runAt);
     }
 
     public void setStage(long tgId, UserStage stage) {
+        try {
+            Database.await(setStageAsync(tgId, stage));
+        } catch (Exception e) {
+            throw new RuntimeException("setStage failed", e);
+        }
+    }
+
+    public CompletableFuture<Integer> setStageAsync(long tgId, UserStage stage) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE users SET stage = ?, updated_at = ? WHERE tg_id = ?
-                     """)) {
+        return writeThrough(tgId, u -> u.withStage(stage), db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    UPDATE users SET stage = ?, updated_at = ? WHERE tg_id = ?
+                    """);
             ps.setString(1, stage.name());
             ps.setLong(2, now);
             ps.setLong(3, tgId);
-            ps.executeUpdate();
+            return c.executeUpdate(ps);
+        }));
+    }
+
+    public void setSubscribed(long tgId, boolean subscribed) {
+        try {
+            Database.await(setSubscribedAsync(tgId, subscribed));
         } catch (Exception e) {
-            throw new RuntimeException("setStage failed", e);
+            throw new RuntimeException("setSubscribed failed", e);
         }
     }
 
-    public void setSubscribed(long tgId, boolean subscribed) {
+    /**
+     * Fire-and-forget variant: queued for the next group commit, the caller doesn't wait.
+     */
+    public CompletableFuture<Integer> setSubscribedAsync(long tgId, boolean subscribed) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE users SET subscribed = ?, updated_at = ? WHERE tg_id = ?
-                     """)) {
+        return writeThrough(tgId, u -> u.withSubscribed(subscribed), db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    UPDATE users SET subscribed = ?, updated_at = ? WHERE tg_id = ?
+                    """);
             ps.setInt(1, subscribed ? 1 : 0);
             ps.setLong(2, now);
             ps.setLong(3, tgId);
-            ps.executeUpdate();
+            return c.executeUpdate(ps);
+        }));
+    }
+
+    public void setStartParam(long tgId, String startParam) {
+        try {
+            Database.await(setStartParamAsync(tgId, startParam));
         } catch (Exception e) {
-            throw new RuntimeException("setSubscribed failed", e);
+            throw new RuntimeException("setStartParam failed", e);
         }
     }
 
-    public void setStartParam(long tgId, String startParam) {
+    public CompletableFuture<Integer> setStartParamAsync(long tgId, String startParam) {
         long now = Instant.now().toEpochMilli();
-        String val = startParam;
-        if (val != null) {
-            val = val.trim();
-            if (val.isEmpty()) val = null;
-        }
+        String val = UserStore.normalizeStartParam(startParam);
 
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE users SET start_param = ?, updated_at = ? WHERE tg_id = ?
-                     """)) {
+        return writeThrough(tgId, u -> u.withStartParam(val), db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    UPDATE users SET start_param = ?, updated_at = ? WHERE tg_id = ?
+                    """);
             ps.setObject(1, val);
             ps.setLong(2, now);
             ps.setLong(3, tgId);
-            ps.executeUpdate();
-        } catch (Exception e) {
-            throw new RuntimeException("setStartParam failed", e);
-        }
+            return c.executeUpdate(ps);
+        }));
     }
 
-    public void clearStartParam(long tgId) {
-        setStartParam(tgId, null);
+    public void markPracticeSent(long tgId) {
+        try {
+            Database.await(markPracticeSentAsync(tgId));
+        } catch (Exception e) {
+            throw new RuntimeException("markPracticeSent failed", e);
+        }
     }
 
-    public void markPracticeSent(long tgId) {
+    public CompletableFuture<Integer> markPracticeSentAsync(long tgId) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE users
-                     SET practice_sent_at = ?, stage = ?, updated_at = ?
-                     WHERE tg_id = ?
-                     """)) {
+        return writeThrough(tgId, u -> u.withPracticeSent(now), db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    UPDATE users
+                    SET practice_sent_at = ?, stage = ?, updated_at = ?
+                    WHERE tg_id = ?
+                    """);
             ps.setLong(1, now);
             ps.setString(2, UserStage.PRACTICE_SENT.name());
             ps.setLong(3, now);
             ps.setLong(4, tgId);
-            ps.executeUpdate();
+            return c.executeUpdate(ps);
+        }));
+    }
+
+    public void markCheckupSent(long tgId) {
+        try {
+            Database.await(markCheckupSentAsync(tgId));
         } catch (Exception e) {
-            throw new RuntimeException("markPracticeSent failed", e);
+            throw new RuntimeException("markCheckupSent failed", e);
         }
     }
 
-    public void markCheckupSent(long tgId) {
+    public CompletableFuture<Integer> markCheckupSentAsync(long tgId) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE users
-                     SET checkup_sent_at = ?, stage = ?, updated_at = ?
-                     WHERE tg_id = ?
-                     """)) {
+        return writeThrough(tgId, u -> u.withCheckupSent(now), db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    UPDATE users
+                    SET checkup_sent_at = ?, stage = ?, updated_at = ?
+                    WHERE tg_id = ?
+                    """);
             ps.setLong(1, now);
             ps.setString(2, UserStage.CHECKUP_SENT.name());
             ps.setLong(3, now);
             ps.setLong(4, tgId);
-            ps.executeUpdate();
+            return c.executeUpdate(ps);
+        }));
+    }
+
+    public void markChooseTimeClicked(long tgId) {
+        try {
+            Database.await(markChooseTimeClickedAsync(tgId));
         } catch (Exception e) {
-            throw new RuntimeException("markCheckupSent failed", e);
+            throw new RuntimeException("markChooseTimeClicked failed", e);
         }
     }
 
-    public void markChooseTimeClicked(long tgId) {
+    /**
+     * Fire-and-forget variant: queued for the next group commit, the caller doesn't wait.
+     */
+    public CompletableFuture<Integer> markChooseTimeClickedAsync(long tgId) {
         long now = Instant.now().toEpochMilli();
-        try (Connection conn = db.openConnection();
-             PreparedStatement ps = conn.prepareStatement("""
-                     UPDATE users
-                     SET choose_time_clicked = 1, updated_at = ?
-                     WHERE tg_id = ?
-                     """)) {
+        return writeThrough(tgId, User::withChooseTimeClicked, db.write(c -> {
+            PreparedStatement ps = c.prepare("""
+                    UPDATE users
+                    SET choose_time_clicked = 1, updated_at = ?
+                    WHERE tg_id = ?
+                    """);
             ps.setLong(1, now);
             ps.setLong(2, tgId);
-            ps.executeUpdate();
+            return c.executeUpdate(ps);
+        }));
+    }
+
+    /** Two primary-key range reads over the trigger-maintained counter tables. */
+    @Override
+    public FunnelStats funnelStats(int days) {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        LocalDate first = today.minusDays(Math.max(1, days) - 1);
+        try {
+            return db.withConnection(c -> {
+                Map<UserStage, Long> stages = new EnumMap<>(UserStage.class);
+                long chooseTime = 0;
+                try (ResultSet rs = c.executeQuery(c.prepare("SELECT name, count FROM funnel_totals"))) {
+                    while (rs.next()) {
+                        String name = rs.getString(1);
+                        if (name.equals(FunnelStats.CHOOSE_TIME_CLICKED)) {
+                            chooseTime = rs.getLong(2);
+                        } else {
+                            stages.merge(parseStage(name), rs.getLong(2), Long::sum);
+                        }
+                    }
+                }
+
+                SortedMap<LocalDate, Map<String, Long>> byDay = new TreeMap<>();
+                for (LocalDate d = first; !d.isAfter(today); d = d.plusDays(1)) byDay.put(d, new HashMap<>());
+                PreparedStatement ps = c.prepare("SELECT day, name, count FROM funnel_daily WHERE day >= ?");
+                ps.setLong(1, first.toEpochDay());
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    while (rs.next()) {
+                        Map<String, Long> day = byDay.get(LocalDate.ofEpochDay(rs.getLong(1)));
+                        // a day after today can only come from a clock step; nothing to report for it
+                        if (day != null) day.put(rs.getString(2), rs.getLong(3));
+                    }
+                }
+                return new FunnelStats(stages, chooseTime, byDay);
+            });
         } catch (Exception e) {
-            throw new RuntimeException("markChooseTimeClicked failed", e);
+            throw new RuntimeException("funnelStats failed", e);
+        }
+    }
+
+    /** A range of the rowid (tg_id) from {@code afterTgId}, filtered as it goes. */
+    @Override
+    public List<Long> recipients(Audience audience, long afterTgId, int limit) {
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("SELECT tg_id FROM users WHERE tg_id > ?"
+                        + audienceFilter(audience) + " ORDER BY tg_id LIMIT ?");
+                ps.setLong(1, afterTgId);
+                ps.setInt(bindAudience(ps, 2, audience), limit);
+                List<Long> ids = new ArrayList<>(limit);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    while (rs.next()) ids.add(rs.getLong(1));
+                }
+                return ids;
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("recipients failed", e);
+        }
+    }
+
+    @Override
+    public long countRecipients(Audience audience) {
+        try {
+            return db.withConnection(c -> {
+                PreparedStatement ps = c.prepare("SELECT COUNT(*) FROM users WHERE 1 = 1" + audienceFilter(audience));
+                bindAudience(ps, 1, audience);
+                try (ResultSet rs = c.executeQuery(ps)) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("countRecipients failed", e);
+        }
+    }
+
+    /** One of eight statement shapes, so each gets its own cached plan. */
+    private static String audienceFilter(Audience audience) {
+        StringBuilder sql = new StringBuilder();
+        if (audience.stage != null) sql.append(" AND stage = ?");
+        if (audience.subscribed != null) sql.append(" AND subscribed = ?");
+        if (audience.startParam != null) sql.append(" AND start_param = ?");
+        return sql.toString();
+    }
+
+    /** @return the next parameter index */
+    private static int bindAudience(PreparedStatement ps, int index, Audience audience) throws Exception {
+        int i = index;
+        if (audience.stage != null) ps.setString(i++, audience.stage.name());
+        if (audience.subscribed != null) ps.setInt(i++, audience.subscribed ? 1 : 0);
+        if (audience.startParam != null) ps.setString(i++, audience.startParam);
+        return i;
+    }
+
+    /**
+     * Applies {@code change} to the cached snapshot once the write is committed (or drops the
+     * entry if it failed). The returned future completes only after the cache is updated, so
+     * a caller that awaits it always reads its own write.
+     */
+    private CompletableFuture<Integer> writeThrough(long tgId, UnaryOperator<User> change, CompletableFuture<Integer> write) {
+        return write.whenComplete((updated, e) -> {
+            if (e == null && updated != null && updated > 0) {
+                cache.update(tgId, change);
+            } else {
+                cache.invalidate(tgId);
+            }
+        });
+    }
+
+    private static User readUser(ResultSet rs) throws Exception {
+        UserStage stage = parseStage(rs.getString("stage"));
+        boolean subscribed = rs.getInt("subscribed") == 1;
+        Long practiceSentAt = (Long) rs.getObject("practice_sent_at");
+        Long checkupSentAt = (Long) rs.getObject("checkup_sent_at");
+        boolean chooseTimeClicked = rs.getInt("choose_time_clicked") == 1;
+
+        return new User(
+                rs.getLong("tg_id"),
+                stage,
+                subscribed,
+                practiceSentAt,
+                checkupSentAt,
+                chooseTimeClicked,
+                UserStore.normalizeStartParam(rs.getString("start_param"))
+        );
+    }
+
+    /** Unknown values (from an older or newer version) read as NEW. */
+    private static UserStage parseStage(String stage) {
+        try {
+            return UserStage.valueOf(stage);
+        } catch (Exception ignored) {
+            return UserStage.NEW;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package com.hypnofaq.bot.http;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hypnofaq.bot.metrics.Counter;
+import com.hypnofaq.bot.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Receives Telegram updates pushed to a webhook.
+ * <p>
+ * Exchanges run on a small pool of handler threads, so a slow or stalled client can't hold
+ * up the other deliveries, and one that takes longer than {@link #MAX_REQUEST_SECONDS} to send
+ * its request is dropped (see {@link #limitRequestTime()}). The handler only checks the secret
+ * token, parses the JSON, answers 200 and hands the update to the sink, which must not block
+ * (the bot's update dispatcher).
+ * <p>
+ * Recorded updates can be replayed locally with
+ * {@code curl -H 'X-Telegram-Bot-Api-Secret-Token: ...' --data @update.json}.
+ */
+public final class WebhookServer {
+    private static final Logger log = LoggerFactory.getLogger(WebhookServer.class);
+
+    public static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    // Telegram updates are a few KB; anything far bigger is not from Telegram
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    // Telegram sends an update in well under a second; this only cuts off stalled clients
+    public static final int MAX_REQUEST_SECONDS = 10;
+    // platform threads: the JDK server reads the body inside synchronized, which pins a virtual thread
+    private static final int HANDLER_THREADS = 8;
+    private static final String MAX_REQ_TIME_PROPERTY = "sun.net.httpserver.maxReqTime";
+
+    private static final Counter REQUESTS = Metrics.counter("hypnobot_webhook_requests_total",
+            "Webhook POSTs by result: received, rejected (bad secret), malformed.", "result");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String path;
+    private final byte[] secret;
+    private final Consumer<Update> sink;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    /**
+     * @param secret expected secret token header; null or blank accepts any request (local testing only)
+     */
+    public WebhookServer(int port, String path, String secret, Consumer<Update> sink) throws IOException {
+        this.path = path;
+        this.secret = secret == null || secret.isBlank() ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.sink = sink;
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.server.createContext(path, this::handle);
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(HANDLER_THREADS, r -> {
+            Thread t = new Thread(r, "webhook-http-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.server.setExecutor(executor);
+    }
+
+    /**
+     * Caps the time to receive a request's headers and body at {@link #MAX_REQUEST_SECONDS},
+     * unless {@code -Dsun.net.httpserver.maxReqTime} is given. The JDK server reads the property
+     * once, when the first {@link HttpServer} is created, so this has to run before that
+     * (the metrics server included).
+     */
+    public static void limitRequestTime() {
+        if (System.getProperty(MAX_REQ_TIME_PROPERTY) == null) {
+            System.setProperty(MAX_REQ_TIME_PROPERTY, String.valueOf(MAX_REQUEST_SECONDS));
+        }
+    }
+
+    public void start() {
+        server.start();
+        log.info("Webhook server listening on :{}{}", server.getAddress().getPort(), path);
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+        log.info("Webhook server stopped: received={}, rejected={}, malformed={}",
+                received.sum(), rejected.sum(), malformed.sum());
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (!path.equals(ex.getRequestURI().getPath())) {
+                ex.sendResponseHeaders(404, -1);
+                return;
+            }
+            if (secret != null) {
+                String token = ex.getRequestHeaders().getFirst(SECRET_HEADER);
+                if (token == null || !MessageDigest.isEqual(secret, token.getBytes(StandardCharsets.UTF_8))) {
+                    rejected.increment();
+                    REQUESTS.inc("rejected");
+                    ex.sendResponseHeaders(401, -1);
+                    return;
+                }
+            }
+
+            Update update;
+            try {
+                update = mapper.readValue(readBody(ex.getRequestBody()), Update.class);
+            } catch (Exception e) {
+                malformed.increment();
+                REQUESTS.inc("malformed");
+                log.warn("Malformed webhook update: {}", e.getMessage());
+                ex.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            // ack first: Telegram doesn't need to wait for our Bot API calls
+            ex.sendResponseHeaders(200, -1);
+            received.increment();
+            REQUESTS.inc("received");
+            sink.accept(update);
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) throw new IOException("update larger than " + MAX_BODY_BYTES + " bytes");
+        return body;
+    }
+}
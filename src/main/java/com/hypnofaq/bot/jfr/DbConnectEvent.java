@@ -0,0 +1,22 @@
+package com.hypnofaq.bot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** Opening a SQLite connection and applying its PRAGMAs. */
+@Name("hypnobot.DbConnect")
+@Label("DB Connect")
+@Category({"HypnoBot", "Database"})
+@Threshold("0 ms")
+@StackTrace(false)
+public final class DbConnectEvent extends Event {
+    @Label("JDBC URL")
+    public String url;
+
+    @Label("Outcome")
+    public String outcome;
+}
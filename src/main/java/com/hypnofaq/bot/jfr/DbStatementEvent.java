@@ -0,0 +1,32 @@
+package com.hypnofaq.bot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One statement execution. For queries this covers the first step only, which is where
+ * SQLite does the work for the indexed lookups the DAOs issue; time spent waiting on a
+ * locked database (busy_timeout) shows up here as well.
+ */
+@Name("hypnobot.DbStatement")
+@Label("DB Statement")
+@Category({"HypnoBot", "Database"})
+@Description("One SQL statement execution, including busy-timeout waits for the database lock")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class DbStatementEvent extends Event {
+    @Label("SQL")
+    public String sql;
+
+    @Label("Method")
+    @Description("executeQuery, executeUpdate, executeBatch or execute")
+    public String method;
+
+    @Label("Outcome")
+    public String outcome;
+}
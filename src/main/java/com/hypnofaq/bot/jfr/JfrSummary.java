@@ -0,0 +1,177 @@
+package com.hypnofaq.bot.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Summarises a recording made with {@code hypnobot.jfc} into a latency table per subsystem
+ * (updates, jobs, Bot API, SQLite, GC, pinned virtual threads, monitor contention), then
+ * breaks the slowest updates and jobs down into the Telegram and database time recorded on
+ * their own thread.
+ *
+ * <pre>java -cp app.jar com.hypnofaq.bot.jfr.JfrSummary recording.jfr [top]</pre>
+ *
+ * Only events above the profile's thresholds are in the file, so the breakdown is a lower
+ * bound. "Other" is everything else: rate-limit and connection waits in the send gateway,
+ * statements under the threshold, CPU.
+ */
+public final class JfrSummary {
+    private static final int SQL_WIDTH = 70;
+
+    /** Subsystem name, the event it is built from and what to group by. */
+    private static final class Source {
+        final String subsystem;
+        final String eventName;
+        final Function<RecordedEvent, String> key;
+
+        Source(String subsystem, String eventName, Function<RecordedEvent, String> key) {
+            this.subsystem = subsystem;
+            this.eventName = eventName;
+            this.key = key;
+        }
+    }
+
+    private static final List<Source> SOURCES = List.of(
+            new Source("update", "hypnobot.Update", e -> e.getString("kind") + " " + e.getString("data")),
+            new Source("job", "hypnobot.Job", e -> e.getString("type")),
+            new Source("telegram", "hypnobot.TelegramCall", e -> e.getString("method")),
+            new Source("db", "hypnobot.DbStatement", e -> shorten(e.getString("sql"))),
+            new Source("db-connect", "hypnobot.DbConnect", e -> e.getString("outcome")),
+            new Source("gc", "jdk.GarbageCollection", e -> e.getString("name")),
+            new Source("pinned", "jdk.VirtualThreadPinned", e -> "virtual thread pinned"),
+            new Source("monitor", "jdk.JavaMonitorEnter", e -> e.getClass("monitorClass").getName())
+    );
+
+    private JfrSummary() {}
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: JfrSummary <recording.jfr> [top]");
+            System.exit(2);
+        }
+        int top = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(Path.of(args[0]));
+        Map<String, Source> sources = new HashMap<>();
+        for (Source s : SOURCES) sources.put(s.eventName, s);
+
+        // subsystem -> key -> durations
+        Map<String, Map<String, List<Duration>>> table = new TreeMap<>(Comparator.comparingInt(JfrSummary::order));
+        // thread -> Telegram and DB events, for the breakdown
+        Map<Long, List<RecordedEvent>> nested = new HashMap<>();
+        List<RecordedEvent> units = new ArrayList<>();
+
+        for (RecordedEvent e : events) {
+            String name = e.getEventType().getName();
+            Source source = sources.get(name);
+            if (source == null) continue;
+            Duration d = name.equals("jdk.GarbageCollection") ? e.getDuration("sumOfPauses") : e.getDuration();
+            table.computeIfAbsent(source.subsystem, k -> new TreeMap<>())
+                    .computeIfAbsent(source.key.apply(e), k -> new ArrayList<>())
+                    .add(d);
+
+            switch (name) {
+                case "hypnobot.Update", "hypnobot.Job" -> units.add(e);
+                case "hypnobot.TelegramCall", "hypnobot.DbStatement" ->
+                        nested.computeIfAbsent(threadId(e), k -> new ArrayList<>()).add(e);
+                default -> {}
+            }
+        }
+
+        if (table.isEmpty()) {
+            System.out.println("No HypnoBot, GC or contention events in " + args[0] + " (recorded with hypnobot.jfc?)");
+            return;
+        }
+
+        System.out.printf("%-11s %-72s %7s %9s %9s %9s %9s %10s%n",
+                "subsystem", "key", "count", "p50 ms", "p95 ms", "p99 ms", "max ms", "total ms");
+        table.forEach((subsystem, byKey) -> {
+            List<Duration> all = new ArrayList<>();
+            byKey.forEach((key, durations) -> {
+                all.addAll(durations);
+                if (byKey.size() > 1) row(subsystem, key, durations);
+            });
+            row(subsystem, byKey.size() > 1 ? "(all)" : byKey.keySet().iterator().next(), all);
+        });
+
+        units.sort(Comparator.comparing(RecordedEvent::getDuration, Comparator.reverseOrder()));
+        System.out.println();
+        System.out.println("Slowest updates and jobs (time inside them on the same thread):");
+        System.out.printf("%-24s %-8s %-40s %14s %9s %9s %9s %9s%n",
+                "start", "event", "what", "chat", "total ms", "tg ms", "db ms", "other ms");
+        for (RecordedEvent u : units.subList(0, Math.min(top, units.size()))) {
+            long telegram = 0;
+            long db = 0;
+            for (RecordedEvent n : nested.getOrDefault(threadId(u), List.of())) {
+                if (n.getStartTime().isBefore(u.getStartTime()) || n.getEndTime().isAfter(u.getEndTime())) continue;
+                if (n.getEventType().getName().equals("hypnobot.TelegramCall")) {
+                    telegram += n.getDuration().toNanos();
+                } else {
+                    db += n.getDuration().toNanos();
+                }
+            }
+            long total = u.getDuration().toNanos();
+            boolean update = u.getEventType().getName().equals("hypnobot.Update");
+            String what = update
+                    ? u.getString("kind") + " " + u.getString("data") + " " + u.getString("outcome")
+                    : u.getString("type") + " #" + u.getLong("attempt") + " " + u.getString("outcome");
+            System.out.printf("%-24s %-8s %-40s %14d %9s %9s %9s %9s%n",
+                    u.getStartTime().truncatedTo(ChronoUnit.MILLIS), update ? "update" : "job", what, u.getLong("chatId"),
+                    millis(total), millis(telegram), millis(db), millis(Math.max(0, total - telegram - db)));
+        }
+
+        Instant first = events.stream().map(RecordedEvent::getStartTime).min(Comparator.naturalOrder()).orElseThrow();
+        Instant last = events.stream().map(RecordedEvent::getEndTime).max(Comparator.naturalOrder()).orElseThrow();
+        System.out.println();
+        System.out.println(events.size() + " events, " + first + " .. " + last);
+    }
+
+    private static void row(String subsystem, String key, List<Duration> durations) {
+        long[] nanos = durations.stream().mapToLong(Duration::toNanos).sorted().toArray();
+        long total = 0;
+        for (long n : nanos) total += n;
+        System.out.printf("%-11s %-72s %7d %9s %9s %9s %9s %10s%n", subsystem, key, nanos.length,
+                millis(percentile(nanos, 0.50)), millis(percentile(nanos, 0.95)), millis(percentile(nanos, 0.99)),
+                millis(nanos[nanos.length - 1]), millis(total));
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        int i = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+
+    private static long threadId(RecordedEvent e) {
+        RecordedThread t = e.getThread();
+        return t != null ? t.getJavaThreadId() : -1;
+    }
+
+    private static String shorten(String sql) {
+        if (sql == null) return "?";
+        String s = sql.strip().replaceAll("\\s+", " ");
+        return s.length() <= SQL_WIDTH ? s : s.substring(0, SQL_WIDTH - 3) + "...";
+    }
+
+    private static int order(String subsystem) {
+        for (int i = 0; i < SOURCES.size(); i++) {
+            if (SOURCES.get(i).subsystem.equals(subsystem)) return i;
+        }
+        return SOURCES.size();
+    }
+}
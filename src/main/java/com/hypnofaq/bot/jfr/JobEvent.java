@@ -0,0 +1,39 @@
+package com.hypnofaq.bot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/** One attempt at a scheduled job: the handler plus the completion or reschedule write. */
+@Name("hypnobot.Job")
+@Label("Job")
+@Category({"HypnoBot", "Jobs"})
+@Description("One attempt at a scheduled job, including the write that completes or reschedules it")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class JobEvent extends Event {
+    @Label("Job Id")
+    public long jobId;
+
+    @Label("Chat Id")
+    public long chatId;
+
+    @Label("Type")
+    public String type;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Lag")
+    @Description("Start time minus run_at")
+    @Timespan(Timespan.MILLISECONDS)
+    public long lag;
+
+    @Label("Outcome")
+    public String outcome;
+}
@@ -0,0 +1,28 @@
+package com.hypnofaq.bot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** One HTTP attempt at a Bot API method, after rate limiting and the connection gate. */
+@Name("hypnobot.TelegramCall")
+@Label("Telegram Call")
+@Category({"HypnoBot", "Telegram"})
+@Description("One Bot API request; rate-limit and connection waits are not included")
+@Threshold("0 ms")
+@StackTrace(false)
+public final class TelegramCallEvent extends Event {
+    @Label("Method")
+    public String method;
+
+    @Label("Chat Id")
+    @Description("0 for calls that are not messages to a chat")
+    public long chatId;
+
+    @Label("Outcome")
+    public String outcome;
+}
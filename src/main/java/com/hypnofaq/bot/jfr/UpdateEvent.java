@@ -0,0 +1,34 @@
+package com.hypnofaq.bot.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/** Handling of one Telegram update on its dispatcher thread, Bot API calls and DB work included. */
+@Name("hypnobot.Update")
+@Label("Update")
+@Category({"HypnoBot", "Updates"})
+@Description("Handling of one Telegram update, from dequeue to the last Bot API call")
+@Threshold("10 ms")
+@StackTrace(false)
+public final class UpdateEvent extends Event {
+    @Label("Update Id")
+    public long updateId;
+
+    @Label("Chat Id")
+    public long chatId;
+
+    @Label("Kind")
+    public String kind;
+
+    @Label("Callback Data")
+    @Description("Button pressed, or the command for text messages")
+    public String data;
+
+    @Label("Outcome")
+    public String outcome;
+}
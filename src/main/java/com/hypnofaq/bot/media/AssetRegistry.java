@@ -0,0 +1,136 @@
+package com.hypnofaq.bot.media;
+
+import com.hypnofaq.bot.config.BotConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The configured media assets and their content fingerprints.
+ * <p>
+ * file_ids are cached under {@code <key>@<sha256>}, so replacing a file under /assets
+ * automatically stops the old file_id from being served. The SHA-256 is only recomputed
+ * when the file's size or mtime changes (or, while {@link AssetWarmer} watches the
+ * directories, when it reports a change). The plain {@code <key>} entry is kept as an
+ * alias of the last uploaded version for when the file is no longer on disk.
+ */
+public final class AssetRegistry {
+    private static final Logger log = LoggerFactory.getLogger(AssetRegistry.class);
+
+    // Logical keys (also the legacy file_cache keys)
+    public static final String PRACTICE_AUDIO = "practice_audio";
+    public static final String CHECKUP_PDF = "checkup_pdf";
+    public static final String CHECKUP_IMAGE = "checkup_image";
+    public static final String ANNA_IMAGE = "anna_image";
+
+    private static final class Fingerprint {
+        final long size;
+        final long mtime;
+        final String sha256;
+
+        Fingerprint(long size, long mtime, String sha256) {
+            this.size = size;
+            this.mtime = mtime;
+            this.sha256 = sha256;
+        }
+    }
+
+    private final Map<String, MediaAsset> assets = new LinkedHashMap<>();
+    private final ConcurrentHashMap<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    // set while a WatchService reports changes; then cached fingerprints are trusted without stat()
+    private volatile boolean watched;
+
+    public AssetRegistry(List<MediaAsset> assets) {
+        for (MediaAsset a : assets) {
+            this.assets.put(a.key, a);
+        }
+    }
+
+    public static AssetRegistry fromConfig(BotConfig config) {
+        return new AssetRegistry(List.of(
+                new MediaAsset(PRACTICE_AUDIO, MediaKind.AUDIO, config.practiceAudioPath),
+                new MediaAsset(CHECKUP_PDF, MediaKind.DOCUMENT, config.checkupPdfPath),
+                new MediaAsset(CHECKUP_IMAGE, MediaKind.PHOTO, config.checkupImagePath),
+                new MediaAsset(ANNA_IMAGE, MediaKind.PHOTO, config.annaImagePath)
+        ));
+    }
+
+    public MediaAsset get(String key) {
+        MediaAsset a = assets.get(key);
+        if (a == null) throw new IllegalArgumentException("Unknown asset: " + key);
+        return a;
+    }
+
+    public Collection<MediaAsset> all() {
+        return assets.values();
+    }
+
+    /**
+     * file_cache key for the current content of the asset, or empty if the file is not on disk.
+     */
+    public Optional<String> versionKey(MediaAsset asset) {
+        return fingerprint(asset).map(fp -> asset.key + "@" + fp.sha256);
+    }
+
+    /** Drops the cached fingerprint; the next lookup re-stats and, if needed, re-hashes the file. */
+    public void invalidate(MediaAsset asset) {
+        fingerprints.remove(asset.key);
+    }
+
+    void setWatched(boolean watched) {
+        this.watched = watched;
+    }
+
+    private Optional<Fingerprint> fingerprint(MediaAsset asset) {
+        Fingerprint cached = fingerprints.get(asset.key);
+        if (cached != null && watched) return Optional.of(cached);
+
+        if (asset.path == null) return Optional.empty();
+        Path p = Path.of(asset.path);
+        try {
+            if (!Files.isRegularFile(p)) {
+                fingerprints.remove(asset.key);
+                return Optional.empty();
+            }
+            long size = Files.size(p);
+            long mtime = Files.getLastModifiedTime(p).toMillis();
+            if (cached != null && cached.size == size && cached.mtime == mtime) {
+                return Optional.of(cached);
+            }
+
+            Fingerprint fp = new Fingerprint(size, mtime, sha256(p));
+            fingerprints.put(asset.key, fp);
+            if (cached != null && !cached.sha256.equals(fp.sha256)) {
+                log.info("Asset {} changed on disk, new sha256={}", asset.key, fp.sha256);
+            }
+            return Optional.of(fp);
+        } catch (Exception e) {
+            log.warn("Cannot fingerprint asset {}: {}", asset, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static String sha256(Path p) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(p)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+}
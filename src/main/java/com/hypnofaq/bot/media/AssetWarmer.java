@@ -0,0 +1,178 @@
+package com.hypnofaq.bot.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Message;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Uploads assets to a service chat so that no end user ever waits for an upload:
+ * once at startup for every asset without a file_id for its current content, and again
+ * whenever the WatchService reports that an asset file changed.
+ */
+public final class AssetWarmer {
+    private static final Logger log = LoggerFactory.getLogger(AssetWarmer.class);
+
+    // let the operator finish copying the file before we hash and upload it
+    private static final long DEBOUNCE_MILLIS = 1000;
+
+    private final AssetRegistry registry;
+    private final MediaSender media;
+    private final long serviceChatId;
+    private final ExecutorService pool;
+
+    private volatile WatchService watchService;
+    private Thread watchThread;
+
+    /**
+     * @param serviceChatId chat to upload into; 0 disables pre-warming (changed files are then
+     *                      re-uploaded lazily on the next send)
+     */
+    public AssetWarmer(AssetRegistry registry, MediaSender media, long serviceChatId, int parallelism) {
+        this.registry = registry;
+        this.media = media;
+        this.serviceChatId = serviceChatId;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "asset-warmer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Uploads all assets missing a file_id, in parallel, and waits for them. */
+    public void warmAll() {
+        if (serviceChatId == 0) return;
+        List<Future<?>> futures = new ArrayList<>();
+        for (MediaAsset a : registry.all()) {
+            futures.add(pool.submit(() -> warm(a)));
+        }
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (Exception ignored) {
+                // logged in warm()
+            }
+        }
+    }
+
+    public void warmAllAsync() {
+        Thread t = new Thread(this::warmAll, "asset-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Watches the asset directories and re-fingerprints (and re-warms) changed files. */
+    public void startWatching() {
+        Set<Path> dirs = new HashSet<>();
+        for (MediaAsset a : registry.all()) {
+            if (a.path == null) continue;
+            Path dir = Path.of(a.path).toAbsolutePath().getParent();
+            if (dir != null && dir.toFile().isDirectory()) dirs.add(dir);
+        }
+        if (dirs.isEmpty()) return;
+
+        try {
+            WatchService ws = FileSystems.getDefault().newWatchService();
+            for (Path d : dirs) {
+                d.register(ws,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+            this.watchService = ws;
+        } catch (Exception e) {
+            log.warn("Asset watcher not started: {}", e.getMessage());
+            return;
+        }
+
+        registry.setWatched(true);
+        watchThread = new Thread(this::watchLoop, "asset-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("Watching asset directories: {}", dirs);
+    }
+
+    public void stop() {
+        registry.setWatched(false);
+        WatchService ws = watchService;
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (Exception ignored) {}
+        }
+        if (watchThread != null) watchThread.interrupt();
+        pool.shutdownNow();
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<MediaAsset> changed = new HashSet<>();
+                collect(key, changed);
+
+                // debounce: swallow the burst of events a single copy produces
+                Thread.sleep(DEBOUNCE_MILLIS);
+                WatchKey more;
+                while ((more = watchService.poll()) != null) {
+                    collect(more, changed);
+                }
+
+                for (MediaAsset a : changed) {
+                    log.info("Asset file changed: {}", a);
+                    registry.invalidate(a);
+                    if (serviceChatId != 0) pool.submit(() -> warm(a));
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutdown
+        }
+        registry.setWatched(false);
+    }
+
+    private void collect(WatchKey key, Set<MediaAsset> changed) {
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed.addAll(registry.all());
+                continue;
+            }
+            Path file = dir.resolve((Path) ev.context()).toAbsolutePath().normalize();
+            for (MediaAsset a : registry.all()) {
+                if (a.path != null && Path.of(a.path).toAbsolutePath().normalize().equals(file)) {
+                    changed.add(a);
+                }
+            }
+        }
+        key.reset();
+    }
+
+    private void warm(MediaAsset asset) {
+        long t0 = System.nanoTime();
+        try {
+            Message m = media.warmUp(serviceChatId, asset);
+            if (m == null) return;
+            log.info("Pre-uploaded asset {} in {} ms", asset.key, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+            try {
+                media.delete(serviceChatId, m.getMessageId());
+            } catch (Exception ignored) {}
+        } catch (Exception e) {
+            log.warn("Pre-upload of asset {} failed: {}", asset.key, e.getMessage());
+        }
+    }
+}
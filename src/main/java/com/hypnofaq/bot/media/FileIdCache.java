@@ -0,0 +1,41 @@
+package com.hypnofaq.bot.media;
+
+import com.hypnofaq.bot.store.FileIdStore;
+
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory front for {@link FileIdStore}. There are only a handful of assets, so every
+ * key (including "not uploaded yet") is kept forever and each key costs at most one
+ * SELECT per process lifetime.
+ */
+public final class FileIdCache {
+    private static final String MISSING = "";
+
+    private final FileIdStore dao;
+    private final ConcurrentHashMap<String, String> ids = new ConcurrentHashMap<>();
+
+    public FileIdCache(FileIdStore dao) {
+        this.dao = dao;
+    }
+
+    public Optional<String> get(String key) {
+        String id = ids.computeIfAbsent(key, k -> dao.getFileId(k).orElse(MISSING));
+        return id.isEmpty() ? Optional.empty() : Optional.of(id);
+    }
+
+    public void put(String key, String fileId) {
+        if (key == null || fileId == null || fileId.isBlank()) return;
+        String prev = ids.put(key, fileId);
+        if (!fileId.equals(prev)) {
+            dao.upsertFileIdAsync(key, fileId);
+        }
+    }
+
+    /** Forgets a file_id Telegram no longer accepts. */
+    public void invalidate(String key) {
+        ids.put(key, MISSING);
+        dao.deleteFileIdAsync(key);
+    }
+}
@@ -0,0 +1,22 @@
+package com.hypnofaq.bot.media;
+
+/**
+ * A file the bot sends repeatedly (practice audio, check-up PDF, step images).
+ * {@code key} is the file_cache key its Telegram file_id is stored under.
+ */
+public final class MediaAsset {
+    public final String key;
+    public final MediaKind kind;
+    public final String path;
+
+    public MediaAsset(String key, MediaKind kind, String path) {
+        this.key = key;
+        this.kind = kind;
+        this.path = path;
+    }
+
+    @Override
+    public String toString() {
+        return key + " (" + kind + ", " + path + ")";
+    }
+}
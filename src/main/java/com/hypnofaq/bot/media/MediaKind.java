@@ -0,0 +1,12 @@
+package com.hypnofaq.bot.media;
+
+/**
+ * How an asset is sent to Telegram (which Send* method and which field of the
+ * returned Message carries the file_id).
+ */
+public enum MediaKind {
+    PHOTO,
+    AUDIO,
+    DOCUMENT,
+    VIDEO
+}
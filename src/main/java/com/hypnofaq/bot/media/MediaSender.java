@@ -0,0 +1,191 @@
+package com.hypnofaq.bot.media;
+
+import com.hypnofaq.bot.telegram.SendGateway;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.send.SendAudio;
+import org.telegram.telegrambots.meta.api.methods.send.SendDocument;
+import org.telegram.telegrambots.meta.api.methods.send.SendPhoto;
+import org.telegram.telegrambots.meta.api.methods.send.SendVideo;
+import org.telegram.telegrambots.meta.api.methods.updatingmessages.DeleteMessage;
+import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.PhotoSize;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.bots.AbsSender;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.File;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Sends {@link MediaAsset}s by cached Telegram file_id, uploading the file only when no
+ * file_id is known for its current content (or Telegram rejected the cached one), and
+ * remembers the file_id returned by the upload.
+ */
+public final class MediaSender {
+    private static final Logger log = LoggerFactory.getLogger(MediaSender.class);
+
+    private final AbsSender sender;
+    private final SendGateway gateway;
+    private final FileIdCache fileIds;
+    private final AssetRegistry registry;
+
+    public MediaSender(AbsSender sender, SendGateway gateway, FileIdCache fileIds, AssetRegistry registry) {
+        this.sender = sender;
+        this.gateway = gateway;
+        this.fileIds = fileIds;
+        this.registry = registry;
+    }
+
+    /**
+     * @return the sent message, or empty if there is neither a cached file_id nor a file on disk
+     */
+    public Optional<Message> send(long chatId, MediaAsset asset, String caption, String parseMode, InlineKeyboardMarkup kb)
+            throws TelegramApiException {
+        // File on disk: use the file_id of exactly this content. File gone: last uploaded version.
+        Optional<String> versionKey = registry.versionKey(asset);
+        String key = versionKey.orElse(asset.key);
+
+        Optional<String> cached = fileIds.get(key);
+        if (cached.isPresent()) {
+            try {
+                return Optional.ofNullable(execute(chatId, asset.kind, new InputFile(cached.get()), caption, parseMode, kb));
+            } catch (TelegramApiRequestException e) {
+                // only a 400 about the file_id itself: a bad caption or a missing chat would fail the upload too
+                if (!isFileIdRejected(e) || versionKey.isEmpty()) throw e;
+                log.warn("Cached file_id for {} rejected ({}), re-uploading", key, e.getMessage());
+                fileIds.invalidate(key);
+            }
+        }
+
+        if (versionKey.isEmpty()) return Optional.empty();
+        return Optional.ofNullable(upload(chatId, asset, versionKey.get(), caption, parseMode, kb));
+    }
+
+    /** 400 "wrong file identifier", "wrong remote file identifier", "file reference expired", ... */
+    static boolean isFileIdRejected(TelegramApiRequestException e) {
+        if (e.getErrorCode() == null || e.getErrorCode() != 400) return false;
+        String description = e.getApiResponse() != null ? e.getApiResponse() : e.getMessage();
+        if (description == null) return false;
+        description = description.toLowerCase(Locale.ROOT);
+        return description.contains("file identifier")
+                || description.contains("file reference")
+                || description.contains("wrong remote file");
+    }
+
+    /**
+     * Uploads the asset if no file_id is cached for its current content.
+     *
+     * @return the message that carried the upload, or null if nothing was uploaded
+     */
+    public Message warmUp(long chatId, MediaAsset asset) throws TelegramApiException {
+        Optional<String> versionKey = registry.versionKey(asset);
+        if (versionKey.isEmpty() || fileIds.get(versionKey.get()).isPresent()) return null;
+        return upload(chatId, asset, versionKey.get(), null, null, null);
+    }
+
+    void delete(long chatId, int messageId) throws TelegramApiException {
+        DeleteMessage dm = new DeleteMessage();
+        dm.setChatId(String.valueOf(chatId));
+        dm.setMessageId(messageId);
+        gateway.call("deleteMessage", () -> sender.execute(dm));
+    }
+
+    private Message upload(long chatId, MediaAsset asset, String versionKey, String caption, String parseMode,
+                           InlineKeyboardMarkup kb) throws TelegramApiException {
+        Message sent = execute(chatId, asset.kind, new InputFile(new File(asset.path)), caption, parseMode, kb);
+        String fileId = extractFileId(asset.kind, sent);
+        if (fileId != null) {
+            fileIds.put(versionKey, fileId);
+            fileIds.put(asset.key, fileId);
+        } else if (sent != null) {
+            log.warn("Upload of {} came back without a {} file_id; not caching it", asset.key,
+                    asset.kind.name().toLowerCase(Locale.ROOT));
+        }
+        return sent;
+    }
+
+    private Message execute(long chatId, MediaKind kind, InputFile file, String caption, String parseMode,
+                            InlineKeyboardMarkup kb) throws TelegramApiException {
+        String chat = String.valueOf(chatId);
+        switch (kind) {
+            case PHOTO -> {
+                SendPhoto m = new SendPhoto();
+                m.setChatId(chat);
+                m.setPhoto(file);
+                m.setCaption(caption);
+                if (parseMode != null) m.setParseMode(parseMode);
+                if (kb != null) m.setReplyMarkup(kb);
+                return gateway.send(chatId, "sendPhoto", () -> sender.execute(m));
+            }
+            case AUDIO -> {
+                SendAudio m = new SendAudio();
+                m.setChatId(chat);
+                m.setAudio(file);
+                m.setCaption(caption);
+                if (parseMode != null) m.setParseMode(parseMode);
+                if (kb != null) m.setReplyMarkup(kb);
+                return gateway.send(chatId, "sendAudio", () -> sender.execute(m));
+            }
+            case DOCUMENT -> {
+                SendDocument m = new SendDocument();
+                m.setChatId(chat);
+                m.setDocument(file);
+                m.setCaption(caption);
+                if (parseMode != null) m.setParseMode(parseMode);
+                if (kb != null) m.setReplyMarkup(kb);
+                return gateway.send(chatId, "sendDocument", () -> sender.execute(m));
+            }
+            case VIDEO -> {
+                SendVideo m = new SendVideo();
+                m.setChatId(chat);
+                m.setVideo(file);
+                m.setCaption(caption);
+                if (parseMode != null) m.setParseMode(parseMode);
+                if (kb != null) m.setReplyMarkup(kb);
+                return gateway.send(chatId, "sendVideo", () -> sender.execute(m));
+            }
+            default -> throw new IllegalArgumentException("Unsupported media kind: " + kind);
+        }
+    }
+
+    static String extractFileId(MediaKind kind, Message m) {
+        if (m == null) return null;
+        switch (kind) {
+            case PHOTO -> {
+                List<PhotoSize> sizes = m.getPhoto();
+                if (sizes == null || sizes.isEmpty()) return null;
+                // sending the largest size back makes Telegram reuse all generated sizes
+                PhotoSize largest = sizes.get(0);
+                for (PhotoSize p : sizes) {
+                    if (area(p) > area(largest)) largest = p;
+                }
+                return largest.getFileId();
+            }
+            case AUDIO -> {
+                // Telegram may store non-mp3 audio (e.g. m4a) as a document; sendAudio would
+                // reject that file_id on every send, so only an audio one is worth keeping
+                return m.getAudio() != null ? m.getAudio().getFileId() : null;
+            }
+            case DOCUMENT -> {
+                return m.getDocument() != null ? m.getDocument().getFileId() : null;
+            }
+            case VIDEO -> {
+                return m.getVideo() != null ? m.getVideo().getFileId() : null;
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static long area(PhotoSize p) {
+        Integer w = p.getWidth();
+        Integer h = p.getHeight();
+        return (long) (w == null ? 0 : w) * (h == null ? 0 : h);
+    }
+}
@@ -0,0 +1,49 @@
+package com.hypnofaq.bot.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Monotonic counter with labels. Label values should come from small fixed sets
+ * (method names, enum constants), never from user input.
+ */
+public final class Counter implements Metrics.Family {
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final Map<List<String>, LongAdder> children = new ConcurrentHashMap<>();
+
+    Counter(String name, String help, String[] labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+    }
+
+    public void inc(String... labelValues) {
+        add(1, labelValues);
+    }
+
+    public void add(long n, String... labelValues) {
+        if (labelValues.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " expects labels " + Arrays.toString(labelNames));
+        }
+        children.computeIfAbsent(List.of(labelValues), k -> new LongAdder()).add(n);
+    }
+
+    @Override
+    public void render(StringBuilder out) {
+        Metrics.header(out, name, help, "counter");
+        children.forEach((labels, value) -> {
+            out.append(name);
+            if (labelNames.length > 0) {
+                out.append('{');
+                Metrics.labels(out, labelNames, labels.toArray(String[]::new));
+                out.append('}');
+            }
+            out.append(' ').append(value.sum()).append('\n');
+        });
+    }
+}
@@ -0,0 +1,100 @@
+package com.hypnofaq.bot.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations with labels: fixed upper bounds in seconds, a count per bucket,
+ * the sum and the total count. Observations are in nanoseconds.
+ */
+public final class Histogram implements Metrics.Family {
+    /** 1 ms .. 60 s: DAO calls, Bot API calls, update and job handling. */
+    public static final double[] LATENCY_BUCKETS =
+            {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+    /** 100 ms .. 6 h: how late a scheduled job starts. */
+    public static final double[] LAG_BUCKETS =
+            {0.1, 0.5, 1, 5, 15, 60, 300, 900, 1800, 3600, 10800, 21600};
+
+    private final String name;
+    private final String help;
+    private final String[] labelNames;
+    private final long[] boundsNanos;
+    private final String[] boundLabels;
+    private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    Histogram(String name, String help, double[] buckets, String[] labelNames) {
+        this.name = name;
+        this.help = help;
+        this.labelNames = labelNames;
+        this.boundsNanos = new long[buckets.length];
+        this.boundLabels = new String[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            boundsNanos[i] = (long) (buckets[i] * 1e9);
+            boundLabels[i] = Metrics.format(buckets[i]);
+        }
+    }
+
+    public void observeNanos(long nanos, String... labelValues) {
+        if (labelValues.length != labelNames.length) {
+            throw new IllegalArgumentException(name + " expects labels " + Arrays.toString(labelNames));
+        }
+        children.computeIfAbsent(List.of(labelValues), k -> new Child(boundsNanos.length)).observe(nanos, boundsNanos);
+    }
+
+    /** Observes the time elapsed since {@code startNanos} (a {@link System#nanoTime()} reading). */
+    public void observeSince(long startNanos, String... labelValues) {
+        observeNanos(System.nanoTime() - startNanos, labelValues);
+    }
+
+    @Override
+    public void render(StringBuilder out) {
+        Metrics.header(out, name, help, "histogram");
+        children.forEach((labels, child) -> {
+            String[] values = labels.toArray(String[]::new);
+            long cumulative = 0;
+            for (int i = 0; i <= boundsNanos.length; i++) {
+                cumulative += child.buckets[i].sum();
+                out.append(name).append("_bucket{");
+                if (labelNames.length > 0) {
+                    Metrics.labels(out, labelNames, values);
+                    out.append(',');
+                }
+                out.append("le=\"").append(i < boundsNanos.length ? boundLabels[i] : "+Inf").append("\"} ")
+                        .append(cumulative).append('\n');
+            }
+            sample(out, "_sum", values).append(Metrics.format(child.sumNanos.sum() / 1e9)).append('\n');
+            sample(out, "_count", values).append(cumulative).append('\n');
+        });
+    }
+
+    private StringBuilder sample(StringBuilder out, String suffix, String[] values) {
+        out.append(name).append(suffix);
+        if (labelNames.length > 0) {
+            out.append('{');
+            Metrics.labels(out, labelNames, values);
+            out.append('}');
+        }
+        return out.append(' ');
+    }
+
+    private static final class Child {
+        /** Per bucket, not cumulative; the last one is +Inf. */
+        final LongAdder[] buckets;
+        final LongAdder sumNanos = new LongAdder();
+
+        Child(int bounds) {
+            buckets = new LongAdder[bounds + 1];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(long nanos, long[] bounds) {
+            int i = Arrays.binarySearch(bounds, nanos);
+            if (i < 0) i = -i - 1;
+            buckets[i].increment();
+            sumNanos.add(nanos);
+        }
+    }
+}
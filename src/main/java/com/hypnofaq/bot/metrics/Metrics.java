@@ -0,0 +1,95 @@
+package com.hypnofaq.bot.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of counters, histograms and gauges, rendered in the Prometheus text
+ * exposition format by {@link MetricsServer}. Instruments are created once, in static fields
+ * of the classes that update them; recording is lock-free.
+ */
+public final class Metrics {
+    private Metrics() {}
+
+    /** A metric family: knows how to write itself in the text format. */
+    interface Family {
+        void render(StringBuilder out);
+    }
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public static Counter counter(String name, String help, String... labelNames) {
+        return (Counter) families.computeIfAbsent(name, n -> new Counter(n, help, labelNames));
+    }
+
+    /** Latency histogram with {@link Histogram#LATENCY_BUCKETS}. */
+    public static Histogram histogram(String name, String help, String... labelNames) {
+        return histogram(name, help, Histogram.LATENCY_BUCKETS, labelNames);
+    }
+
+    public static Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+        return (Histogram) families.computeIfAbsent(name, n -> new Histogram(n, help, buckets, labelNames));
+    }
+
+    /**
+     * A gauge read at scrape time. Registering the same name again replaces the supplier,
+     * so a restarted component reports its own state.
+     */
+    public static void gauge(String name, String help, Supplier<Number> value) {
+        families.put(name, out -> {
+            Number v = value.get();
+            header(out, name, help, "gauge");
+            out.append(name).append(' ').append(format(v.doubleValue())).append('\n');
+        });
+    }
+
+    /** Like {@link #gauge(String, String, Supplier)}, one sample per value of {@code labelName}. */
+    public static void gauge(String name, String help, String labelName, Supplier<Map<String, ? extends Number>> values) {
+        families.put(name, out -> {
+            Map<String, ? extends Number> v = values.get();
+            header(out, name, help, "gauge");
+            for (Map.Entry<String, ? extends Number> e : v.entrySet()) {
+                out.append(name).append('{').append(labelName).append("=\"").append(escape(e.getKey())).append("\"} ")
+                        .append(format(e.getValue().doubleValue())).append('\n');
+            }
+        });
+    }
+
+    /** All metrics in the Prometheus text format (version 0.0.4). A failing gauge is skipped. */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family f : families.values()) {
+            int mark = out.length();
+            try {
+                f.render(out);
+            } catch (RuntimeException e) {
+                out.setLength(mark);
+            }
+        }
+        return out.toString();
+    }
+
+    static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /** {@code k1="v1",k2="v2"} without braces. */
+    static void labels(StringBuilder out, String[] names, String[] values) {
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) out.append(',');
+            out.append(names[i]).append("=\"").append(escape(values[i])).append('"');
+        }
+    }
+
+    static String escape(String v) {
+        if (v.indexOf('\\') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0) return v;
+        return v.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String format(double v) {
+        if (v == Math.rint(v) && !Double.isInfinite(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+}
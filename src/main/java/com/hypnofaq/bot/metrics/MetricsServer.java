@@ -0,0 +1,94 @@
+package com.hypnofaq.bot.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Serves {@link Metrics#scrape()} at {@code GET /metrics} for Prometheus, plus any other
+ * read-only reports registered with {@link #serve}. Binds to localhost unless told
+ * otherwise: the numbers are not secret, but nothing else needs them.
+ */
+public final class MetricsServer {
+    private static final Logger log = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    public MetricsServer(String host, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        serve("/metrics", CONTENT_TYPE, query -> Metrics.scrape());
+        // gauges query the database, so keep scrapes off the selector thread
+        this.server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    /** Answers {@code GET path} with {@code body} applied to the query parameters. */
+    public void serve(String path, String contentType, Function<Map<String, String>, String> body) {
+        server.createContext(path, ex -> handle(ex, contentType, body));
+    }
+
+    public void start() {
+        server.start();
+        InetSocketAddress addr = server.getAddress();
+        log.info("Metrics at http://{}:{}/metrics", addr.getHostString(), addr.getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange ex, String contentType, Function<Map<String, String>, String> render) throws IOException {
+        try {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body;
+            try {
+                body = render.apply(query(ex.getRequestURI().getRawQuery())).getBytes(StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                ex.sendResponseHeaders(400, -1);
+                return;
+            } catch (RuntimeException e) {
+                log.warn("{} failed: {}", ex.getRequestURI().getPath(), e.getMessage());
+                ex.sendResponseHeaders(500, -1);
+                return;
+            }
+            ex.getResponseHeaders().set("Content-Type", contentType);
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
@@ -0,0 +1,83 @@
+package com.hypnofaq.bot.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Who a broadcast goes to: users matching every filter that is set (null = any).
+ * Written as space-separated terms, e.g. {@code stage=READY subscribed start=promo};
+ * {@code all} or nothing means everyone.
+ */
+public final class Audience {
+    public static final Audience ALL = new Audience(null, null, null);
+
+    public final UserStage stage;
+    public final Boolean subscribed;
+    public final String startParam;
+
+    public Audience(UserStage stage, Boolean subscribed, String startParam) {
+        this.stage = stage;
+        this.subscribed = subscribed;
+        this.startParam = startParam;
+    }
+
+    public boolean matches(User u) {
+        return (stage == null || u.stage == stage)
+                && (subscribed == null || u.subscribed == subscribed)
+                && (startParam == null || startParam.equals(u.startParam));
+    }
+
+    /**
+     * Parses {@code all}, {@code stage=<UserStage>}, {@code subscribed[=yes|no]} and
+     * {@code start=<start_param>} terms.
+     *
+     * @throws IllegalArgumentException on an unknown term or value
+     */
+    public static Audience parse(String spec) {
+        UserStage stage = null;
+        Boolean subscribed = null;
+        String startParam = null;
+        for (String term : spec.trim().split("\\s+")) {
+            if (term.isEmpty() || term.equalsIgnoreCase("all")) continue;
+            int eq = term.indexOf('=');
+            String key = (eq < 0 ? term : term.substring(0, eq)).toLowerCase(Locale.ROOT);
+            String value = eq < 0 ? null : term.substring(eq + 1);
+            switch (key) {
+                case "stage" -> {
+                    try {
+                        stage = UserStage.valueOf(String.valueOf(value).toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("Unknown stage: " + value);
+                    }
+                }
+                case "subscribed" -> subscribed = parseYesNo(value);
+                case "start" -> {
+                    startParam = value == null || value.isBlank() ? null : value;
+                    if (startParam == null) throw new IllegalArgumentException("start= needs a value");
+                }
+                default -> throw new IllegalArgumentException("Unknown filter: " + term);
+            }
+        }
+        return new Audience(stage, subscribed, startParam);
+    }
+
+    private static Boolean parseYesNo(String value) {
+        if (value == null) return true;
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case "yes", "true", "1" -> true;
+            case "no", "false", "0" -> false;
+            default -> throw new IllegalArgumentException("subscribed= expects yes or no: " + value);
+        };
+    }
+
+    /** The canonical spec, which {@link #parse} reads back. */
+    @Override
+    public String toString() {
+        List<String> terms = new ArrayList<>();
+        if (stage != null) terms.add("stage=" + stage.name());
+        if (subscribed != null) terms.add(subscribed ? "subscribed" : "subscribed=no");
+        if (startParam != null) terms.add("start=" + startParam);
+        return terms.isEmpty() ? "all" : String.join(" ", terms);
+    }
+}
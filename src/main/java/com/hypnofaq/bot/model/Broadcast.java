@@ -0,0 +1,57 @@
+package com.hypnofaq.bot.model;
+
+/**
+ * One announcement to an {@link Audience}. {@code cursor} is the highest tg_id whose message
+ * is settled (sent, blocked or failed for good); recipients are walked in tg_id order, so a
+ * resumed broadcast continues right after it.
+ */
+public final class Broadcast {
+    public final long id;
+    /** Telegram HTML. */
+    public final String text;
+    public final Audience audience;
+    public final BroadcastStatus status;
+    /** Matching users when the broadcast was created; users who arrive later are included too. */
+    public final long total;
+    public final long cursor;
+    public final long sent;
+    /** The user blocked the bot or deleted the account (403). */
+    public final long blocked;
+    public final long failed;
+    public final long createdBy;
+    public final long createdAt;
+    public final long updatedAt;
+    public final Long finishedAt;
+
+    public Broadcast(long id, String text, Audience audience, BroadcastStatus status, long total, long cursor,
+                     long sent, long blocked, long failed, long createdBy, long createdAt, long updatedAt,
+                     Long finishedAt) {
+        this.id = id;
+        this.text = text;
+        this.audience = audience;
+        this.status = status;
+        this.total = total;
+        this.cursor = cursor;
+        this.sent = sent;
+        this.blocked = blocked;
+        this.failed = failed;
+        this.createdBy = createdBy;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.finishedAt = finishedAt;
+    }
+
+    public long processed() {
+        return sent + blocked + failed;
+    }
+
+    public Broadcast withStatus(BroadcastStatus status, long now) {
+        return new Broadcast(id, text, audience, status, total, cursor, sent, blocked, failed, createdBy,
+                createdAt, now, status.isFinished() ? Long.valueOf(now) : finishedAt);
+    }
+
+    public Broadcast withProgress(long cursor, long sent, long blocked, long failed, long now) {
+        return new Broadcast(id, text, audience, status, total, cursor, sent, blocked, failed, createdBy,
+                createdAt, now, finishedAt);
+    }
+}
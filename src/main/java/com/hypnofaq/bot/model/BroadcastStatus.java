@@ -0,0 +1,15 @@
+package com.hypnofaq.bot.model;
+
+public enum BroadcastStatus {
+    /** Created and previewed, waiting for an admin to start it. */
+    DRAFT,
+    /** Being sent, or waiting for the broadcaster (also across restarts). */
+    RUNNING,
+    PAUSED,
+    DONE,
+    CANCELLED;
+
+    public boolean isFinished() {
+        return this == DONE || this == CANCELLED;
+    }
+}
@@ -0,0 +1,53 @@
+package com.hypnofaq.bot.model;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Funnel counters as maintained by the store on every stage change: where users are now and,
+ * per UTC day, how many reached each stage. Reading them never touches the users table.
+ */
+public final class FunnelStats {
+    /** Day counter for the "choose time" button, which is a flag rather than a stage. */
+    public static final String CHOOSE_TIME_CLICKED = "CHOOSE_TIME_CLICKED";
+
+    /** Users at each stage right now; every stage has an entry. */
+    public final Map<UserStage, Long> stages;
+    public final long users;
+    /** Users who have pressed "choose time", ever. */
+    public final long chooseTimeClicked;
+    /**
+     * Oldest day first, every day of the requested window present: stage name (or
+     * {@link #CHOOSE_TIME_CLICKED}) to the number of users who reached it that day.
+     */
+    public final SortedMap<LocalDate, Map<String, Long>> days;
+
+    public FunnelStats(Map<UserStage, Long> stages, long chooseTimeClicked, SortedMap<LocalDate, Map<String, Long>> days) {
+        EnumMap<UserStage, Long> all = new EnumMap<>(UserStage.class);
+        long total = 0;
+        for (UserStage s : UserStage.values()) {
+            long n = stages.getOrDefault(s, 0L);
+            all.put(s, n);
+            total += n;
+        }
+        this.stages = Collections.unmodifiableMap(all);
+        this.users = total;
+        this.chooseTimeClicked = chooseTimeClicked;
+        this.days = Collections.unmodifiableSortedMap(days);
+    }
+
+    /** Users who reached {@code event} on any day of the window. */
+    public long reached(String event) {
+        long n = 0;
+        for (Map<String, Long> day : days.values()) n += day.getOrDefault(event, 0L);
+        return n;
+    }
+
+    /** Users who reached {@code event} on the last day of the window. */
+    public long reachedOnLastDay(String event) {
+        return days.isEmpty() ? 0 : days.get(days.lastKey()).getOrDefault(event, 0L);
+    }
+}
@@ -0,0 +1,48 @@
+package com.hypnofaq.bot.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a finished job changes besides its own status: the user's new stage and the next
+ * jobs of the funnel. The store applies it together with marking the job DONE.
+ */
+public final class JobResult {
+    public static final JobResult NONE = new JobResult(null, List.of());
+
+    /** New stage of the job's user, or null to leave it as is. */
+    public final UserStage stage;
+    public final List<FollowUp> followUps;
+
+    private JobResult(UserStage stage, List<FollowUp> followUps) {
+        this.stage = stage;
+        this.followUps = followUps;
+    }
+
+    public static JobResult stage(UserStage stage) {
+        return new JobResult(stage, List.of());
+    }
+
+    /** Adds a job for the same user; like scheduleOnce, it is skipped if one of this type exists. */
+    public JobResult then(JobType type, long runAtMillis, String payload) {
+        List<FollowUp> next = new ArrayList<>(followUps);
+        next.add(new FollowUp(type, runAtMillis, payload));
+        return new JobResult(stage, List.copyOf(next));
+    }
+
+    public boolean isEmpty() {
+        return stage == null && followUps.isEmpty();
+    }
+
+    public static final class FollowUp {
+        public final JobType type;
+        public final long runAtMillis;
+        public final String payload;
+
+        public FollowUp(JobType type, long runAtMillis, String payload) {
+            this.type = type;
+            this.runAtMillis = runAtMillis;
+            this.payload = payload;
+        }
+    }
+}
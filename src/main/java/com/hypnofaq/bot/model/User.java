@@ -26,4 +26,28 @@ public final class User {
         this.chooseTimeClicked = chooseTimeClicked;
         this.startParam = startParam;
     }
-}
\ No newline at end of file
+
+    public User withStage(UserStage stage) {
+        return new User(tgId, stage, subscribed, practiceSentAt, checkupSentAt, chooseTimeClicked, startParam);
+    }
+
+    public User withSubscribed(boolean subscribed) {
+        return new User(tgId, stage, subscribed, practiceSentAt, checkupSentAt, chooseTimeClicked, startParam);
+    }
+
+    public User withStartParam(String startParam) {
+        return new User(tgId, stage, subscribed, practiceSentAt, checkupSentAt, chooseTimeClicked, startParam);
+    }
+
+    public User withPracticeSent(long at) {
+        return new User(tgId, UserStage.PRACTICE_SENT, subscribed, at, checkupSentAt, chooseTimeClicked, startParam);
+    }
+
+    public User withCheckupSent(long at) {
+        return new User(tgId, UserStage.CHECKUP_SENT, subscribed, practiceSentAt, at, chooseTimeClicked, startParam);
+    }
+
+    public User withChooseTimeClicked() {
+        return new User(tgId, stage, subscribed, practiceSentAt, checkupSentAt, true, startParam);
+    }
+}
@@ -0,0 +1,86 @@
+package com.hypnofaq.bot.scheduler;
+
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobType;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with jitter: attempt n waits a random time between half and all of
+ * {@code min(max, base * 2^(n-1))}, so jobs that failed together (a Telegram outage) don't
+ * come back together. A 429 waits out {@code retry_after} first. 400/403 are never retried.
+ * Limits can be overridden per {@link JobType}.
+ */
+public final class BackoffRetryPolicy implements RetryPolicy {
+
+    public static final class Settings {
+        public final int maxAttempts;
+        public final long baseMillis;
+        public final long maxMillis;
+
+        public Settings(int maxAttempts, long baseMillis, long maxMillis) {
+            this.maxAttempts = Math.max(1, maxAttempts);
+            this.baseMillis = Math.max(1, baseMillis);
+            this.maxMillis = Math.max(this.baseMillis, maxMillis);
+        }
+
+        @Override
+        public String toString() {
+            return "maxAttempts=" + maxAttempts + ", base=" + baseMillis + "ms, max=" + maxMillis + "ms";
+        }
+    }
+
+    private final Settings defaults;
+    private final Map<JobType, Settings> overrides;
+
+    public BackoffRetryPolicy(Settings defaults, Map<JobType, Settings> overrides) {
+        this.defaults = defaults;
+        this.overrides = overrides.isEmpty() ? Map.of() : new EnumMap<>(overrides);
+    }
+
+    @Override
+    public long nextAttemptAt(Job job, int attempts, FailureKind kind, Throwable error, long nowMillis) {
+        Settings s = overrides.getOrDefault(job.type, defaults);
+        if (!kind.retryable || attempts >= s.maxAttempts) return GIVE_UP;
+
+        long delay = backoff(s, attempts);
+        if (kind == FailureKind.RATE_LIMITED) {
+            delay = FailureKind.retryAfterSeconds(error) * 1000L + delay / 2;
+        }
+        return nowMillis + delay;
+    }
+
+    static long backoff(Settings s, int attempts) {
+        int shift = Math.min(Math.max(0, attempts - 1), 30);
+        long exp = Math.min(s.maxMillis, s.baseMillis << shift);
+        long half = exp / 2;
+        return half + ThreadLocalRandom.current().nextLong(exp - half + 1);
+    }
+
+    /**
+     * Parses {@code TYPE=maxAttempts:baseSeconds:maxSeconds[,TYPE=...]},
+     * e.g. {@code SEND_FINAL_PUSH=3:10:600}.
+     */
+    public static Map<JobType, Settings> parseOverrides(String spec) {
+        Map<JobType, Settings> out = new EnumMap<>(JobType.class);
+        if (spec == null || spec.isBlank()) return out;
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) continue;
+            try {
+                String[] kv = entry.split("=", 2);
+                JobType type = JobType.valueOf(kv[0].trim().toUpperCase(Locale.ROOT));
+                String[] p = kv[1].split(":");
+                out.put(type, new Settings(
+                        Integer.parseInt(p[0].trim()),
+                        Long.parseLong(p[1].trim()) * 1000L,
+                        Long.parseLong(p[2].trim()) * 1000L));
+            } catch (Exception e) {
+                throw new IllegalStateException("Invalid JOB_RETRY_OVERRIDES entry: " + entry, e);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,57 @@
+package com.hypnofaq.bot.scheduler;
+
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.io.IOException;
+
+/**
+ * Why a job failed, derived from the exception type and Telegram's error code rather than
+ * from the message text.
+ */
+public enum FailureKind {
+    /** 400: the request itself is wrong (chat not found, message to reply not found, ...). */
+    BAD_REQUEST(false),
+    /** 403: the user blocked the bot or deleted the account. */
+    FORBIDDEN(false),
+    /** 429: flood control, comes with retry_after. */
+    RATE_LIMITED(true),
+    /** 5xx from Telegram. */
+    SERVER_ERROR(true),
+    /** The request never got an answer: timeouts, connection resets, DNS. */
+    NETWORK(true),
+    UNKNOWN(true);
+
+    public final boolean retryable;
+
+    FailureKind(boolean retryable) {
+        this.retryable = retryable;
+    }
+
+    public static FailureKind classify(Throwable error) {
+        TelegramApiRequestException api = find(error, TelegramApiRequestException.class);
+        if (api != null && api.getErrorCode() != null) {
+            int code = api.getErrorCode();
+            if (code == 400) return BAD_REQUEST;
+            if (code == 403) return FORBIDDEN;
+            if (code == 429) return RATE_LIMITED;
+            if (code >= 500) return SERVER_ERROR;
+        }
+        if (find(error, IOException.class) != null) return NETWORK;
+        return UNKNOWN;
+    }
+
+    /** retry_after of a 429 in seconds, or 0 if the error doesn't carry one. */
+    public static int retryAfterSeconds(Throwable error) {
+        TelegramApiRequestException api = find(error, TelegramApiRequestException.class);
+        if (api == null || api.getParameters() == null || api.getParameters().getRetryAfter() == null) return 0;
+        return Math.max(0, api.getParameters().getRetryAfter());
+    }
+
+    private static <T extends Throwable> T find(Throwable error, Class<T> type) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (type.isInstance(t)) return type.cast(t);
+            if (t.getCause() == t) break;
+        }
+        return null;
+    }
+}
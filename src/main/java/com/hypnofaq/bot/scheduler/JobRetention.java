@@ -0,0 +1,82 @@
+package com.hypnofaq.bot.scheduler;
+
+import com.hypnofaq.bot.store.JobStore;
+import com.hypnofaq.bot.store.Storage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the live jobs table down to the jobs that can still run: every {@link #INTERVAL_MINUTES}
+ * moves DONE and FAILED jobs older than {@code retentionDays} to the archive, {@code batch} at a
+ * time so the writer is never held for long, then has the storage give the freed space back.
+ */
+public final class JobRetention {
+    private static final Logger log = LoggerFactory.getLogger(JobRetention.class);
+
+    private static final long INTERVAL_MINUTES = 15;
+    private static final long FIRST_RUN_MINUTES = 1;
+
+    private final Storage storage;
+    private final JobStore jobs;
+    private final long retentionMillis;
+    private final int batch;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public JobRetention(Storage storage, int retentionDays, int batch) {
+        this.storage = storage;
+        this.jobs = storage.jobs();
+        this.retentionMillis = TimeUnit.DAYS.toMillis(Math.max(1, retentionDays));
+        this.batch = Math.max(1, batch);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-retention");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        if (running.compareAndSet(false, true)) {
+            executor.scheduleWithFixedDelay(this::runOnce, FIRST_RUN_MINUTES, INTERVAL_MINUTES, TimeUnit.MINUTES);
+            log.info("JobRetention started (archive finished jobs after {} days, {} per batch)",
+                    TimeUnit.MILLISECONDS.toDays(retentionMillis), batch);
+        }
+    }
+
+    public void stop() {
+        running.set(false);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Archives until a batch comes back short, then reclaims space.
+     *
+     * @return how many jobs were archived
+     */
+    public int runOnce() {
+        long started = System.nanoTime();
+        long cutoff = Instant.now().toEpochMilli() - retentionMillis;
+        int archived = 0;
+        try {
+            int moved;
+            do {
+                moved = jobs.archiveFinished(cutoff, batch);
+                archived += moved;
+            } while (moved == batch && !Thread.currentThread().isInterrupted());
+            long freed = archived > 0 ? storage.reclaimSpace() : 0;
+            if (archived > 0) {
+                log.info("Archived {} finished jobs, reclaimed {} KiB in {}ms", archived, freed / 1024,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            }
+        } catch (Exception e) {
+            log.warn("Job retention failed after archiving {} jobs: {}", archived, e.getMessage(), e);
+        }
+        return archived;
+    }
+}
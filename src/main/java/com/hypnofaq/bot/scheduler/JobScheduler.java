@@ -1,86 +1,191 @@
 package com.hypnofaq.bot.scheduler;
 
-import com.hypnofaq.bot.db.JobDao;
+import com.hypnofaq.bot.concurrent.KeyedSerialExecutor;
+import com.hypnofaq.bot.jfr.JobEvent;
+import com.hypnofaq.bot.metrics.Histogram;
+import com.hypnofaq.bot.metrics.Metrics;
 import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.store.JobStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Claims due jobs on a single poller thread and runs them on a worker pool.
+ * Jobs of one user go through a per-tg_id mailbox, so they never run concurrently and
+ * keep their run_at order; at most {@code maxInFlight} claimed jobs exist at any time.
+ * <p>
+ * Between batches the poller sleeps until the earliest pending run_at (read from the
+ * jobs table, which stays the source of truth) or until {@link JobStore} reports an earlier
+ * job. {@code pollSeconds} only caps that sleep, as a safety net for jobs inserted by
+ * other processes.
+ * <p>
+ * Claimed jobs are leased to this process ({@code owner}) and the lease is renewed while
+ * they are queued or running; a sweeper returns jobs with expired leases (a crashed or hung
+ * process) to PENDING, so several processes can share one database. They must then run
+ * with the user cache off (USER_CACHE_MAX_SIZE=0): each process's cache only sees its own
+ * writes, and a job handled from a stale snapshot would flush over another process's update.
+ */
 public final class JobScheduler implements Runnable {
     private static final Logger log = LoggerFactory.getLogger(JobScheduler.class);
 
+    private static final Histogram JOB_SECONDS = Metrics.histogram("hypnobot_job_seconds",
+            "Time to handle and record one job, by type and outcome (done, retry, failed, lease_lost).",
+            "type", "outcome");
+    private static final Histogram LAG_SECONDS = Metrics.histogram("hypnobot_job_lag_seconds",
+            "How late a job starts: start time minus run_at.", Histogram.LAG_BUCKETS, "type");
+
     public interface Handler {
-        void handle(Job job) throws Exception;
+        /** @return the stage change and follow-ups to commit with DONE; {@link JobResult#NONE} if none */
+        JobResult handle(Job job) throws Exception;
     }
 
-    private final JobDao jobDao;
+    private final JobStore jobDao;
     private final Handler handler;
+    private final RetryPolicy retryPolicy;
     private final int pollSeconds;
+    private final int workers;
+    private final int maxInFlight;
+    private final int claimBatch;
+    private final String owner;
+    private final long leaseMillis;
+
+    private final ExecutorService pool;
+    private final KeyedSerialExecutor perUser;
+    private final Semaphore inFlight;
+    private final WakeupTimer timer = new WakeupTimer();
+    private final Set<Long> leased = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leaseKeeper;
 
     private final Thread thread;
     private final AtomicBoolean running = new AtomicBoolean(false);
 
-    public JobScheduler(JobDao jobDao, Handler handler, int pollSeconds) {
+    public JobScheduler(JobStore jobDao, Handler handler, RetryPolicy retryPolicy, int pollSeconds, int workers,
+                        int maxInFlight, int claimBatch, String owner, int leaseSeconds) {
         this.jobDao = jobDao;
         this.handler = handler;
+        this.retryPolicy = retryPolicy;
         this.pollSeconds = Math.max(1, pollSeconds);
+        this.workers = Math.max(1, workers);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.claimBatch = Math.max(1, claimBatch);
+        this.owner = owner;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(Math.max(3, leaseSeconds));
+
+        AtomicInteger n = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(this.workers, r -> {
+            Thread t = new Thread(r, "job-worker-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.perUser = new KeyedSerialExecutor(pool);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.leaseKeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "job-lease");
+            t.setDaemon(true);
+            return t;
+        });
+
         this.thread = new Thread(this, "job-scheduler");
         this.thread.setDaemon(true);
     }
 
     public void start() {
         if (running.compareAndSet(false, true)) {
+            jobDao.setScheduleListener(timer::wakeAt);
+            long renewEvery = leaseMillis / 3;
+            leaseKeeper.scheduleWithFixedDelay(this::renewLeases, renewEvery, renewEvery, TimeUnit.MILLISECONDS);
+            // first sweep right away: recovers jobs left RUNNING by a crash of a previous run
+            leaseKeeper.scheduleWithFixedDelay(this::sweepExpiredLeases, 0, leaseMillis, TimeUnit.MILLISECONDS);
             thread.start();
-            log.info("JobScheduler started (poll every {}s)", pollSeconds);
+            log.info("JobScheduler {} started (resync every {}s, {} workers, max {} in flight, lease {}s)",
+                    owner, pollSeconds, workers, maxInFlight, leaseMillis / 1000);
         }
     }
 
     public void stop() {
         running.set(false);
+        jobDao.setScheduleListener(null);
         thread.interrupt();
+        pool.shutdown();
+        try {
+            // let jobs that already sent something finish and record their outcome
+            if (!pool.awaitTermination(10, TimeUnit.SECONDS)) pool.shutdownNow();
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        leaseKeeper.shutdownNow();
+        if (!leased.isEmpty()) {
+            try {
+                int released = jobDao.releaseLeases(owner);
+                log.info("Released {} unfinished job(s) back to the queue", released);
+            } catch (Exception e) {
+                log.warn("Failed to release job leases, they will expire: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** Claimed jobs that are running or waiting behind another job of the same user. */
+    public int inFlight() {
+        return maxInFlight - inFlight.availablePermits();
     }
 
     @Override
     public void run() {
         while (running.get()) {
             try {
+                // block until at least one slot is free, then claim as many jobs as there are slots
+                inFlight.acquire();
+                inFlight.release();
+                int limit = Math.min(claimBatch, inFlight.availablePermits());
+
+                timer.reset();
                 long now = Instant.now().toEpochMilli();
-                List<Job> due = jobDao.fetchDueJobs(now, 50);
+                List<Job> due = jobDao.claimDueJobs(now, limit, owner, now + leaseMillis);
 
                 for (Job job : due) {
-                    if (!running.get()) break;
-
-                    // Try to "lock" job
-                    boolean locked = jobDao.markRunning(job.id);
-                    if (!locked) continue;
-
+                    // claimed jobs are dispatched even during shutdown: stop() drains the pool
+                    inFlight.acquire();
+                    leased.add(job.id);
                     try {
-                        handler.handle(job);
-                        jobDao.markDone(job.id);
-                    } catch (Exception e) {
-                        int attempts = job.attempts + 1;
-                        String msg = e.getClass().getSimpleName() + ": " + e.getMessage();
-                        log.warn("Job {} for tgId={} failed (attempt {}): {}", job.type, job.tgId, attempts, msg);
-
-                        // 403 (bot blocked) — no retries
-                        if (msg.contains("403") || msg.toLowerCase().contains("bot was blocked")) {
-                            jobDao.markFailed(job.id, attempts, msg);
-                            continue;
-                        }
-
-                        if (attempts >= 5) {
-                            jobDao.markFailed(job.id, attempts, msg);
-                        } else {
-                            long retryAt = Instant.now().plusSeconds(60L * 5).toEpochMilli(); // 5 minutes
-                            jobDao.rescheduleWithError(job.id, attempts, retryAt, msg);
-                        }
+                        perUser.execute(job.tgId, () -> {
+                            try {
+                                process(job);
+                            } finally {
+                                leased.remove(job.id);
+                                inFlight.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // the job never runs: give its slot back and let the lease expire so it is claimed again
+                        leased.remove(job.id);
+                        inFlight.release();
+                        throw e;
                     }
                 }
 
-                Thread.sleep(pollSeconds * 1000L);
+                // a full batch means more jobs are probably due right now
+                if (due.size() == limit) continue;
+
+                long deadline = System.currentTimeMillis() + pollSeconds * 1000L;
+                Long next = jobDao.nextRunAt();
+                if (next != null && next < deadline) deadline = next;
+                timer.awaitUntil(deadline);
             } catch (InterruptedException ie) {
                 // shutdown
             } catch (Exception e) {
@@ -92,4 +197,83 @@ public final class JobScheduler implements Runnable {
         }
         log.info("JobScheduler stopped.");
     }
+
+    private void renewLeases() {
+        try {
+            List<Long> ids = new ArrayList<>(leased);
+            int renewed = jobDao.renewLeases(owner, ids, System.currentTimeMillis() + leaseMillis);
+            if (renewed < ids.size()) {
+                // finished in the meantime, or the lease expired and was taken over
+                log.debug("Renewed {} of {} job leases", renewed, ids.size());
+            }
+        } catch (Exception e) {
+            log.warn("Job lease renewal failed: {}", e.getMessage());
+        }
+    }
+
+    private void sweepExpiredLeases() {
+        try {
+            int released = jobDao.releaseExpiredLeases(System.currentTimeMillis());
+            if (released > 0) log.warn("Returned {} job(s) with expired leases to the queue", released);
+        } catch (Exception e) {
+            log.warn("Job lease sweep failed: {}", e.getMessage());
+        }
+    }
+
+    private void process(Job job) {
+        JobEvent event = new JobEvent();
+        event.begin();
+        long started = System.nanoTime();
+        String type = job.type.name();
+        long lagMillis = Instant.now().toEpochMilli() - job.runAt;
+        LAG_SECONDS.observeNanos(TimeUnit.MILLISECONDS.toNanos(lagMillis), type);
+        String outcome = "done";
+        try {
+            JobResult result = handler.handle(job);
+            if (!jobDao.complete(job, owner, result != null ? result : JobResult.NONE)) {
+                outcome = "lease_lost";
+                logLeaseLost(job);
+            }
+        } catch (Exception e) {
+            int attempts = job.attempts + 1;
+            FailureKind kind = FailureKind.classify(e);
+            String msg = e.getClass().getSimpleName() + ": " + e.getMessage();
+
+            long now = Instant.now().toEpochMilli();
+            long retryAt = retryPolicy.nextAttemptAt(job, attempts, kind, e, now);
+            if (retryAt == RetryPolicy.GIVE_UP) {
+                log.warn("Job {} for tgId={} failed for good ({}, attempt {}): {}", job.type, job.tgId, kind, attempts, msg);
+                outcome = "failed";
+                if (!jobDao.markFailed(job.id, owner, attempts, msg)) {
+                    outcome = "lease_lost";
+                    logLeaseLost(job);
+                }
+            } else {
+                log.warn("Job {} for tgId={} failed ({}, attempt {}), retry in {}s: {}",
+                        job.type, job.tgId, kind, attempts, (retryAt - now) / 1000, msg);
+                outcome = "retry";
+                if (!jobDao.rescheduleWithError(job.id, owner, attempts, retryAt, msg)) {
+                    outcome = "lease_lost";
+                    logLeaseLost(job);
+                }
+            }
+        } finally {
+            JOB_SECONDS.observeSince(started, type, outcome);
+            event.end();
+            if (event.shouldCommit()) {
+                event.jobId = job.id;
+                event.chatId = job.tgId;
+                event.type = type;
+                event.attempt = job.attempts + 1;
+                event.lag = lagMillis;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    private void logLeaseLost(Job job) {
+        // the lease expired while the job ran and another process may have claimed it
+        log.warn("Lost the lease on job {} ({} for tgId={}); its result was dropped", job.id, job.type, job.tgId);
+    }
 }
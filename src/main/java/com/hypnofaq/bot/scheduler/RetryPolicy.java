@@ -0,0 +1,16 @@
+package com.hypnofaq.bot.scheduler;
+
+import com.hypnofaq.bot.model.Job;
+
+/**
+ * Decides what happens to a job whose handler threw.
+ */
+public interface RetryPolicy {
+    long GIVE_UP = -1;
+
+    /**
+     * @param attempts attempts made so far, including the one that just failed
+     * @return epoch millis of the next attempt, or {@link #GIVE_UP} to mark the job FAILED
+     */
+    long nextAttemptAt(Job job, int attempts, FailureKind kind, Throwable error, long nowMillis);
+}
@@ -0,0 +1,32 @@
+package com.hypnofaq.bot.scheduler;
+
+/**
+ * The scheduler's alarm clock: holds the earliest moment anything may become due and lets
+ * the poller sleep until then. {@link #wakeAt} pulls the alarm forward when an earlier job
+ * is scheduled; hints that arrive while the poller is busy are kept for its next sleep.
+ */
+final class WakeupTimer {
+    private long hint = Long.MAX_VALUE;
+
+    /** Call before reading the jobs table; hints received from now on are not lost. */
+    synchronized void reset() {
+        hint = Long.MAX_VALUE;
+    }
+
+    synchronized void wakeAt(long epochMillis) {
+        if (epochMillis < hint) {
+            hint = epochMillis;
+            notifyAll();
+        }
+    }
+
+    /** Sleeps until {@code deadline} or an earlier {@link #wakeAt}, whichever comes first. */
+    synchronized void awaitUntil(long deadline) throws InterruptedException {
+        while (true) {
+            long wake = Math.min(deadline, hint);
+            long wait = wake - System.currentTimeMillis();
+            if (wait <= 0) return;
+            wait(wait);
+        }
+    }
+}
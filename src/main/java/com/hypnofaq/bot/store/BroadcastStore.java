@@ -0,0 +1,36 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Broadcasts and their progress; the last checkpoint is where a restarted process resumes.
+ */
+public interface BroadcastStore {
+
+    /** Stores a new {@link BroadcastStatus#DRAFT}. */
+    Broadcast create(String text, Audience audience, long total, long createdBy);
+
+    Optional<Broadcast> get(long id);
+
+    /** Newest first. */
+    List<Broadcast> recent(int limit);
+
+    /** RUNNING broadcasts, oldest first: the order the broadcaster works through them. */
+    List<Broadcast> running();
+
+    /**
+     * Moves the broadcast to {@code to} if its status is one of {@code from}.
+     *
+     * @return false if it wasn't (or doesn't exist)
+     */
+    boolean transition(long id, Set<BroadcastStatus> from, BroadcastStatus to);
+
+    /** Records that every recipient up to {@code cursor} is settled, with the totals so far. */
+    void checkpoint(long id, long cursor, long sent, long blocked, long failed);
+}
@@ -0,0 +1,19 @@
+package com.hypnofaq.bot.store;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Telegram file_ids of uploaded media, by asset key.
+ */
+public interface FileIdStore {
+
+    Optional<String> getFileId(String key);
+
+    void upsertFileId(String key, String fileId);
+
+    /** Blank keys or ids are ignored. */
+    CompletableFuture<Integer> upsertFileIdAsync(String key, String fileId);
+
+    CompletableFuture<Integer> deleteFileIdAsync(String key);
+}
@@ -0,0 +1,365 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.metrics.Histogram;
+import com.hypnofaq.bot.metrics.Metrics;
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.model.UserStage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Wraps a {@link Storage} so that every store method is timed, whatever the backend.
+ * Async methods are timed up to the returned future, i.e. until the write is queued.
+ * The wrappers are plain delegating classes: a new store method has to be added here too.
+ */
+public final class InstrumentedStorage implements Storage {
+    private static final Histogram STORE_SECONDS = Metrics.histogram("hypnobot_store_seconds",
+            "Store method latency.", "store", "method", "outcome");
+
+    private final Storage delegate;
+    private final UserStore users;
+    private final JobStore jobs;
+    private final FileIdStore fileIds;
+    private final BroadcastStore broadcasts;
+
+    public InstrumentedStorage(Storage delegate) {
+        this.delegate = delegate;
+        this.users = new TimedUserStore(delegate.users());
+        this.jobs = new TimedJobStore(delegate.jobs());
+        this.fileIds = new TimedFileIdStore(delegate.fileIds());
+        this.broadcasts = new TimedBroadcastStore(delegate.broadcasts());
+    }
+
+    @Override
+    public UserStore users() {
+        return users;
+    }
+
+    @Override
+    public JobStore jobs() {
+        return jobs;
+    }
+
+    @Override
+    public FileIdStore fileIds() {
+        return fileIds;
+    }
+
+    @Override
+    public BroadcastStore broadcasts() {
+        return broadcasts;
+    }
+
+    @Override
+    public long reclaimSpace() {
+        return delegate.reclaimSpace();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private static <T> T time(String store, String method, Supplier<T> call) {
+        long started = System.nanoTime();
+        String outcome = "error";
+        try {
+            T result = call.get();
+            outcome = "ok";
+            return result;
+        } finally {
+            STORE_SECONDS.observeSince(started, store, method, outcome);
+        }
+    }
+
+    private static void run(String store, String method, Runnable call) {
+        long started = System.nanoTime();
+        String outcome = "error";
+        try {
+            call.run();
+            outcome = "ok";
+        } finally {
+            STORE_SECONDS.observeSince(started, store, method, outcome);
+        }
+    }
+
+    private static final class TimedUserStore implements UserStore {
+        private static final String STORE = "users";
+        private final UserStore d;
+
+        TimedUserStore(UserStore d) {
+            this.d = d;
+        }
+
+        @Override
+        public void ensureUser(long tgId) {
+            run(STORE, "ensureUser", () -> d.ensureUser(tgId));
+        }
+
+        @Override
+        public void ensureUsers(Collection<Long> tgIds) {
+            run(STORE, "ensureUsers", () -> d.ensureUsers(tgIds));
+        }
+
+        @Override
+        public Optional<User> getUser(long tgId) {
+            return time(STORE, "getUser", () -> d.getUser(tgId));
+        }
+
+        @Override
+        public UserSession openSession(long tgId) {
+            return time(STORE, "openSession", () -> d.openSession(tgId));
+        }
+
+        @Override
+        public void flush(UserSession session) {
+            run(STORE, "flush", () -> d.flush(session));
+        }
+
+        @Override
+        public void setStage(long tgId, UserStage stage) {
+            run(STORE, "setStage", () -> d.setStage(tgId, stage));
+        }
+
+        @Override
+        public CompletableFuture<Integer> setStageAsync(long tgId, UserStage stage) {
+            return time(STORE, "setStageAsync", () -> d.setStageAsync(tgId, stage));
+        }
+
+        @Override
+        public void setSubscribed(long tgId, boolean subscribed) {
+            run(STORE, "setSubscribed", () -> d.setSubscribed(tgId, subscribed));
+        }
+
+        @Override
+        public CompletableFuture<Integer> setSubscribedAsync(long tgId, boolean subscribed) {
+            return time(STORE, "setSubscribedAsync", () -> d.setSubscribedAsync(tgId, subscribed));
+        }
+
+        @Override
+        public void setStartParam(long tgId, String startParam) {
+            run(STORE, "setStartParam", () -> d.setStartParam(tgId, startParam));
+        }
+
+        @Override
+        public CompletableFuture<Integer> setStartParamAsync(long tgId, String startParam) {
+            return time(STORE, "setStartParamAsync", () -> d.setStartParamAsync(tgId, startParam));
+        }
+
+        @Override
+        public void clearStartParam(long tgId) {
+            run(STORE, "clearStartParam", () -> d.clearStartParam(tgId));
+        }
+
+        @Override
+        public void markPracticeSent(long tgId) {
+            run(STORE, "markPracticeSent", () -> d.markPracticeSent(tgId));
+        }
+
+        @Override
+        public CompletableFuture<Integer> markPracticeSentAsync(long tgId) {
+            return time(STORE, "markPracticeSentAsync", () -> d.markPracticeSentAsync(tgId));
+        }
+
+        @Override
+        public void markCheckupSent(long tgId) {
+            run(STORE, "markCheckupSent", () -> d.markCheckupSent(tgId));
+        }
+
+        @Override
+        public CompletableFuture<Integer> markCheckupSentAsync(long tgId) {
+            return time(STORE, "markCheckupSentAsync", () -> d.markCheckupSentAsync(tgId));
+        }
+
+        @Override
+        public void markChooseTimeClicked(long tgId) {
+            run(STORE, "markChooseTimeClicked", () -> d.markChooseTimeClicked(tgId));
+        }
+
+        @Override
+        public CompletableFuture<Integer> markChooseTimeClickedAsync(long tgId) {
+            return time(STORE, "markChooseTimeClickedAsync", () -> d.markChooseTimeClickedAsync(tgId));
+        }
+
+        @Override
+        public FunnelStats funnelStats(int days) {
+            return time(STORE, "funnelStats", () -> d.funnelStats(days));
+        }
+
+        @Override
+        public List<Long> recipients(Audience audience, long afterTgId, int limit) {
+            return time(STORE, "recipients", () -> d.recipients(audience, afterTgId, limit));
+        }
+
+        @Override
+        public long countRecipients(Audience audience) {
+            return time(STORE, "countRecipients", () -> d.countRecipients(audience));
+        }
+    }
+
+    private static final class TimedJobStore implements JobStore {
+        private static final String STORE = "jobs";
+        private final JobStore d;
+
+        TimedJobStore(JobStore d) {
+            this.d = d;
+        }
+
+        @Override
+        public void setScheduleListener(ScheduleListener listener) {
+            d.setScheduleListener(listener);
+        }
+
+        @Override
+        public void scheduleOnce(long tgId, JobType type, long runAtMillis, String payload) {
+            run(STORE, "scheduleOnce", () -> d.scheduleOnce(tgId, type, runAtMillis, payload));
+        }
+
+        @Override
+        public List<Job> claimDueJobs(long nowMillis, int limit, String owner, long leaseUntil) {
+            return time(STORE, "claimDueJobs", () -> d.claimDueJobs(nowMillis, limit, owner, leaseUntil));
+        }
+
+        @Override
+        public int renewLeases(String owner, Collection<Long> jobIds, long leaseUntil) {
+            return time(STORE, "renewLeases", () -> d.renewLeases(owner, jobIds, leaseUntil));
+        }
+
+        @Override
+        public int releaseExpiredLeases(long nowMillis) {
+            return time(STORE, "releaseExpiredLeases", () -> d.releaseExpiredLeases(nowMillis));
+        }
+
+        @Override
+        public int releaseLeases(String owner) {
+            return time(STORE, "releaseLeases", () -> d.releaseLeases(owner));
+        }
+
+        @Override
+        public Long nextRunAt() {
+            return time(STORE, "nextRunAt", d::nextRunAt);
+        }
+
+        @Override
+        public Map<String, Long> countActive() {
+            return time(STORE, "countActive", d::countActive);
+        }
+
+        @Override
+        public void markDone(long jobId, String owner) {
+            run(STORE, "markDone", () -> d.markDone(jobId, owner));
+        }
+
+        @Override
+        public CompletableFuture<Integer> markDoneAsync(long jobId, String owner) {
+            return time(STORE, "markDoneAsync", () -> d.markDoneAsync(jobId, owner));
+        }
+
+        @Override
+        public void markDone(Collection<Long> jobIds, String owner) {
+            run(STORE, "markDone", () -> d.markDone(jobIds, owner));
+        }
+
+        @Override
+        public boolean complete(Job job, String owner, JobResult result) {
+            return time(STORE, "complete", () -> d.complete(job, owner, result));
+        }
+
+        @Override
+        public boolean rescheduleWithError(long jobId, String owner, int newAttempts, long newRunAt, String error) {
+            return time(STORE, "rescheduleWithError",
+                    () -> d.rescheduleWithError(jobId, owner, newAttempts, newRunAt, error));
+        }
+
+        @Override
+        public boolean markFailed(long jobId, String owner, int attempts, String error) {
+            return time(STORE, "markFailed", () -> d.markFailed(jobId, owner, attempts, error));
+        }
+
+        @Override
+        public int archiveFinished(long olderThanMillis, int limit) {
+            return time(STORE, "archiveFinished", () -> d.archiveFinished(olderThanMillis, limit));
+        }
+    }
+
+    private static final class TimedFileIdStore implements FileIdStore {
+        private static final String STORE = "file_ids";
+        private final FileIdStore d;
+
+        TimedFileIdStore(FileIdStore d) {
+            this.d = d;
+        }
+
+        @Override
+        public Optional<String> getFileId(String key) {
+            return time(STORE, "getFileId", () -> d.getFileId(key));
+        }
+
+        @Override
+        public void upsertFileId(String key, String fileId) {
+            run(STORE, "upsertFileId", () -> d.upsertFileId(key, fileId));
+        }
+
+        @Override
+        public CompletableFuture<Integer> upsertFileIdAsync(String key, String fileId) {
+            return time(STORE, "upsertFileIdAsync", () -> d.upsertFileIdAsync(key, fileId));
+        }
+
+        @Override
+        public CompletableFuture<Integer> deleteFileIdAsync(String key) {
+            return time(STORE, "deleteFileIdAsync", () -> d.deleteFileIdAsync(key));
+        }
+    }
+
+    private static final class TimedBroadcastStore implements BroadcastStore {
+        private static final String STORE = "broadcasts";
+        private final BroadcastStore d;
+
+        TimedBroadcastStore(BroadcastStore d) {
+            this.d = d;
+        }
+
+        @Override
+        public Broadcast create(String text, Audience audience, long total, long createdBy) {
+            return time(STORE, "create", () -> d.create(text, audience, total, createdBy));
+        }
+
+        @Override
+        public Optional<Broadcast> get(long id) {
+            return time(STORE, "get", () -> d.get(id));
+        }
+
+        @Override
+        public List<Broadcast> recent(int limit) {
+            return time(STORE, "recent", () -> d.recent(limit));
+        }
+
+        @Override
+        public List<Broadcast> running() {
+            return time(STORE, "running", d::running);
+        }
+
+        @Override
+        public boolean transition(long id, Set<BroadcastStatus> from, BroadcastStatus to) {
+            return time(STORE, "transition", () -> d.transition(id, from, to));
+        }
+
+        @Override
+        public void checkpoint(long id, long cursor, long sent, long blocked, long failed) {
+            run(STORE, "checkpoint", () -> d.checkpoint(id, cursor, sent, blocked, failed));
+        }
+    }
+}
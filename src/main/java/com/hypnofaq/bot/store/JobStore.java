@@ -0,0 +1,91 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Durable queue of delayed jobs: PENDING until claimed, RUNNING under a lease, then DONE,
+ * FAILED or back to PENDING for a retry. At most one job per (tg_id, type), archived ones
+ * included.
+ * <p>
+ * The methods that finish a job take the lease {@code owner} and only apply while it still
+ * holds the lease: once the lease has expired and another process has claimed the job, a late
+ * finisher's result is dropped instead of overwriting the new owner's run.
+ */
+public interface JobStore {
+
+    /** Told about every committed (re)schedule so the scheduler can wake up early. */
+    interface ScheduleListener {
+        void onScheduled(long runAtMillis);
+    }
+
+    void setScheduleListener(ScheduleListener listener);
+
+    /** Does nothing if the user already has a job of this type. */
+    void scheduleOnce(long tgId, JobType type, long runAtMillis, String payload);
+
+    /**
+     * Atomically flips up to {@code limit} due PENDING jobs to RUNNING under a lease held by
+     * {@code owner} until {@code leaseUntil}, and returns them earliest first. Users that have
+     * a job running under another owner are skipped, so per-user order holds across processes.
+     */
+    List<Job> claimDueJobs(long nowMillis, int limit, String owner, long leaseUntil);
+
+    /**
+     * Extends the leases {@code owner} still holds on the given jobs.
+     *
+     * @return how many leases were extended
+     */
+    int renewLeases(String owner, Collection<Long> jobIds, long leaseUntil);
+
+    /**
+     * Returns RUNNING jobs whose lease has expired to PENDING, keeping run_at.
+     *
+     * @return how many jobs were released
+     */
+    int releaseExpiredLeases(long nowMillis);
+
+    /** Hands every job still leased by {@code owner} back to PENDING (clean shutdown). */
+    int releaseLeases(String owner);
+
+    /** run_at of the earliest pending job, or null if there is none. */
+    Long nextRunAt();
+
+    /** Number of PENDING, RUNNING and FAILED jobs by status (all three present); DONE is left out. */
+    Map<String, Long> countActive();
+
+    void markDone(long jobId, String owner);
+
+    /** Completes with 1 if the job was marked DONE, 0 if the lease was lost. */
+    CompletableFuture<Integer> markDoneAsync(long jobId, String owner);
+
+    void markDone(Collection<Long> jobIds, String owner);
+
+    /**
+     * Marks the job DONE and applies {@code result} (user stage, follow-up jobs) in the same
+     * transaction, so a crash can't leave the stage moved without the next job scheduled.
+     *
+     * @return false if the lease was lost; nothing was applied then
+     */
+    boolean complete(Job job, String owner, JobResult result);
+
+    /** @return false if the lease was lost */
+    boolean rescheduleWithError(long jobId, String owner, int newAttempts, long newRunAt, String error);
+
+    /** @return false if the lease was lost */
+    boolean markFailed(long jobId, String owner, int attempts, String error);
+
+    /**
+     * Moves up to {@code limit} DONE and FAILED jobs last updated before {@code olderThanMillis}
+     * out of the live queue into the archive. Archived jobs still count for {@link #scheduleOnce}.
+     *
+     * @return how many jobs were moved; less than {@code limit} once there is nothing left
+     */
+    int archiveFinished(long olderThanMillis, int limit);
+}
@@ -0,0 +1,29 @@
+package com.hypnofaq.bot.store;
+
+/**
+ * One storage backend: the stores plus their shared lifecycle.
+ */
+public interface Storage extends AutoCloseable {
+
+    UserStore users();
+
+    JobStore jobs();
+
+    FileIdStore fileIds();
+
+    BroadcastStore broadcasts();
+
+    /**
+     * Gives space freed by deletes (e.g. {@link JobStore#archiveFinished}) back to the file
+     * system, where the backend doesn't do that on its own.
+     *
+     * @return bytes reclaimed
+     */
+    default long reclaimSpace() {
+        return 0;
+    }
+
+    /** Flushes pending writes and releases the backend; logs its statistics. */
+    @Override
+    void close();
+}
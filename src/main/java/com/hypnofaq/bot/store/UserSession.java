@@ -0,0 +1,156 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.model.UserStage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutable copy of one user for the duration of one update: handlers read and change it in
+ * memory, and {@link UserStore#flush} writes only the changed columns, once, at the end.
+ * Jobs added with {@link #schedule} are inserted in the same transaction, so a worker never
+ * picks one up before the stage it expects is stored.
+ * Not thread-safe; an update is handled by one thread.
+ */
+public final class UserSession {
+    public static final int STAGE = 1;
+    public static final int SUBSCRIBED = 1 << 1;
+    public static final int START_PARAM = 1 << 2;
+    public static final int PRACTICE_SENT_AT = 1 << 3;
+    public static final int CHECKUP_SENT_AT = 1 << 4;
+    public static final int CHOOSE_TIME_CLICKED = 1 << 5;
+
+    private final long tgId;
+    private UserStage stage;
+    private boolean subscribed;
+    private Long practiceSentAt;
+    private Long checkupSentAt;
+    private boolean chooseTimeClicked;
+    private String startParam;
+
+    private int dirty;
+    private final List<JobResult.FollowUp> scheduled = new ArrayList<>();
+
+    public UserSession(User user) {
+        this.tgId = user.tgId;
+        this.stage = user.stage;
+        this.subscribed = user.subscribed;
+        this.practiceSentAt = user.practiceSentAt;
+        this.checkupSentAt = user.checkupSentAt;
+        this.chooseTimeClicked = user.chooseTimeClicked;
+        this.startParam = user.startParam;
+    }
+
+    public long tgId() {
+        return tgId;
+    }
+
+    public UserStage stage() {
+        return stage;
+    }
+
+    public boolean subscribed() {
+        return subscribed;
+    }
+
+    public Long practiceSentAt() {
+        return practiceSentAt;
+    }
+
+    public Long checkupSentAt() {
+        return checkupSentAt;
+    }
+
+    public boolean chooseTimeClicked() {
+        return chooseTimeClicked;
+    }
+
+    public String startParam() {
+        return startParam;
+    }
+
+    public void setStage(UserStage stage) {
+        if (this.stage == stage) return;
+        this.stage = stage;
+        dirty |= STAGE;
+    }
+
+    public void setSubscribed(boolean subscribed) {
+        if (this.subscribed == subscribed) return;
+        this.subscribed = subscribed;
+        dirty |= SUBSCRIBED;
+    }
+
+    /** Blank values are stored as null. */
+    public void setStartParam(String startParam) {
+        String val = UserStore.normalizeStartParam(startParam);
+        if (val == null ? this.startParam == null : val.equals(this.startParam)) return;
+        this.startParam = val;
+        dirty |= START_PARAM;
+    }
+
+    public void clearStartParam() {
+        setStartParam(null);
+    }
+
+    /** Sets practice_sent_at and the stage to PRACTICE_SENT. */
+    public void markPracticeSent(long at) {
+        practiceSentAt = at;
+        dirty |= PRACTICE_SENT_AT;
+        setStage(UserStage.PRACTICE_SENT);
+    }
+
+    /** Sets checkup_sent_at and the stage to CHECKUP_SENT. */
+    public void markCheckupSent(long at) {
+        checkupSentAt = at;
+        dirty |= CHECKUP_SENT_AT;
+        setStage(UserStage.CHECKUP_SENT);
+    }
+
+    public void markChooseTimeClicked() {
+        if (chooseTimeClicked) return;
+        chooseTimeClicked = true;
+        dirty |= CHOOSE_TIME_CLICKED;
+    }
+
+    /** Adds a job for this user to the flush; like scheduleOnce, it is skipped if one of this type exists. */
+    public void schedule(JobType type, long runAtMillis, String payload) {
+        scheduled.add(new JobResult.FollowUp(type, runAtMillis, payload));
+    }
+
+    /** Jobs added with {@link #schedule} since open or the last flush. */
+    public List<JobResult.FollowUp> scheduledJobs() {
+        return List.copyOf(scheduled);
+    }
+
+    /** Bit set of the constants above for the columns changed since open or the last flush. */
+    public int dirtyColumns() {
+        return dirty;
+    }
+
+    public boolean isDirty() {
+        return dirty != 0 || !scheduled.isEmpty();
+    }
+
+    /** Copies the changed columns onto {@code base}, leaving the others as they are there. */
+    public User applyTo(User base) {
+        return new User(
+                base.tgId,
+                (dirty & STAGE) != 0 ? stage : base.stage,
+                (dirty & SUBSCRIBED) != 0 ? subscribed : base.subscribed,
+                (dirty & PRACTICE_SENT_AT) != 0 ? practiceSentAt : base.practiceSentAt,
+                (dirty & CHECKUP_SENT_AT) != 0 ? checkupSentAt : base.checkupSentAt,
+                (dirty & CHOOSE_TIME_CLICKED) != 0 ? chooseTimeClicked : base.chooseTimeClicked,
+                (dirty & START_PARAM) != 0 ? startParam : base.startParam
+        );
+    }
+
+    /** Called by the store once the changes are written. */
+    public void flushed() {
+        dirty = 0;
+        scheduled.clear();
+    }
+}
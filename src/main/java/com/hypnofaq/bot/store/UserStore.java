@@ -0,0 +1,91 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.model.UserStage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Users and their funnel state. The {@code xxxAsync} variants may return before the write
+ * is durable; the plain variants return after it is.
+ */
+public interface UserStore {
+
+    /** Creates the user with stage NEW if missing. */
+    void ensureUser(long tgId);
+
+    /** {@link #ensureUser} for a whole batch of updates, ideally in one transaction. */
+    default void ensureUsers(Collection<Long> tgIds) {
+        for (long id : tgIds) ensureUser(id);
+    }
+
+    Optional<User> getUser(long tgId);
+
+    /**
+     * Loads the user, creating it if missing, for one unit of work. Pair with {@link #flush}.
+     */
+    UserSession openSession(long tgId);
+
+    /**
+     * Writes the session's changed columns and inserts its scheduled jobs, if any, in one
+     * durable transaction; the job store's schedule listener hears about the new jobs.
+     */
+    void flush(UserSession session);
+
+    void setStage(long tgId, UserStage stage);
+
+    CompletableFuture<Integer> setStageAsync(long tgId, UserStage stage);
+
+    void setSubscribed(long tgId, boolean subscribed);
+
+    CompletableFuture<Integer> setSubscribedAsync(long tgId, boolean subscribed);
+
+    /** Blank values are stored as null. */
+    void setStartParam(long tgId, String startParam);
+
+    CompletableFuture<Integer> setStartParamAsync(long tgId, String startParam);
+
+    default void clearStartParam(long tgId) {
+        setStartParam(tgId, null);
+    }
+
+    /** Sets practice_sent_at to now and the stage to PRACTICE_SENT. */
+    void markPracticeSent(long tgId);
+
+    CompletableFuture<Integer> markPracticeSentAsync(long tgId);
+
+    /** Sets checkup_sent_at to now and the stage to CHECKUP_SENT. */
+    void markCheckupSent(long tgId);
+
+    CompletableFuture<Integer> markCheckupSentAsync(long tgId);
+
+    void markChooseTimeClicked(long tgId);
+
+    CompletableFuture<Integer> markChooseTimeClickedAsync(long tgId);
+
+    /**
+     * Funnel counters kept up to date by every write above, for the last {@code days} UTC days
+     * (today included). Costs O(stages x days) whatever the number of users.
+     */
+    FunnelStats funnelStats(int days);
+
+    /**
+     * Up to {@code limit} tg_ids of users in {@code audience} above {@code afterTgId}, ascending:
+     * one page of a keyset walk, so each page costs the same however far the walk has got.
+     */
+    List<Long> recipients(Audience audience, long afterTgId, int limit);
+
+    /** Users in {@code audience} right now; a full scan. */
+    long countRecipients(Audience audience);
+
+    static String normalizeStartParam(String startParam) {
+        if (startParam == null) return null;
+        String val = startParam.trim();
+        return val.isEmpty() ? null : val;
+    }
+}
@@ -0,0 +1,71 @@
+package com.hypnofaq.bot.store.memory;
+
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobType;
+
+/**
+ * A full row of the jobs table, as kept by the map-based stores.
+ */
+public final class JobRow {
+    public static final String PENDING = "PENDING";
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    public final long id;
+    public final long tgId;
+    public final JobType type;
+    public final long runAt;
+    public final String payload;
+    public final String status;
+    public final int attempts;
+    public final String lastError;
+    public final long createdAt;
+    public final long updatedAt;
+    public final String leaseOwner;
+    public final Long leaseUntil;
+
+    public JobRow(long id, long tgId, JobType type, long runAt, String payload, String status, int attempts,
+                  String lastError, long createdAt, long updatedAt, String leaseOwner, Long leaseUntil) {
+        this.id = id;
+        this.tgId = tgId;
+        this.type = type;
+        this.runAt = runAt;
+        this.payload = payload;
+        this.status = status;
+        this.attempts = attempts;
+        this.lastError = lastError;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+        this.leaseOwner = leaseOwner;
+        this.leaseUntil = leaseUntil;
+    }
+
+    public Job toJob() {
+        return new Job(id, tgId, type, runAt, payload, attempts);
+    }
+
+    JobRow claimed(String owner, long leaseUntil, long now) {
+        return new JobRow(id, tgId, type, runAt, payload, RUNNING, attempts, lastError, createdAt, now, owner, leaseUntil);
+    }
+
+    JobRow leasedUntil(long leaseUntil, long now) {
+        return new JobRow(id, tgId, type, runAt, payload, status, attempts, lastError, createdAt, now, leaseOwner, leaseUntil);
+    }
+
+    JobRow released(long now) {
+        return new JobRow(id, tgId, type, runAt, payload, PENDING, attempts, lastError, createdAt, now, null, null);
+    }
+
+    JobRow done(long now) {
+        return new JobRow(id, tgId, type, runAt, payload, DONE, attempts, null, createdAt, now, null, null);
+    }
+
+    JobRow rescheduled(int attempts, long runAt, String error, long now) {
+        return new JobRow(id, tgId, type, runAt, payload, PENDING, attempts, error, createdAt, now, null, null);
+    }
+
+    JobRow failed(int attempts, String error, long now) {
+        return new JobRow(id, tgId, type, runAt, payload, FAILED, attempts, error, createdAt, now, null, null);
+    }
+}
@@ -0,0 +1,74 @@
+package com.hypnofaq.bot.store.memory;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.store.BroadcastStore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * {@link BroadcastStore} over a plain map. There are a handful of broadcasts, so listing
+ * them is a scan.
+ */
+public final class MemoryBroadcastStore implements BroadcastStore {
+    private final Map<Long, Broadcast> broadcasts;
+    private long nextId = 1;
+
+    public MemoryBroadcastStore(Map<Long, Broadcast> broadcasts) {
+        this.broadcasts = broadcasts;
+        for (long id : broadcasts.keySet()) nextId = Math.max(nextId, id + 1);
+    }
+
+    @Override
+    public synchronized Broadcast create(String text, Audience audience, long total, long createdBy) {
+        long now = Instant.now().toEpochMilli();
+        Broadcast b = new Broadcast(nextId++, text, audience, BroadcastStatus.DRAFT, total, 0, 0, 0, 0, createdBy,
+                now, now, null);
+        broadcasts.put(b.id, b);
+        return b;
+    }
+
+    @Override
+    public synchronized Optional<Broadcast> get(long id) {
+        return Optional.ofNullable(broadcasts.get(id));
+    }
+
+    @Override
+    public synchronized List<Broadcast> recent(int limit) {
+        List<Broadcast> all = new ArrayList<>(broadcasts.values());
+        all.sort(Comparator.comparingLong((Broadcast b) -> b.id).reversed());
+        return List.copyOf(all.subList(0, Math.min(limit, all.size())));
+    }
+
+    @Override
+    public synchronized List<Broadcast> running() {
+        List<Broadcast> running = new ArrayList<>();
+        for (Broadcast b : broadcasts.values()) {
+            if (b.status == BroadcastStatus.RUNNING) running.add(b);
+        }
+        running.sort(Comparator.comparingLong(b -> b.id));
+        return running;
+    }
+
+    @Override
+    public synchronized boolean transition(long id, Set<BroadcastStatus> from, BroadcastStatus to) {
+        Broadcast b = broadcasts.get(id);
+        if (b == null || !from.contains(b.status)) return false;
+        broadcasts.put(id, b.withStatus(to, Instant.now().toEpochMilli()));
+        return true;
+    }
+
+    @Override
+    public synchronized void checkpoint(long id, long cursor, long sent, long blocked, long failed) {
+        Broadcast b = broadcasts.get(id);
+        if (b == null) return;
+        broadcasts.put(id, b.withProgress(cursor, sent, blocked, failed, Instant.now().toEpochMilli()));
+    }
+}
@@ -0,0 +1,41 @@
+package com.hypnofaq.bot.store.memory;
+
+import com.hypnofaq.bot.store.FileIdStore;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link FileIdStore} over a plain map.
+ */
+public final class MemoryFileIdStore implements FileIdStore {
+    private final Map<String, String> fileIds;
+
+    public MemoryFileIdStore(Map<String, String> fileIds) {
+        this.fileIds = fileIds;
+    }
+
+    @Override
+    public synchronized Optional<String> getFileId(String key) {
+        return Optional.ofNullable(fileIds.get(key)).map(String::trim).filter(s -> !s.isEmpty());
+    }
+
+    @Override
+    public void upsertFileId(String key, String fileId) {
+        upsertFileIdAsync(key, fileId);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> upsertFileIdAsync(String key, String fileId) {
+        if (key == null || key.isBlank()) return CompletableFuture.completedFuture(0);
+        if (fileId == null || fileId.isBlank()) return CompletableFuture.completedFuture(0);
+        fileIds.put(key, fileId);
+        return CompletableFuture.completedFuture(1);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> deleteFileIdAsync(String key) {
+        return CompletableFuture.completedFuture(fileIds.remove(key) != null ? 1 : 0);
+    }
+}
@@ -0,0 +1,285 @@
+package com.hypnofaq.bot.store.memory;
+
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.store.JobStore;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link JobStore} over a map of {@link JobRow}s, one lock for all operations.
+ * The indexes the SQL version gets from SQLite (pending by run_at, running jobs, the
+ * (tg_id, type) unique key) are rebuilt from the map on construction and kept in memory.
+ * Archived rows sit in a second map and only add to the unique keys.
+ */
+public final class MemoryJobStore implements JobStore {
+    private static final Comparator<JobRow> BY_RUN_AT =
+            Comparator.comparingLong((JobRow r) -> r.runAt).thenComparingLong(r -> r.id);
+
+    private final Map<Long, JobRow> rows;
+    private final Map<Long, JobRow> archive;
+    private final MemoryUserStore users;
+    private final TreeSet<JobRow> pending = new TreeSet<>(BY_RUN_AT);
+    private final Map<Long, JobRow> running = new HashMap<>();
+    private final Set<String> uniqueKeys = new HashSet<>();
+    private long nextId = 1;
+
+    private volatile ScheduleListener listener;
+
+    /**
+     * {@code users} is where {@link #complete} applies stage changes; its session flushes
+     * insert their scheduled jobs here.
+     */
+    public MemoryJobStore(Map<Long, JobRow> rows, Map<Long, JobRow> archive, MemoryUserStore users) {
+        this.rows = rows;
+        this.archive = archive;
+        this.users = users;
+        users.setJobs(this);
+        for (JobRow r : rows.values()) {
+            index(r);
+            uniqueKeys.add(uniqueKey(r.tgId, r.type));
+            nextId = Math.max(nextId, r.id + 1);
+        }
+        for (JobRow r : archive.values()) {
+            uniqueKeys.add(uniqueKey(r.tgId, r.type));
+            nextId = Math.max(nextId, r.id + 1);
+        }
+    }
+
+    @Override
+    public void setScheduleListener(ScheduleListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void scheduleOnce(long tgId, JobType type, long runAtMillis, String payload) {
+        boolean inserted;
+        synchronized (this) {
+            inserted = insert(tgId, type, runAtMillis, payload, Instant.now().toEpochMilli());
+        }
+        if (inserted) notifyScheduled(runAtMillis);
+    }
+
+    /** A session flush with jobs: {@code userUpdate} and the inserts happen under this store's lock. */
+    void scheduleWith(long tgId, List<JobResult.FollowUp> followUps, Runnable userUpdate) {
+        List<Long> scheduled = new ArrayList<>();
+        synchronized (this) {
+            long now = Instant.now().toEpochMilli();
+            userUpdate.run();
+            for (JobResult.FollowUp f : followUps) {
+                if (insert(tgId, f.type, f.runAtMillis, f.payload, now)) scheduled.add(f.runAtMillis);
+            }
+        }
+        for (long runAt : scheduled) notifyScheduled(runAt);
+    }
+
+    @Override
+    public synchronized List<Job> claimDueJobs(long nowMillis, int limit, String owner, long leaseUntil) {
+        Set<Long> busyElsewhere = new HashSet<>();
+        for (JobRow r : running.values()) {
+            if (!owner.equals(r.leaseOwner)) busyElsewhere.add(r.tgId);
+        }
+
+        long now = Instant.now().toEpochMilli();
+        List<JobRow> picked = new ArrayList<>();
+        for (JobRow r : pending) {
+            if (r.runAt > nowMillis || picked.size() >= limit) break;
+            if (!busyElsewhere.contains(r.tgId)) picked.add(r);
+        }
+        List<Job> claimed = new ArrayList<>(picked.size());
+        for (JobRow r : picked) {
+            put(r, r.claimed(owner, leaseUntil, now));
+            claimed.add(r.toJob());
+        }
+        return claimed;
+    }
+
+    @Override
+    public synchronized int renewLeases(String owner, Collection<Long> jobIds, long leaseUntil) {
+        long now = Instant.now().toEpochMilli();
+        int renewed = 0;
+        for (long id : jobIds) {
+            JobRow r = running.get(id);
+            if (r == null || !owner.equals(r.leaseOwner)) continue;
+            put(r, r.leasedUntil(leaseUntil, now));
+            renewed++;
+        }
+        return renewed;
+    }
+
+    @Override
+    public int releaseExpiredLeases(long nowMillis) {
+        int released = 0;
+        synchronized (this) {
+            for (JobRow r : new ArrayList<>(running.values())) {
+                if (r.leaseUntil == null || r.leaseUntil < nowMillis) {
+                    put(r, r.released(nowMillis));
+                    released++;
+                }
+            }
+        }
+        if (released > 0) notifyScheduled(nowMillis);
+        return released;
+    }
+
+    @Override
+    public synchronized int releaseLeases(String owner) {
+        long now = Instant.now().toEpochMilli();
+        int released = 0;
+        for (JobRow r : new ArrayList<>(running.values())) {
+            if (owner.equals(r.leaseOwner)) {
+                put(r, r.released(now));
+                released++;
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public synchronized Long nextRunAt() {
+        return pending.isEmpty() ? null : pending.first().runAt;
+    }
+
+    /** FAILED has no index of its own, so that one is a scan of all rows. */
+    @Override
+    public synchronized Map<String, Long> countActive() {
+        long failed = 0;
+        for (JobRow r : rows.values()) {
+            if (JobRow.FAILED.equals(r.status)) failed++;
+        }
+        Map<String, Long> counts = new LinkedHashMap<>();
+        counts.put(JobRow.PENDING, (long) pending.size());
+        counts.put(JobRow.RUNNING, (long) running.size());
+        counts.put(JobRow.FAILED, failed);
+        return counts;
+    }
+
+    @Override
+    public void markDone(long jobId, String owner) {
+        markDone(List.of(jobId), owner);
+    }
+
+    @Override
+    public CompletableFuture<Integer> markDoneAsync(long jobId, String owner) {
+        return CompletableFuture.completedFuture(markDoneRows(List.of(jobId), owner));
+    }
+
+    @Override
+    public void markDone(Collection<Long> jobIds, String owner) {
+        markDoneRows(jobIds, owner);
+    }
+
+    /** Under this store's lock; the user store's own lock nests inside it, never the other way. */
+    @Override
+    public boolean complete(Job job, String owner, JobResult result) {
+        List<Long> scheduled = new ArrayList<>();
+        synchronized (this) {
+            if (markDoneRows(List.of(job.id), owner) == 0) return false;
+            long now = Instant.now().toEpochMilli();
+            if (result.stage != null) users.setStage(job.tgId, result.stage);
+            for (JobResult.FollowUp f : result.followUps) {
+                if (insert(job.tgId, f.type, f.runAtMillis, f.payload, now)) scheduled.add(f.runAtMillis);
+            }
+        }
+        for (long runAt : scheduled) notifyScheduled(runAt);
+        return true;
+    }
+
+    @Override
+    public boolean rescheduleWithError(long jobId, String owner, int newAttempts, long newRunAt, String error) {
+        long now = Instant.now().toEpochMilli();
+        synchronized (this) {
+            JobRow r = leased(jobId, owner);
+            if (r == null) return false;
+            put(r, r.rescheduled(newAttempts, newRunAt, error, now));
+        }
+        notifyScheduled(newRunAt);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean markFailed(long jobId, String owner, int attempts, String error) {
+        JobRow r = leased(jobId, owner);
+        if (r == null) return false;
+        put(r, r.failed(attempts, error, Instant.now().toEpochMilli()));
+        return true;
+    }
+
+    /** Finished rows have no index here either, so each batch scans the map. */
+    @Override
+    public synchronized int archiveFinished(long olderThanMillis, int limit) {
+        List<JobRow> finished = new ArrayList<>();
+        for (JobRow r : rows.values()) {
+            if (finished.size() >= limit) break;
+            boolean done = JobRow.DONE.equals(r.status) || JobRow.FAILED.equals(r.status);
+            if (done && r.updatedAt < olderThanMillis) finished.add(r);
+        }
+        for (JobRow r : finished) {
+            archive.put(r.id, r);
+            rows.remove(r.id);
+        }
+        return finished.size();
+    }
+
+    private synchronized int markDoneRows(Collection<Long> jobIds, String owner) {
+        long now = Instant.now().toEpochMilli();
+        int updated = 0;
+        for (long id : jobIds) {
+            JobRow r = leased(id, owner);
+            if (r == null) continue;
+            put(r, r.done(now));
+            updated++;
+        }
+        return updated;
+    }
+
+    /** The job if it is RUNNING under {@code owner}'s lease, else null. */
+    private JobRow leased(long jobId, String owner) {
+        JobRow r = running.get(jobId);
+        return r != null && owner.equals(r.leaseOwner) ? r : null;
+    }
+
+    private boolean insert(long tgId, JobType type, long runAtMillis, String payload, long now) {
+        if (!uniqueKeys.add(uniqueKey(tgId, type))) return false;
+        put(null, new JobRow(nextId++, tgId, type, runAtMillis, payload, JobRow.PENDING, 0, null, now, now, null, null));
+        return true;
+    }
+
+    /** Replaces {@code old} (null for an insert) with {@code row} in the map and the indexes. */
+    private void put(JobRow old, JobRow row) {
+        if (old != null) unindex(old);
+        rows.put(row.id, row);
+        index(row);
+    }
+
+    private void index(JobRow r) {
+        if (JobRow.PENDING.equals(r.status)) pending.add(r);
+        else if (JobRow.RUNNING.equals(r.status)) running.put(r.id, r);
+    }
+
+    private void unindex(JobRow r) {
+        if (JobRow.PENDING.equals(r.status)) pending.remove(r);
+        else if (JobRow.RUNNING.equals(r.status)) running.remove(r.id);
+    }
+
+    private static String uniqueKey(long tgId, JobType type) {
+        return tgId + ":" + type.name();
+    }
+
+    private void notifyScheduled(long runAtMillis) {
+        ScheduleListener l = listener;
+        if (l != null) l.onScheduled(runAtMillis);
+    }
+}
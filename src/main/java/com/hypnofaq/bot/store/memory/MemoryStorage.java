@@ -0,0 +1,44 @@
+package com.hypnofaq.bot.store.memory;
+
+import com.hypnofaq.bot.store.BroadcastStore;
+import com.hypnofaq.bot.store.FileIdStore;
+import com.hypnofaq.bot.store.JobStore;
+import com.hypnofaq.bot.store.Storage;
+import com.hypnofaq.bot.store.UserStore;
+
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/**
+ * Volatile backend for load tests and benchmarks: everything is lost on exit.
+ */
+public final class MemoryStorage implements Storage {
+    private final MemoryUserStore users = new MemoryUserStore(new TreeMap<>());
+    private final MemoryJobStore jobs = new MemoryJobStore(new HashMap<>(), new HashMap<>(), users);
+    private final MemoryFileIdStore fileIds = new MemoryFileIdStore(new HashMap<>());
+    private final MemoryBroadcastStore broadcasts = new MemoryBroadcastStore(new HashMap<>());
+
+    @Override
+    public UserStore users() {
+        return users;
+    }
+
+    @Override
+    public JobStore jobs() {
+        return jobs;
+    }
+
+    @Override
+    public FileIdStore fileIds() {
+        return fileIds;
+    }
+
+    @Override
+    public BroadcastStore broadcasts() {
+        return broadcasts;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,226 @@
+package com.hypnofaq.bot.store.memory;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.model.UserStage;
+import com.hypnofaq.bot.store.UserSession;
+import com.hypnofaq.bot.store.UserStore;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link UserStore} over a plain map, one lock for all operations. Writes are visible
+ * (and, for a persistent map, handed to it) before the call returns.
+ */
+public final class MemoryUserStore implements UserStore {
+    private final Map<Long, User> users;
+    /**
+     * Funnel counters, updated with every user write: stage (or {@link FunnelStats#CHOOSE_TIME_CLICKED})
+     * to users now, and {@code "<UTC date> <stage>"} to users who reached it that day.
+     */
+    private final Map<String, Long> funnel;
+    /** tg_ids above the given one, ascending; the keyset walk behind {@link #recipients}. */
+    private final Function<Long, Iterator<Long>> idsAfter;
+    /** Set by the {@link MemoryJobStore} built over this store; inserts the sessions' scheduled jobs. */
+    private MemoryJobStore jobs;
+
+    public MemoryUserStore(NavigableMap<Long, User> users) {
+        this(users, new HashMap<>(), after -> users.tailMap(after, false).keySet().iterator());
+    }
+
+    public MemoryUserStore(Map<Long, User> users, Map<String, Long> funnel, Function<Long, Iterator<Long>> idsAfter) {
+        this.users = users;
+        this.funnel = funnel;
+        this.idsAfter = idsAfter;
+        if (funnel.isEmpty()) {
+            // a map that predates the counters: one pass for the totals, the days start empty
+            for (User u : users.values()) {
+                add(u.stage.name(), 1);
+                if (u.chooseTimeClicked) add(FunnelStats.CHOOSE_TIME_CLICKED, 1);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void ensureUser(long tgId) {
+        if (users.containsKey(tgId)) return;
+        User u = new User(tgId, UserStage.NEW, false, null, null, false, null);
+        users.put(tgId, u);
+        reached(u.stage.name());
+    }
+
+    @Override
+    public synchronized Optional<User> getUser(long tgId) {
+        return Optional.ofNullable(users.get(tgId));
+    }
+
+    @Override
+    public synchronized UserSession openSession(long tgId) {
+        ensureUser(tgId);
+        return new UserSession(users.get(tgId));
+    }
+
+    void setJobs(MemoryJobStore jobs) {
+        this.jobs = jobs;
+    }
+
+    /** With scheduled jobs, the job store takes its lock first and runs the user update inside it. */
+    @Override
+    public void flush(UserSession session) {
+        if (!session.isDirty()) return;
+        Runnable columns = () -> {
+            if (session.dirtyColumns() != 0) update(session.tgId(), session::applyTo);
+        };
+        List<JobResult.FollowUp> followUps = session.scheduledJobs();
+        if (followUps.isEmpty()) columns.run();
+        else jobs.scheduleWith(session.tgId(), followUps, columns);
+        session.flushed();
+    }
+
+    @Override
+    public void setStage(long tgId, UserStage stage) {
+        update(tgId, u -> u.withStage(stage));
+    }
+
+    @Override
+    public CompletableFuture<Integer> setStageAsync(long tgId, UserStage stage) {
+        return CompletableFuture.completedFuture(update(tgId, u -> u.withStage(stage)));
+    }
+
+    @Override
+    public void setSubscribed(long tgId, boolean subscribed) {
+        update(tgId, u -> u.withSubscribed(subscribed));
+    }
+
+    @Override
+    public CompletableFuture<Integer> setSubscribedAsync(long tgId, boolean subscribed) {
+        return CompletableFuture.completedFuture(update(tgId, u -> u.withSubscribed(subscribed)));
+    }
+
+    @Override
+    public void setStartParam(long tgId, String startParam) {
+        String val = UserStore.normalizeStartParam(startParam);
+        update(tgId, u -> u.withStartParam(val));
+    }
+
+    @Override
+    public CompletableFuture<Integer> setStartParamAsync(long tgId, String startParam) {
+        String val = UserStore.normalizeStartParam(startParam);
+        return CompletableFuture.completedFuture(update(tgId, u -> u.withStartParam(val)));
+    }
+
+    @Override
+    public void markPracticeSent(long tgId) {
+        long now = Instant.now().toEpochMilli();
+        update(tgId, u -> u.withPracticeSent(now));
+    }
+
+    @Override
+    public CompletableFuture<Integer> markPracticeSentAsync(long tgId) {
+        long now = Instant.now().toEpochMilli();
+        return CompletableFuture.completedFuture(update(tgId, u -> u.withPracticeSent(now)));
+    }
+
+    @Override
+    public void markCheckupSent(long tgId) {
+        long now = Instant.now().toEpochMilli();
+        update(tgId, u -> u.withCheckupSent(now));
+    }
+
+    @Override
+    public CompletableFuture<Integer> markCheckupSentAsync(long tgId) {
+        long now = Instant.now().toEpochMilli();
+        return CompletableFuture.completedFuture(update(tgId, u -> u.withCheckupSent(now)));
+    }
+
+    @Override
+    public void markChooseTimeClicked(long tgId) {
+        update(tgId, User::withChooseTimeClicked);
+    }
+
+    @Override
+    public CompletableFuture<Integer> markChooseTimeClickedAsync(long tgId) {
+        return CompletableFuture.completedFuture(update(tgId, User::withChooseTimeClicked));
+    }
+
+    @Override
+    public synchronized FunnelStats funnelStats(int days) {
+        Map<UserStage, Long> stages = new EnumMap<>(UserStage.class);
+        for (UserStage s : UserStage.values()) stages.put(s, funnel.getOrDefault(s.name(), 0L));
+
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        SortedMap<LocalDate, Map<String, Long>> byDay = new TreeMap<>();
+        for (LocalDate d = today.minusDays(Math.max(1, days) - 1); !d.isAfter(today); d = d.plusDays(1)) {
+            Map<String, Long> day = new HashMap<>();
+            for (UserStage s : UserStage.values()) {
+                Long n = funnel.get(d + " " + s.name());
+                if (n != null) day.put(s.name(), n);
+            }
+            Long clicked = funnel.get(d + " " + FunnelStats.CHOOSE_TIME_CLICKED);
+            if (clicked != null) day.put(FunnelStats.CHOOSE_TIME_CLICKED, clicked);
+            byDay.put(d, day);
+        }
+        return new FunnelStats(stages, funnel.getOrDefault(FunnelStats.CHOOSE_TIME_CLICKED, 0L), byDay);
+    }
+
+    @Override
+    public synchronized List<Long> recipients(Audience audience, long afterTgId, int limit) {
+        List<Long> ids = new ArrayList<>(limit);
+        Iterator<Long> it = idsAfter.apply(afterTgId);
+        while (ids.size() < limit && it.hasNext()) {
+            Long id = it.next();
+            User u = users.get(id);
+            if (u != null && audience.matches(u)) ids.add(id);
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized long countRecipients(Audience audience) {
+        long n = 0;
+        for (User u : users.values()) {
+            if (audience.matches(u)) n++;
+        }
+        return n;
+    }
+
+    /** @return rows updated, like the SQL UPDATE it stands in for */
+    private synchronized int update(long tgId, UnaryOperator<User> change) {
+        User u = users.get(tgId);
+        if (u == null) return 0;
+        User changed = change.apply(u);
+        users.put(tgId, changed);
+        if (changed.stage != u.stage) {
+            add(u.stage.name(), -1);
+            reached(changed.stage.name());
+        }
+        if (changed.chooseTimeClicked && !u.chooseTimeClicked) reached(FunnelStats.CHOOSE_TIME_CLICKED);
+        return 1;
+    }
+
+    private void reached(String key) {
+        add(key, 1);
+        add(LocalDate.now(ZoneOffset.UTC) + " " + key, 1);
+    }
+
+    private void add(String key, long n) {
+        funnel.merge(key, n, Long::sum);
+    }
+}
@@ -0,0 +1,81 @@
+package com.hypnofaq.bot.store.mvstore;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.model.UserStage;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of a {@link Broadcast} in the MVStore "broadcasts" map.
+ */
+final class BroadcastType extends BasicDataType<Broadcast> {
+    static final BroadcastType INSTANCE = new BroadcastType();
+
+    private static final int HAS_STAGE = 1;
+    private static final int HAS_SUBSCRIBED = 2;
+    private static final int SUBSCRIBED = 4;
+    private static final int HAS_START_PARAM = 8;
+    private static final int HAS_FINISHED_AT = 16;
+
+    @Override
+    public int getMemory(Broadcast b) {
+        return 128 + 2 * b.text.length();
+    }
+
+    @Override
+    public void write(WriteBuffer buf, Broadcast b) {
+        Audience a = b.audience;
+        int flags = (a.stage != null ? HAS_STAGE : 0)
+                | (a.subscribed != null ? HAS_SUBSCRIBED : 0)
+                | (Boolean.TRUE.equals(a.subscribed) ? SUBSCRIBED : 0)
+                | (a.startParam != null ? HAS_START_PARAM : 0)
+                | (b.finishedAt != null ? HAS_FINISHED_AT : 0);
+        buf.putVarLong(b.id);
+        StringCodec.write(buf, b.text);
+        StringCodec.write(buf, b.status.name());
+        buf.putVarLong(b.total);
+        buf.putVarLong(b.cursor);
+        buf.putVarLong(b.sent);
+        buf.putVarLong(b.blocked);
+        buf.putVarLong(b.failed);
+        buf.putVarLong(b.createdBy);
+        buf.putVarLong(b.createdAt);
+        buf.putVarLong(b.updatedAt);
+        buf.putVarInt(flags);
+        if (a.stage != null) StringCodec.write(buf, a.stage.name());
+        if (a.startParam != null) StringCodec.write(buf, a.startParam);
+        if (b.finishedAt != null) buf.putVarLong(b.finishedAt);
+    }
+
+    @Override
+    public Broadcast read(ByteBuffer buf) {
+        long id = DataUtils.readVarLong(buf);
+        String text = DataUtils.readString(buf);
+        BroadcastStatus status = BroadcastStatus.valueOf(DataUtils.readString(buf));
+        long total = DataUtils.readVarLong(buf);
+        long cursor = DataUtils.readVarLong(buf);
+        long sent = DataUtils.readVarLong(buf);
+        long blocked = DataUtils.readVarLong(buf);
+        long failed = DataUtils.readVarLong(buf);
+        long createdBy = DataUtils.readVarLong(buf);
+        long createdAt = DataUtils.readVarLong(buf);
+        long updatedAt = DataUtils.readVarLong(buf);
+        int flags = DataUtils.readVarInt(buf);
+        UserStage stage = (flags & HAS_STAGE) != 0 ? UserStage.valueOf(DataUtils.readString(buf)) : null;
+        Boolean subscribed = (flags & HAS_SUBSCRIBED) != 0 ? Boolean.valueOf((flags & SUBSCRIBED) != 0) : null;
+        String startParam = (flags & HAS_START_PARAM) != 0 ? DataUtils.readString(buf) : null;
+        Long finishedAt = (flags & HAS_FINISHED_AT) != 0 ? DataUtils.readVarLong(buf) : null;
+        return new Broadcast(id, text, new Audience(stage, subscribed, startParam), status, total, cursor,
+                sent, blocked, failed, createdBy, createdAt, updatedAt, finishedAt);
+    }
+
+    @Override
+    public Broadcast[] createStorage(int size) {
+        return new Broadcast[size];
+    }
+}
@@ -0,0 +1,75 @@
+package com.hypnofaq.bot.store.mvstore;
+
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.store.memory.JobRow;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of a {@link JobRow} in the MVStore "jobs" map.
+ */
+final class JobRowType extends BasicDataType<JobRow> {
+    static final JobRowType INSTANCE = new JobRowType();
+
+    private static final int HAS_PAYLOAD = 1;
+    private static final int HAS_LAST_ERROR = 2;
+    private static final int HAS_LEASE_OWNER = 4;
+    private static final int HAS_LEASE_UNTIL = 8;
+
+    @Override
+    public int getMemory(JobRow r) {
+        return 96 + 2 * (len(r.payload) + len(r.lastError) + len(r.leaseOwner));
+    }
+
+    @Override
+    public void write(WriteBuffer buf, JobRow r) {
+        int flags = (r.payload != null ? HAS_PAYLOAD : 0)
+                | (r.lastError != null ? HAS_LAST_ERROR : 0)
+                | (r.leaseOwner != null ? HAS_LEASE_OWNER : 0)
+                | (r.leaseUntil != null ? HAS_LEASE_UNTIL : 0);
+        buf.putVarLong(r.id);
+        buf.putVarLong(r.tgId);
+        StringCodec.write(buf, r.type.name());
+        buf.putVarLong(r.runAt);
+        StringCodec.write(buf, r.status);
+        buf.putVarInt(r.attempts);
+        buf.putVarLong(r.createdAt);
+        buf.putVarLong(r.updatedAt);
+        buf.putVarInt(flags);
+        if (r.payload != null) StringCodec.write(buf, r.payload);
+        if (r.lastError != null) StringCodec.write(buf, r.lastError);
+        if (r.leaseOwner != null) StringCodec.write(buf, r.leaseOwner);
+        if (r.leaseUntil != null) buf.putVarLong(r.leaseUntil);
+    }
+
+    @Override
+    public JobRow read(ByteBuffer buf) {
+        long id = DataUtils.readVarLong(buf);
+        long tgId = DataUtils.readVarLong(buf);
+        JobType type = JobType.valueOf(DataUtils.readString(buf));
+        long runAt = DataUtils.readVarLong(buf);
+        String status = DataUtils.readString(buf);
+        int attempts = DataUtils.readVarInt(buf);
+        long createdAt = DataUtils.readVarLong(buf);
+        long updatedAt = DataUtils.readVarLong(buf);
+        int flags = DataUtils.readVarInt(buf);
+        String payload = (flags & HAS_PAYLOAD) != 0 ? DataUtils.readString(buf) : null;
+        String lastError = (flags & HAS_LAST_ERROR) != 0 ? DataUtils.readString(buf) : null;
+        String leaseOwner = (flags & HAS_LEASE_OWNER) != 0 ? DataUtils.readString(buf) : null;
+        Long leaseUntil = (flags & HAS_LEASE_UNTIL) != 0 ? DataUtils.readVarLong(buf) : null;
+        return new JobRow(id, tgId, type, runAt, payload, status, attempts, lastError, createdAt, updatedAt,
+                leaseOwner, leaseUntil);
+    }
+
+    @Override
+    public JobRow[] createStorage(int size) {
+        return new JobRow[size];
+    }
+
+    private static int len(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
@@ -0,0 +1,88 @@
+package com.hypnofaq.bot.store.mvstore;
+
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.store.BroadcastStore;
+import com.hypnofaq.bot.store.FileIdStore;
+import com.hypnofaq.bot.store.JobStore;
+import com.hypnofaq.bot.store.Storage;
+import com.hypnofaq.bot.store.UserStore;
+import com.hypnofaq.bot.store.memory.JobRow;
+import com.hypnofaq.bot.store.memory.MemoryBroadcastStore;
+import com.hypnofaq.bot.store.memory.MemoryFileIdStore;
+import com.hypnofaq.bot.store.memory.MemoryJobStore;
+import com.hypnofaq.bot.store.memory.MemoryUserStore;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.type.LongDataType;
+import org.h2.mvstore.type.StringDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded H2 MVStore backend: the map-based stores over persistent MVMaps in one file.
+ * MVStore commits in the background every {@code autoCommitMillis}, so a crash loses at
+ * most that much of the latest writes (comparable to SQLite with synchronous=OFF).
+ */
+public final class MvStoreStorage implements Storage {
+    private static final Logger log = LoggerFactory.getLogger(MvStoreStorage.class);
+
+    private final MVStore store;
+    private final MemoryUserStore users;
+    private final MemoryJobStore jobs;
+    private final MemoryFileIdStore fileIds;
+    private final MemoryBroadcastStore broadcasts;
+
+    public MvStoreStorage(String path, int autoCommitMillis) {
+        this.store = new MVStore.Builder()
+                .fileName(path)
+                .compress()
+                .open();
+        store.setAutoCommitDelay(Math.max(1, autoCommitMillis));
+
+        MVMap<Long, User> userMap = store.openMap("users",
+                new MVMap.Builder<Long, User>().keyType(LongDataType.INSTANCE).valueType(UserType.INSTANCE));
+        MVMap<Long, JobRow> jobMap = store.openMap("jobs",
+                new MVMap.Builder<Long, JobRow>().keyType(LongDataType.INSTANCE).valueType(JobRowType.INSTANCE));
+        MVMap<Long, JobRow> jobArchiveMap = store.openMap("jobs_archive",
+                new MVMap.Builder<Long, JobRow>().keyType(LongDataType.INSTANCE).valueType(JobRowType.INSTANCE));
+        MVMap<String, Long> funnelMap = store.openMap("funnel",
+                new MVMap.Builder<String, Long>().keyType(StringDataType.INSTANCE).valueType(LongDataType.INSTANCE));
+        MVMap<String, String> fileIdMap = store.openMap("file_cache",
+                new MVMap.Builder<String, String>().keyType(StringDataType.INSTANCE).valueType(StringDataType.INSTANCE));
+        MVMap<Long, Broadcast> broadcastMap = store.openMap("broadcasts",
+                new MVMap.Builder<Long, Broadcast>().keyType(LongDataType.INSTANCE).valueType(BroadcastType.INSTANCE));
+
+        this.users = new MemoryUserStore(userMap, funnelMap, after -> userMap.keyIterator(after + 1));
+        this.jobs = new MemoryJobStore(jobMap, jobArchiveMap, users);
+        this.fileIds = new MemoryFileIdStore(fileIdMap);
+        this.broadcasts = new MemoryBroadcastStore(broadcastMap);
+        log.info("MVStore opened: {} ({} users, {} jobs)", path, userMap.size(), jobMap.size());
+    }
+
+    @Override
+    public UserStore users() {
+        return users;
+    }
+
+    @Override
+    public JobStore jobs() {
+        return jobs;
+    }
+
+    @Override
+    public FileIdStore fileIds() {
+        return fileIds;
+    }
+
+    @Override
+    public BroadcastStore broadcasts() {
+        return broadcasts;
+    }
+
+    @Override
+    public void close() {
+        store.close();
+        log.info("MVStore closed.");
+    }
+}
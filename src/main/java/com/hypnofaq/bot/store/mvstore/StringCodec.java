@@ -0,0 +1,12 @@
+package com.hypnofaq.bot.store.mvstore;
+
+import org.h2.mvstore.WriteBuffer;
+
+final class StringCodec {
+    private StringCodec() {}
+
+    /** Same layout as MVStore's own strings, read back with {@code DataUtils.readString}. */
+    static void write(WriteBuffer buf, String s) {
+        buf.putVarInt(s.length()).putStringData(s, s.length());
+    }
+}
@@ -0,0 +1,64 @@
+package com.hypnofaq.bot.store.mvstore;
+
+import com.hypnofaq.bot.model.User;
+import com.hypnofaq.bot.model.UserStage;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of a {@link User} in the MVStore "users" map.
+ */
+final class UserType extends BasicDataType<User> {
+    static final UserType INSTANCE = new UserType();
+
+    private static final int SUBSCRIBED = 1;
+    private static final int CHOOSE_TIME_CLICKED = 2;
+    private static final int HAS_PRACTICE_SENT = 4;
+    private static final int HAS_CHECKUP_SENT = 8;
+    private static final int HAS_START_PARAM = 16;
+
+    @Override
+    public int getMemory(User u) {
+        return 64 + (u.startParam != null ? 2 * u.startParam.length() : 0);
+    }
+
+    @Override
+    public void write(WriteBuffer buf, User u) {
+        int flags = (u.subscribed ? SUBSCRIBED : 0)
+                | (u.chooseTimeClicked ? CHOOSE_TIME_CLICKED : 0)
+                | (u.practiceSentAt != null ? HAS_PRACTICE_SENT : 0)
+                | (u.checkupSentAt != null ? HAS_CHECKUP_SENT : 0)
+                | (u.startParam != null ? HAS_START_PARAM : 0);
+        buf.putVarLong(u.tgId);
+        StringCodec.write(buf, u.stage.name());
+        buf.putVarInt(flags);
+        if (u.practiceSentAt != null) buf.putVarLong(u.practiceSentAt);
+        if (u.checkupSentAt != null) buf.putVarLong(u.checkupSentAt);
+        if (u.startParam != null) StringCodec.write(buf, u.startParam);
+    }
+
+    @Override
+    public User read(ByteBuffer buf) {
+        long tgId = DataUtils.readVarLong(buf);
+        UserStage stage;
+        try {
+            stage = UserStage.valueOf(DataUtils.readString(buf));
+        } catch (Exception ignored) {
+            stage = UserStage.NEW;
+        }
+        int flags = DataUtils.readVarInt(buf);
+        Long practiceSentAt = (flags & HAS_PRACTICE_SENT) != 0 ? DataUtils.readVarLong(buf) : null;
+        Long checkupSentAt = (flags & HAS_CHECKUP_SENT) != 0 ? DataUtils.readVarLong(buf) : null;
+        String startParam = (flags & HAS_START_PARAM) != 0 ? DataUtils.readString(buf) : null;
+        return new User(tgId, stage, (flags & SUBSCRIBED) != 0, practiceSentAt, checkupSentAt,
+                (flags & CHOOSE_TIME_CLICKED) != 0, startParam);
+    }
+
+    @Override
+    public User[] createStorage(int size) {
+        return new User[size];
+    }
+}
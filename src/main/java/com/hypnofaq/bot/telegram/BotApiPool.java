@@ -0,0 +1,43 @@
+package com.hypnofaq.bot.telegram;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.telegram.telegrambots.bots.DefaultAbsSender;
+
+import java.lang.reflect.Field;
+
+/**
+ * Sizes the connection pool of the HTTP client TelegramBots builds for a bot.
+ * <p>
+ * {@link DefaultAbsSender} creates its own Apache client with a pooling connection manager
+ * left at two connections per host, and neither {@code DefaultBotOptions} nor a constructor
+ * lets us pass another one. The manager itself is resizable at runtime, so it is reached
+ * through the client's fields; if that ever stops working (a TelegramBots upgrade) startup
+ * fails instead of silently running with the default two.
+ */
+public final class BotApiPool {
+    private BotApiPool() {
+    }
+
+    /** Lets {@code sender} keep up to {@code maxPerRoute} Bot API connections open at once. */
+    public static void resize(DefaultAbsSender sender, int maxPerRoute) {
+        Object client = field(DefaultAbsSender.class, "httpClient", sender);
+        Object manager = field(client.getClass(), "connManager", client);
+        if (!(manager instanceof PoolingHttpClientConnectionManager pool)) {
+            throw new IllegalStateException("TelegramBots HTTP client has no connection pool: " + manager);
+        }
+        pool.setMaxTotal(Math.max(pool.getMaxTotal(), maxPerRoute));
+        pool.setDefaultMaxPerRoute(maxPerRoute);
+    }
+
+    private static Object field(Class<?> type, String name, Object target) {
+        try {
+            Field f = type.getDeclaredField(name);
+            f.setAccessible(true);
+            Object value = f.get(target);
+            if (value == null) throw new IllegalStateException(type.getName() + "." + name + " is null");
+            return value;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("Cannot size the TelegramBots connection pool (" + type.getName() + "." + name + ")", e);
+        }
+    }
+}
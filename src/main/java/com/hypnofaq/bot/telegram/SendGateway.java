@@ -0,0 +1,236 @@
+package com.hypnofaq.bot.telegram;
+
+import com.hypnofaq.bot.jfr.TelegramCallEvent;
+import com.hypnofaq.bot.metrics.Histogram;
+import com.hypnofaq.bot.metrics.Metrics;
+import com.hypnofaq.bot.scheduler.FailureKind;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single exit point for Telegram API calls.
+ * <p>
+ * Message sends ({@link #send}) are paced by a global token bucket (Telegram allows about
+ * 30 msg/s per bot) and a per-chat bucket (about 1 msg/s per chat, with a small burst).
+ * Other calls ({@link #call}: answerCallbackQuery, getChatMember, ...) are not paced but
+ * still wait out a global pause. Broadcast messages ({@link #sendBulk}) additionally go through
+ * a bulk bucket set below the global rate, so the funnel keeps the difference. A 429 pauses the bucket it was hit on for
+ * {@code retry_after} and the call is retried if the pause is short enough; otherwise the
+ * exception is rethrown so the caller (e.g. the job scheduler) can reschedule.
+ * <p>
+ * At most {@code maxConnections} calls are on the wire at once, the same number the bot's
+ * HTTP pool is sized to ({@link BotApiPool}, {@code TG_MAX_CONNECTIONS}). A virtual thread
+ * waiting for a connection inside the pool pins its carrier; enough of them pin every carrier
+ * and the threads holding connections can never finish. Waiting on a semaphore here instead
+ * unmounts the thread, and the pool then always has a connection free for it.
+ */
+public final class SendGateway {
+    private static final Logger log = LoggerFactory.getLogger(SendGateway.class);
+
+    private static final long IDLE_BUCKET_NANOS = TimeUnit.MINUTES.toNanos(5);
+    private static final int SWEEP_EVERY = 4096;
+    private static final Histogram CALL_SECONDS = Metrics.histogram("hypnobot_telegram_call_seconds",
+            "Bot API call latency by method and outcome (ok or the failure kind), one sample per attempt.",
+            "method", "outcome");
+
+    public interface TelegramCall<T> {
+        T call() throws TelegramApiException;
+    }
+
+    private final TokenBucket global;
+    private final TokenBucket bulk;
+    private final double chatRate;
+    private final int chatBurst;
+    private final int maxRetries;
+    private final long maxRetryWaitNanos;
+    private final ConcurrentHashMap<Long, TokenBucket> chats = new ConcurrentHashMap<>();
+    private final Semaphore connections;
+
+    // metrics
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder sends = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder tooManyRequests = new LongAdder();
+
+    public SendGateway(double globalRate, int globalBurst, double chatRate, int chatBurst,
+                       int maxRetries, int maxRetryWaitSeconds, double bulkRate, int maxConnections) {
+        this.global = new TokenBucket(globalRate, globalBurst);
+        this.bulk = new TokenBucket(bulkRate, 1);
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.maxRetryWaitNanos = TimeUnit.SECONDS.toNanos(Math.max(0, maxRetryWaitSeconds));
+        this.connections = new Semaphore(Math.max(1, maxConnections), true);
+    }
+
+    /**
+     * A message to {@code chatId}: paced by the chat's bucket and the global bucket.
+     *
+     * @param method Bot API method name, for metrics
+     */
+    public <T> T send(long chatId, String method, TelegramCall<T> call) throws TelegramApiException {
+        sends.increment();
+        if (sends.sum() % SWEEP_EVERY == 0) sweepIdleBuckets();
+
+        TokenBucket chat = chats.computeIfAbsent(chatId, id -> new TokenBucket(chatRate, chatBurst));
+        for (int attempt = 0; ; attempt++) {
+            // chat first: don't hold a global slot while waiting for a slow chat
+            await(chat.reserve());
+            await(global.reserve());
+            try {
+                return onConnection(chatId, method, call);
+            } catch (TelegramApiRequestException e) {
+                long pause = retryAfterNanos(e);
+                if (pause < 0) throw e;
+                chat.pause(pause);
+                if (attempt >= maxRetries || pause > maxRetryWaitNanos) throw e;
+                log.debug("429 for chat {}, retrying in {}s", chatId, TimeUnit.NANOSECONDS.toSeconds(pause));
+            }
+        }
+    }
+
+    /** A message of a broadcast: waits for the bulk bucket, then goes as {@link #send}. */
+    public <T> T sendBulk(long chatId, String method, TelegramCall<T> call) throws TelegramApiException {
+        await(bulk.reserve());
+        return send(chatId, method, call);
+    }
+
+    /** A non-message API call: not paced, but honours a global 429 pause. */
+    public <T> T call(String method, TelegramCall<T> call) throws TelegramApiException {
+        calls.increment();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return onConnection(0, method, call);
+            } catch (TelegramApiRequestException e) {
+                long pause = retryAfterNanos(e);
+                if (pause < 0) throw e;
+                global.pause(pause);
+                if (attempt >= maxRetries || pause > maxRetryWaitNanos) throw e;
+                await(global.reserve());
+            }
+        }
+    }
+
+    /** Threads currently sleeping for a token. */
+    public int queueDepth() {
+        return waiting.get();
+    }
+
+    public Stats stats() {
+        return new Stats(
+                sends.sum(),
+                calls.sum(),
+                waiting.get(),
+                delayed.sum(),
+                TimeUnit.NANOSECONDS.toMillis(waitNanos.sum()),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()),
+                tooManyRequests.sum(),
+                chats.size()
+        );
+    }
+
+    private <T> T onConnection(long chatId, String method, TelegramCall<T> call) throws TelegramApiException {
+        try {
+            connections.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException("Interrupted while waiting for a connection", e);
+        }
+        TelegramCallEvent event = new TelegramCallEvent();
+        event.begin();
+        long started = System.nanoTime();
+        String outcome = "ok";
+        try {
+            return call.call();
+        } catch (TelegramApiException | RuntimeException e) {
+            outcome = FailureKind.classify(e).name().toLowerCase(Locale.ROOT);
+            throw e;
+        } finally {
+            connections.release();
+            CALL_SECONDS.observeSince(started, method, outcome);
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = method;
+                event.chatId = chatId;
+                event.outcome = outcome;
+                event.commit();
+            }
+        }
+    }
+
+    private long retryAfterNanos(TelegramApiRequestException e) {
+        if (e.getErrorCode() == null || e.getErrorCode() != 429) return -1;
+        tooManyRequests.increment();
+        Integer retryAfter = e.getParameters() != null ? e.getParameters().getRetryAfter() : null;
+        return TimeUnit.SECONDS.toNanos(retryAfter != null && retryAfter > 0 ? retryAfter : 1);
+    }
+
+    private void await(long nanos) throws TelegramApiException {
+        if (nanos <= 0) return;
+        delayed.increment();
+        waitNanos.add(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        waiting.incrementAndGet();
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TelegramApiException("Interrupted while rate limited", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void sweepIdleBuckets() {
+        long now = System.nanoTime();
+        chats.values().removeIf(b -> b.idleNanos(now) > IDLE_BUCKET_NANOS);
+    }
+
+    public static final class Stats {
+        public final long sends;
+        public final long calls;
+        public final int queueDepth;
+        public final long delayed;
+        public final long totalWaitMillis;
+        public final long maxWaitMillis;
+        public final long tooManyRequests;
+        public final int chatBuckets;
+
+        Stats(long sends, long calls, int queueDepth, long delayed, long totalWaitMillis, long maxWaitMillis,
+              long tooManyRequests, int chatBuckets) {
+            this.sends = sends;
+            this.calls = calls;
+            this.queueDepth = queueDepth;
+            this.delayed = delayed;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.tooManyRequests = tooManyRequests;
+            this.chatBuckets = chatBuckets;
+        }
+
+        @Override
+        public String toString() {
+            return "sends=" + sends +
+                    ", calls=" + calls +
+                    ", queueDepth=" + queueDepth +
+                    ", delayed=" + delayed +
+                    ", totalWaitMs=" + totalWaitMillis +
+                    ", maxWaitMs=" + maxWaitMillis +
+                    ", 429s=" + tooManyRequests +
+                    ", chatBuckets=" + chatBuckets;
+        }
+    }
+}
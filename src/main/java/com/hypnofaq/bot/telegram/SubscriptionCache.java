@@ -0,0 +1,102 @@
+package com.hypnofaq.bot.telegram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Bounded LRU + TTL cache of "is this user subscribed to the channel", in front of
+ * {@code GetChatMember}.
+ * <p>
+ * Positive answers live long: an unsubscribe arrives as a {@code chat_member} update (when
+ * the bot is a channel admin) and overwrites the entry. Negative answers live briefly,
+ * because the user is usually about to subscribe; the "check" tap ignores them and asks
+ * Telegram again.
+ */
+public final class SubscriptionCache {
+    private static final class Entry {
+        final boolean subscribed;
+        final long expiresAt;
+
+        Entry(boolean subscribed, long expiresAt) {
+            this.subscribed = subscribed;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long positiveTtlMillis;
+    private final long negativeTtlMillis;
+    private final LinkedHashMap<Long, Entry> map;
+
+    private long hits;
+    private long misses;
+    private long memberUpdates;
+
+    public SubscriptionCache(int maxSize, long positiveTtlMillis, long negativeTtlMillis) {
+        this.maxSize = Math.max(1, maxSize);
+        this.positiveTtlMillis = Math.max(0, positiveTtlMillis);
+        this.negativeTtlMillis = Math.max(0, negativeTtlMillis);
+        this.map = new LinkedHashMap<>(Math.min(this.maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > SubscriptionCache.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized Optional<Boolean> get(long userId) {
+        Entry e = map.get(userId);
+        if (e == null || e.expiresAt <= System.currentTimeMillis()) {
+            if (e != null) map.remove(userId);
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(e.subscribed);
+    }
+
+    /** Result of a {@code GetChatMember} call. */
+    public synchronized void put(long userId, boolean subscribed) {
+        long ttl = subscribed ? positiveTtlMillis : negativeTtlMillis;
+        if (ttl == 0) {
+            map.remove(userId);
+            return;
+        }
+        map.put(userId, new Entry(subscribed, System.currentTimeMillis() + ttl));
+    }
+
+    /** Membership change pushed by Telegram; as fresh as it gets. */
+    public synchronized void onMemberUpdate(long userId, boolean subscribed) {
+        memberUpdates++;
+        put(userId, subscribed);
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(map.size(), maxSize, hits, misses, memberUpdates);
+    }
+
+    public static final class Stats {
+        public final int size;
+        public final int maxSize;
+        public final long hits;
+        public final long misses;
+        public final long memberUpdates;
+
+        Stats(int size, int maxSize, long hits, long misses, long memberUpdates) {
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hits = hits;
+            this.misses = misses;
+            this.memberUpdates = memberUpdates;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size + "/" + maxSize +
+                    ", hits=" + hits +
+                    ", misses=" + misses +
+                    ", memberUpdates=" + memberUpdates;
+        }
+    }
+}
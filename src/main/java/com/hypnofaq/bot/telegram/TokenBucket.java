@@ -0,0 +1,57 @@
+package com.hypnofaq.bot.telegram;
+
+/**
+ * Reservation-style token bucket: {@link #reserve()} always takes a token (the balance may
+ * go negative) and returns how long the caller must wait before using it. Callers are thus
+ * served in arrival order without a separate queue.
+ */
+final class TokenBucket {
+    private final double ratePerNano;
+    private final double capacity;
+
+    private double tokens;
+    // may lie in the future while the bucket is paused
+    private long lastRefill;
+    private volatile long lastUsed;
+
+    TokenBucket(double ratePerSecond, int burst) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+        this.lastUsed = lastRefill;
+    }
+
+    /** @return nanoseconds to wait before the reserved token may be used */
+    synchronized long reserve() {
+        long now = System.nanoTime();
+        lastUsed = now;
+        if (now > lastRefill) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * ratePerNano);
+            lastRefill = now;
+        }
+        tokens -= 1;
+
+        long wait = Math.max(0, lastRefill - now);
+        if (tokens < 0) {
+            wait += (long) Math.ceil(-tokens / ratePerNano);
+        }
+        return wait;
+    }
+
+    /**
+     * Lets nothing through for {@code nanos} from now (Telegram's retry_after), then resumes
+     * at the normal rate with a single token instead of a full burst.
+     */
+    synchronized void pause(long nanos) {
+        long resumeAt = System.nanoTime() + nanos;
+        if (resumeAt > lastRefill) {
+            lastRefill = resumeAt;
+            tokens = 1;
+        }
+    }
+
+    long idleNanos(long now) {
+        return now - lastUsed;
+    }
+}
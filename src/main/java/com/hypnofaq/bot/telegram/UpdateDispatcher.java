@@ -0,0 +1,111 @@
+package com.hypnofaq.bot.telegram;
+
+import com.hypnofaq.bot.concurrent.KeyedSerialExecutor;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Processes updates concurrently on virtual threads so one slow Bot API call doesn't hold
+ * up other users. Updates of the same chat go through a per-chat mailbox and are handled
+ * strictly in arrival order; at most {@code maxConcurrency} updates are handled at once.
+ */
+public final class UpdateDispatcher {
+    private final Consumer<Update> handler;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final KeyedSerialExecutor perChat = new KeyedSerialExecutor(executor);
+
+    private final Map<UpdateKeys.Kind, KindStats> stats = new EnumMap<>(UpdateKeys.Kind.class);
+
+    public UpdateDispatcher(Consumer<Update> handler, int maxConcurrency) {
+        this.handler = handler;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.permits = new Semaphore(this.maxConcurrency);
+        for (UpdateKeys.Kind k : UpdateKeys.Kind.values()) stats.put(k, new KindStats());
+    }
+
+    public void dispatch(Update update) {
+        long enqueuedAt = System.nanoTime();
+        KindStats ks = stats.get(UpdateKeys.kind(update));
+        perChat.execute(UpdateKeys.chatId(update), () -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                ks.record(System.nanoTime() - enqueuedAt);
+                handler.accept(update);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /** Lets running updates finish, for up to {@code timeoutSeconds}. */
+    public void stop(int timeoutSeconds) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutSeconds, TimeUnit.SECONDS)) executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Stats stats() {
+        StringBuilder perKind = new StringBuilder();
+        for (Map.Entry<UpdateKeys.Kind, KindStats> e : stats.entrySet()) {
+            KindStats ks = e.getValue();
+            long n = ks.count.sum();
+            if (n == 0) continue;
+            if (perKind.length() > 0) perKind.append(", ");
+            perKind.append(e.getKey().name().toLowerCase())
+                    .append("{n=").append(n)
+                    .append(", avgQueueMs=").append(String.format("%.2f", ks.queueNanos.sum() / 1e6 / n))
+                    .append(", maxQueueMs=").append(String.format("%.2f", ks.maxQueueNanos.get() / 1e6))
+                    .append('}');
+        }
+        return new Stats(maxConcurrency - permits.availablePermits(), perChat.activeKeys(), perKind.toString());
+    }
+
+    private static final class KindStats {
+        final LongAdder count = new LongAdder();
+        final LongAdder queueNanos = new LongAdder();
+        final AtomicLong maxQueueNanos = new AtomicLong();
+
+        void record(long queued) {
+            count.increment();
+            queueNanos.add(queued);
+            maxQueueNanos.accumulateAndGet(queued, Math::max);
+        }
+    }
+
+    public static final class Stats {
+        public final int inFlight;
+        public final int activeChats;
+        public final String perKind;
+
+        Stats(int inFlight, int activeChats, String perKind) {
+            this.inFlight = inFlight;
+            this.activeChats = activeChats;
+            this.perKind = perKind;
+        }
+
+        @Override
+        public String toString() {
+            return "inFlight=" + inFlight + ", activeChats=" + activeChats + ", " + perKind;
+        }
+    }
+}
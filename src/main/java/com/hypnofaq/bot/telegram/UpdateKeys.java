@@ -0,0 +1,46 @@
+package com.hypnofaq.bot.telegram;
+
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+/**
+ * What an update is about: its kind (for metrics) and the chat whose updates must be
+ * processed in order.
+ */
+public final class UpdateKeys {
+    private UpdateKeys() {}
+
+    public enum Kind {
+        MESSAGE,
+        CALLBACK_QUERY,
+        CHAT_MEMBER,
+        MY_CHAT_MEMBER,
+        OTHER
+    }
+
+    public static Kind kind(Update u) {
+        if (u.hasMessage()) return Kind.MESSAGE;
+        if (u.hasCallbackQuery()) return Kind.CALLBACK_QUERY;
+        if (u.getChatMember() != null) return Kind.CHAT_MEMBER;
+        if (u.getMyChatMember() != null) return Kind.MY_CHAT_MEMBER;
+        return Kind.OTHER;
+    }
+
+    /**
+     * The private chat the update belongs to. Channel membership changes are keyed by the
+     * member, whose private chat is what they affect. 0 for updates without one (all such
+     * updates share a queue).
+     */
+    public static long chatId(Update u) {
+        if (u.hasMessage()) return u.getMessage().getChatId();
+        if (u.hasCallbackQuery()) {
+            if (u.getCallbackQuery().getMessage() != null) return u.getCallbackQuery().getMessage().getChatId();
+            return u.getCallbackQuery().getFrom().getId();
+        }
+        if (u.getChatMember() != null && u.getChatMember().getNewChatMember() != null) {
+            return u.getChatMember().getNewChatMember().getUser().getId();
+        }
+        if (u.getMyChatMember() != null && u.getMyChatMember().getChat() != null) return u.getMyChatMember().getChat().getId();
+        if (u.hasEditedMessage()) return u.getEditedMessage().getChatId();
+        return 0;
+    }
+}
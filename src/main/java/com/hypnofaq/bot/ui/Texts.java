@@ -1,5 +1,15 @@
 package com.hypnofaq.bot.ui;
 
+import com.hypnofaq.bot.broadcast.Broadcaster;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.model.UserStage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
 public final class Texts {
     private Texts() {
     }
@@ -134,4 +144,85 @@ public final class Texts {
             
             Этот выбор за тебя никто не сделает. Изменения начинаются с личного твердого НАМЕРЕНИЯ…
             """;
+
+    /* ---------------------------
+       Admin
+       --------------------------- */
+
+    /** /stats: users per stage now, and how many reached each stage in the window and today. */
+    public static String funnelStats(FunnelStats stats, int days) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<b>Воронка</b>, пользователей: ").append(stats.users).append('\n');
+        sb.append("<pre>");
+        sb.append(String.format("%-20s %7s %7s %7s%n", "этап", "сейчас", days + " дн.", "сегодня"));
+        for (Map.Entry<UserStage, Long> e : stats.stages.entrySet()) {
+            String stage = e.getKey().name();
+            sb.append(String.format("%-20s %7d %7d %7d%n", stage, e.getValue(),
+                    stats.reached(stage), stats.reachedOnLastDay(stage)));
+        }
+        sb.append(String.format("%-20s %7d %7d %7d%n", "CHOOSE_TIME_CLICKED", stats.chooseTimeClicked,
+                stats.reached(FunnelStats.CHOOSE_TIME_CLICKED), stats.reachedOnLastDay(FunnelStats.CHOOSE_TIME_CLICKED)));
+        sb.append("</pre>");
+        sb.append("«Сейчас» для CHOOSE_TIME_CLICKED — нажавшие за всё время. Дни считаются по UTC.");
+        return sb.toString();
+    }
+
+    public static final String BROADCAST_HELP = """
+            <b>Рассылка</b>
+            <code>/broadcast фильтр</code>, а со второй строки — текст сообщения (HTML, как в Telegram).
+            Фильтр: <code>all</code>, <code>stage=READY</code>, <code>subscribed</code> или <code>subscribed=no</code>, <code>start=метка</code>; условия можно сочетать через пробел.
+            
+            <code>/broadcasts</code> — последние рассылки
+            <code>/broadcast_start N</code> — запустить или продолжить
+            <code>/broadcast_pause N</code> — приостановить
+            <code>/broadcast_cancel N</code> — отменить
+            """;
+
+    /** Goes right after the preview message, which is exactly what recipients will get. */
+    public static String broadcastCreated(Broadcast b) {
+        return "Выше — сообщение так, как его увидят получатели.\n\n" +
+                "<b>Рассылка #" + b.id + "</b> (" + escape(b.audience.toString()) + "): получателей сейчас " + b.total + ".\n" +
+                "Запустить: /broadcast_start " + b.id + "\n" +
+                "Отменить: /broadcast_cancel " + b.id;
+    }
+
+    public static String broadcastRejected(String reason) {
+        return "Telegram не принял текст, рассылка не создана:\n<code>" + escape(reason) + "</code>";
+    }
+
+    public static String broadcastBadAudience(String reason) {
+        return "Не понял фильтр: " + escape(reason) + "\n\n" + BROADCAST_HELP;
+    }
+
+    /** Reply to /broadcast_start, _pause and _cancel. */
+    public static String broadcastTransition(long id, BroadcastStatus to, boolean ok) {
+        return ok
+                ? "Рассылка #" + id + ": " + to.name()
+                : "Рассылку #" + id + " нельзя перевести в " + to.name() + " (нет такой или уже в другом состоянии).";
+    }
+
+    /** /broadcasts: the latest broadcasts, with rate and ETA for the one being sent. */
+    public static String broadcasts(List<Broadcast> list, Optional<Broadcaster.Progress> progress) {
+        if (list.isEmpty()) return "Рассылок пока не было.\n\n" + BROADCAST_HELP;
+        StringBuilder sb = new StringBuilder();
+        sb.append("<b>Рассылки</b>\n<pre>");
+        sb.append(String.format("%4s %-9s %15s %7s %7s %7s%n", "#", "статус", "обработано", "ушло", "блок", "ошибки"));
+        for (Broadcast b : list) {
+            sb.append(String.format("%4d %-9s %15s %7d %7d %7d%n", b.id, b.status.name(),
+                    b.processed() + "/" + b.total, b.sent, b.blocked, b.failed));
+        }
+        sb.append("</pre>");
+        progress.ifPresent(p -> {
+            sb.append(String.format("Сейчас идёт #%d: %d из %d, %.1f сообщ./с", p.broadcastId, p.processed, p.total,
+                    p.perSecond));
+            if (p.eta() != null) sb.append(", осталось ~").append(Broadcaster.Progress.formatDuration(p.eta()));
+            sb.append('\n');
+        });
+        sb.append("Счётчики в таблице — на последней контрольной точке.");
+        return sb.toString();
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
 }
@@ -0,0 +1,12 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.store.memory.MemoryStorage;
+
+import java.nio.file.Path;
+
+class MemoryStorageConformanceTest extends StorageConformanceTest {
+    @Override
+    protected Storage open(Path dir) {
+        return new MemoryStorage();
+    }
+}
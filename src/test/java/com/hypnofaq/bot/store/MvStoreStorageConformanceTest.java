@@ -0,0 +1,12 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.store.mvstore.MvStoreStorage;
+
+import java.nio.file.Path;
+
+class MvStoreStorageConformanceTest extends StorageConformanceTest {
+    @Override
+    protected Storage open(Path dir) {
+        return new MvStoreStorage(dir.resolve("bot.mv.db").toString(), 1000);
+    }
+}
@@ -0,0 +1,14 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.db.DbSettings;
+import com.hypnofaq.bot.db.SqliteStorage;
+import com.hypnofaq.bot.db.UserCache;
+
+import java.nio.file.Path;
+
+class SqliteStorageConformanceTest extends StorageConformanceTest {
+    @Override
+    protected Storage open(Path dir) {
+        return new SqliteStorage(dir.resolve("bot.db").toString(), DbSettings.defaults(), new UserCache(1000, 60_000));
+    }
+}
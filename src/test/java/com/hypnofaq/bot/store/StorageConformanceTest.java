@@ -0,0 +1,401 @@
+package com.hypnofaq.bot.store;
+
+import com.hypnofaq.bot.model.Audience;
+import com.hypnofaq.bot.model.Broadcast;
+import com.hypnofaq.bot.model.BroadcastStatus;
+import com.hypnofaq.bot.model.FunnelStats;
+import com.hypnofaq.bot.model.Job;
+import com.hypnofaq.bot.model.JobResult;
+import com.hypnofaq.bot.model.JobType;
+import com.hypnofaq.bot.model.UserStage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * What every {@link Storage} backend has to agree on. Each backend runs it through a subclass
+ * that opens a fresh, empty storage in {@code dir}.
+ */
+abstract class StorageConformanceTest {
+    private static final String OWNER = "a";
+    private static final String OTHER = "b";
+
+    @TempDir
+    Path dir;
+
+    Storage storage;
+    UserStore users;
+    JobStore jobs;
+
+    protected abstract Storage open(Path dir);
+
+    @BeforeEach
+    void setUp() {
+        storage = open(dir);
+        users = storage.users();
+        jobs = storage.jobs();
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+    }
+
+    private static long now() {
+        return System.currentTimeMillis();
+    }
+
+    private List<Job> claim(String owner) {
+        return jobs.claimDueJobs(now(), 100, owner, now() + 60_000);
+    }
+
+    /* ---------------------------
+       scheduleOnce
+       --------------------------- */
+
+    @Test
+    void scheduleOnceKeepsOneJobPerUserAndType() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, "first");
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 2000, "second");
+        jobs.scheduleOnce(1, JobType.SEND_VIDEO_PROMPT, now() - 500, null);
+
+        List<Job> claimed = claim(OWNER);
+        assertEquals(2, claimed.size());
+        Job checkup = claimed.get(0);
+        assertEquals(JobType.SEND_CHECKUP_PROMPT, checkup.type);
+        assertEquals("first", checkup.payload);
+        assertEquals(JobType.SEND_VIDEO_PROMPT, claimed.get(1).type);
+    }
+
+    @Test
+    void scheduleOnceSkipsJobsThatAreDoneOrArchived() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        Job job = claim(OWNER).get(0);
+        jobs.complete(job, OWNER, JobResult.NONE);
+
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        assertTrue(claim(OWNER).isEmpty(), "a DONE job still counts");
+
+        assertEquals(1, jobs.archiveFinished(now() + 60_000, 10));
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        assertTrue(claim(OWNER).isEmpty(), "an archived job still counts");
+        assertEquals(null, jobs.nextRunAt());
+    }
+
+    /* ---------------------------
+       Leases
+       --------------------------- */
+
+    @Test
+    void claimTakesDueJobsInRunAtOrder() {
+        users.ensureUsers(List.of(1L, 2L, 3L));
+        long now = now();
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now - 1000, null);
+        jobs.scheduleOnce(2, JobType.SEND_CHECKUP_PROMPT, now - 3000, null);
+        jobs.scheduleOnce(3, JobType.SEND_CHECKUP_PROMPT, now + 60_000, null);
+
+        assertEquals(now - 3000, jobs.nextRunAt());
+        List<Job> claimed = claim(OWNER);
+        assertEquals(List.of(2L, 1L), claimed.stream().map(j -> j.tgId).toList());
+        assertTrue(claim(OWNER).isEmpty(), "claimed jobs are not handed out again");
+        assertEquals(2L, jobs.countActive().get("RUNNING"));
+        assertEquals(1L, jobs.countActive().get("PENDING"));
+        assertEquals(now + 60_000, jobs.nextRunAt());
+    }
+
+    @Test
+    void claimSkipsUsersWithAJobRunningElsewhere() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 2000, null);
+        assertEquals(1, claim(OTHER).size());
+
+        jobs.scheduleOnce(1, JobType.SEND_VIDEO_PROMPT, now() - 1000, null);
+        assertTrue(claim(OWNER).isEmpty());
+        assertEquals(1, claim(OTHER).size(), "the owner of the running job may take the next one");
+    }
+
+    @Test
+    void renewExtendsOnlyTheOwnersLeases() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        long leaseUntil = now() + 1000;
+        Job job = jobs.claimDueJobs(now(), 10, OWNER, leaseUntil).get(0);
+
+        assertEquals(0, jobs.renewLeases(OTHER, List.of(job.id), now() + 60_000));
+        assertEquals(1, jobs.renewLeases(OWNER, List.of(job.id), now() + 60_000));
+        assertEquals(0, jobs.releaseExpiredLeases(leaseUntil + 1000), "renewed lease has not expired");
+    }
+
+    @Test
+    void expiredLeasesGoBackToPending() {
+        users.ensureUser(1);
+        long now = now();
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now - 1000, null);
+        Job job = jobs.claimDueJobs(now, 10, OWNER, now + 1000).get(0);
+
+        assertEquals(0, jobs.releaseExpiredLeases(now + 500));
+        assertEquals(1, jobs.releaseExpiredLeases(now + 2000));
+        List<Job> again = claim(OTHER);
+        assertEquals(1, again.size());
+        assertEquals(job.id, again.get(0).id);
+        assertEquals(now - 1000, again.get(0).runAt, "run_at is kept");
+    }
+
+    @Test
+    void releaseHandsBackOnlyTheOwnersJobs() {
+        users.ensureUsers(List.of(1L, 2L));
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        claim(OWNER);
+        jobs.scheduleOnce(2, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        claim(OTHER);
+
+        assertEquals(1, jobs.releaseLeases(OWNER));
+        List<Job> again = claim(OWNER);
+        assertEquals(1, again.size());
+        assertEquals(1L, again.get(0).tgId);
+    }
+
+    /* ---------------------------
+       complete / retry / fail
+       --------------------------- */
+
+    @Test
+    void completeAppliesStageAndFollowUpsWithDone() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        jobs.scheduleOnce(1, JobType.SEND_CALL_INVITE, now() + 60_000, "existing");
+        Job job = claim(OWNER).get(0);
+
+        jobs.complete(job, OWNER, JobResult.stage(UserStage.CHECKUP_PROMPT_SENT)
+                .then(JobType.SEND_VIDEO_PROMPT, now() - 500, "next")
+                .then(JobType.SEND_CALL_INVITE, now() - 500, "duplicate"));
+
+        assertEquals(UserStage.CHECKUP_PROMPT_SENT, users.getUser(1).orElseThrow().stage);
+        assertEquals(0L, jobs.countActive().get("RUNNING"));
+        List<Job> next = claim(OWNER);
+        assertEquals(1, next.size(), "the existing SEND_CALL_INVITE is not replaced");
+        assertEquals(JobType.SEND_VIDEO_PROMPT, next.get(0).type);
+        assertEquals("next", next.get(0).payload);
+        assertEquals(1L, jobs.countActive().get("PENDING"));
+    }
+
+    @Test
+    void rescheduleAndFail() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        Job job = claim(OWNER).get(0);
+
+        jobs.rescheduleWithError(job.id, OWNER, 1, now() - 100, "429");
+        Job retried = claim(OWNER).get(0);
+        assertEquals(job.id, retried.id);
+        assertEquals(1, retried.attempts);
+
+        assertTrue(jobs.markFailed(job.id, OWNER, 2, "403"));
+        assertEquals(1L, jobs.countActive().get("FAILED"));
+        assertEquals(0L, jobs.countActive().get("RUNNING"));
+        assertTrue(claim(OWNER).isEmpty());
+    }
+
+    @Test
+    void aLostLeaseDropsTheLateResult() throws Exception {
+        users.ensureUser(1);
+        long now = now();
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now - 1000, null);
+        Job job = jobs.claimDueJobs(now, 10, OWNER, now + 1000).get(0);
+        assertEquals(1, jobs.releaseExpiredLeases(now + 2000));
+        assertEquals(job.id, claim(OTHER).get(0).id);
+
+        assertFalse(jobs.complete(job, OWNER, JobResult.stage(UserStage.CHECKUP_PROMPT_SENT)
+                .then(JobType.SEND_VIDEO_PROMPT, now - 500, null)));
+        assertFalse(jobs.rescheduleWithError(job.id, OWNER, 1, now - 100, "late"));
+        assertFalse(jobs.markFailed(job.id, OWNER, 1, "late"));
+        assertEquals(0, jobs.markDoneAsync(job.id, OWNER).get());
+        assertEquals(UserStage.NEW, users.getUser(1).orElseThrow().stage);
+        assertEquals(1L, jobs.countActive().get("RUNNING"), "still running under the new owner");
+        assertTrue(claim(OTHER).isEmpty(), "no follow-up from the lost run");
+
+        assertTrue(jobs.complete(job, OTHER, JobResult.NONE));
+        assertEquals(0L, jobs.countActive().get("RUNNING"));
+        assertFalse(jobs.complete(job, OTHER, JobResult.NONE), "a DONE job has no lease");
+    }
+
+    @Test
+    void sessionFlushInsertsItsJobsWithTheColumns() {
+        List<Long> notified = new ArrayList<>();
+        jobs.setScheduleListener(notified::add);
+        long runAt = now() - 1000;
+        UserSession session = users.openSession(1);
+        session.markPracticeSent(now());
+        session.schedule(JobType.SEND_CHECKUP_PROMPT, runAt, "p");
+        assertTrue(claim(OWNER).isEmpty(), "nothing is written before the flush");
+
+        users.flush(session);
+        assertFalse(session.isDirty());
+        assertEquals(List.of(runAt), notified);
+        assertEquals(UserStage.PRACTICE_SENT, users.getUser(1).orElseThrow().stage);
+        List<Job> claimed = claim(OWNER);
+        assertEquals(1, claimed.size());
+        assertEquals("p", claimed.get(0).payload);
+
+        session.schedule(JobType.SEND_CHECKUP_PROMPT, runAt, null);
+        users.flush(session);
+        assertEquals(1, notified.size(), "an existing job of the type is kept");
+        assertEquals(UserStage.PRACTICE_SENT, users.getUser(1).orElseThrow().stage);
+    }
+
+    /* ---------------------------
+       Archive
+       --------------------------- */
+
+    @Test
+    void archiveMovesOnlyFinishedJobsOlderThanTheCutoff() {
+        users.ensureUsers(List.of(1L, 2L, 3L));
+        for (long tgId = 1; tgId <= 3; tgId++) {
+            jobs.scheduleOnce(tgId, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        }
+        List<Job> claimed = claim(OWNER);
+        jobs.complete(claimed.get(0), OWNER, JobResult.NONE);
+        jobs.markFailed(claimed.get(1).id, OWNER, 5, "gone");
+        jobs.scheduleOnce(1, JobType.SEND_VIDEO_PROMPT, now() + 60_000, null);
+
+        assertEquals(0, jobs.archiveFinished(now() - 60_000, 10), "nothing is that old");
+        assertEquals(1, jobs.archiveFinished(now() + 60_000, 1), "limit is honoured");
+        assertEquals(1, jobs.archiveFinished(now() + 60_000, 10));
+        assertEquals(0, jobs.archiveFinished(now() + 60_000, 10));
+
+        assertEquals(0L, jobs.countActive().get("FAILED"));
+        assertEquals(1L, jobs.countActive().get("RUNNING"));
+        assertEquals(1L, jobs.countActive().get("PENDING"));
+    }
+
+    /* ---------------------------
+       Funnel counters
+       --------------------------- */
+
+    @Test
+    void funnelCountersFollowStageChanges() {
+        users.ensureUsers(List.of(1L, 2L, 3L));
+        users.setStage(1, UserStage.READY);
+        UserSession session = users.openSession(2);
+        session.setStage(UserStage.READY);
+        users.flush(session);
+        users.setStage(2, UserStage.PRACTICE_SENT);
+        users.markChooseTimeClicked(3);
+
+        users.ensureUser(1);
+        FunnelStats stats = users.funnelStats(7);
+        assertEquals(3, stats.users);
+        assertEquals(1L, stats.stages.get(UserStage.NEW));
+        assertEquals(1L, stats.stages.get(UserStage.READY));
+        assertEquals(1L, stats.stages.get(UserStage.PRACTICE_SENT));
+        assertEquals(1, stats.chooseTimeClicked);
+        assertEquals(7, stats.days.size());
+        assertEquals(2, stats.reached(UserStage.READY.name()));
+        assertEquals(2, stats.reachedOnLastDay(UserStage.READY.name()));
+        assertEquals(1, stats.reached(UserStage.PRACTICE_SENT.name()));
+        assertEquals(1, stats.reached(FunnelStats.CHOOSE_TIME_CLICKED));
+    }
+
+    @Test
+    void completeCountsTheNewStage() {
+        users.ensureUser(1);
+        jobs.scheduleOnce(1, JobType.SEND_CHECKUP_PROMPT, now() - 1000, null);
+        jobs.complete(claim(OWNER).get(0), OWNER, JobResult.stage(UserStage.CHECKUP_PROMPT_SENT));
+
+        FunnelStats stats = users.funnelStats(1);
+        assertEquals(0L, stats.stages.get(UserStage.NEW));
+        assertEquals(1L, stats.stages.get(UserStage.CHECKUP_PROMPT_SENT));
+        assertEquals(1, stats.reachedOnLastDay(UserStage.CHECKUP_PROMPT_SENT.name()));
+    }
+
+    /* ---------------------------
+       Recipients
+       --------------------------- */
+
+    @Test
+    void recipientsPageByTgIdWithFilters() {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 1; i <= 10; i++) ids.add(i * 10);
+        users.ensureUsers(ids);
+        for (long id : ids) {
+            if (id % 20 == 0) users.setSubscribed(id, true);
+            if (id % 30 == 0) users.setStage(id, UserStage.READY);
+        }
+        users.setStartParam(40, "promo");
+
+        List<Long> all = new ArrayList<>();
+        long cursor = 0;
+        for (List<Long> page; !(page = users.recipients(Audience.ALL, cursor, 3)).isEmpty(); ) {
+            assertTrue(page.size() <= 3);
+            all.addAll(page);
+            cursor = page.get(page.size() - 1);
+        }
+        assertEquals(ids, all);
+        assertEquals(10, users.countRecipients(Audience.ALL));
+
+        Audience subscribed = Audience.parse("subscribed");
+        assertEquals(List.of(20L, 40L), users.recipients(subscribed, 0, 2));
+        assertEquals(List.of(60L, 80L, 100L), users.recipients(subscribed, 40, 10));
+        assertEquals(5, users.countRecipients(subscribed));
+        assertEquals(List.of(60L), users.recipients(Audience.parse("stage=READY subscribed"), 0, 10));
+        assertEquals(List.of(30L, 90L), users.recipients(Audience.parse("stage=READY subscribed=no"), 0, 10));
+        assertEquals(List.of(40L), users.recipients(Audience.parse("start=promo"), 0, 10));
+        assertTrue(users.recipients(Audience.ALL, 100, 10).isEmpty());
+    }
+
+    /* ---------------------------
+       file_id cache and broadcasts
+       --------------------------- */
+
+    @Test
+    void fileIdsUpsertAndDelete() throws Exception {
+        FileIdStore fileIds = storage.fileIds();
+        assertTrue(fileIds.getFileId("k").isEmpty());
+        fileIds.upsertFileId("k", "one");
+        fileIds.upsertFileIdAsync("k", "two").get();
+        assertEquals("two", fileIds.getFileId("k").orElseThrow());
+        fileIds.deleteFileIdAsync("k").get();
+        assertTrue(fileIds.getFileId("k").isEmpty());
+    }
+
+    @Test
+    void broadcastTransitionsAndCheckpoints() {
+        BroadcastStore broadcasts = storage.broadcasts();
+        Audience audience = Audience.parse("stage=READY subscribed=no start=promo");
+        Broadcast b = broadcasts.create("<b>hi</b>", audience, 42, 7);
+        Broadcast other = broadcasts.create("second", Audience.ALL, 1, 7);
+        assertEquals(BroadcastStatus.DRAFT, b.status);
+
+        assertFalse(broadcasts.transition(b.id, EnumSet.of(BroadcastStatus.RUNNING), BroadcastStatus.PAUSED));
+        assertTrue(broadcasts.transition(b.id, Set.of(BroadcastStatus.DRAFT), BroadcastStatus.RUNNING));
+        broadcasts.checkpoint(b.id, 1234, 10, 2, 1);
+        assertEquals(List.of(b.id), broadcasts.running().stream().map(x -> x.id).toList());
+        assertEquals(List.of(other.id, b.id), broadcasts.recent(10).stream().map(x -> x.id).toList());
+
+        Broadcast read = broadcasts.get(b.id).orElseThrow();
+        assertEquals("<b>hi</b>", read.text);
+        assertEquals(audience.toString(), read.audience.toString());
+        assertEquals(42, read.total);
+        assertEquals(1234, read.cursor);
+        assertEquals(13, read.processed());
+        assertEquals(null, read.finishedAt);
+
+        assertTrue(broadcasts.transition(b.id, Set.of(BroadcastStatus.RUNNING), BroadcastStatus.DONE));
+        assertTrue(broadcasts.get(b.id).orElseThrow().finishedAt != null);
+        assertTrue(broadcasts.running().isEmpty());
+        assertTrue(broadcasts.get(-1).isEmpty());
+    }
+}